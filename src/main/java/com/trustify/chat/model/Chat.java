@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Set;
 
 @Document(collection = "chats")
+@CompoundIndex(name = "participants_updatedAt", def = "{'participants': 1, 'updatedAt': -1}")
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -0,0 +1,10 @@
+package com.trustify.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.config.EnableMongoAuditing;
+
+// Fills @CreatedDate / @LastModifiedDate on repository saves; updatedAt backs the HTTP ETags
+@Configuration
+@EnableMongoAuditing
+public class MongoAuditingConfig {
+}
@@ -0,0 +1,18 @@
+package com.trustify.config;
+
+import com.trustify.service.QueryProfiler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MongoProfilingConfig {
+
+    // Hooks the query profiler into every command the Mongo client sends
+    @Bean
+    @ConditionalOnProperty(name = "mongo.profiler.enabled", havingValue = "true", matchIfMissing = true)
+    public MongoClientSettingsBuilderCustomizer queryProfilerCustomizer(QueryProfiler queryProfiler) {
+        return builder -> builder.addCommandListener(queryProfiler);
+    }
+}
@@ -1,14 +1,31 @@
 package com.trustify.controller;
 
+import com.stripe.exception.StripeException;
+import com.trustify.model.DuplicateFlag;
+import com.trustify.model.WebhookEvent;
 import com.trustify.repository.DisputeRepository;
 import com.trustify.repository.UserRepository;
 import com.trustify.service.AdminService;
 import com.trustify.service.CnicVerificationService;
+import com.trustify.service.DuplicateDetectionService;
+import com.trustify.service.EscrowSummaryService;
+import com.trustify.service.FavoriteCountRepair;
+import com.trustify.service.ListingCache;
+import com.trustify.service.ListingFacetCache;
+import com.trustify.service.ListingSuggestService;
+import com.trustify.service.QueryProfiler;
+import com.trustify.service.StripeGateway;
+import com.trustify.service.StripeReconciliationService;
+import com.trustify.service.StripeWebhookInbox;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/admin")
 @PreAuthorize("hasAuthority('ADMIN')")
@@ -26,6 +43,36 @@ public class AdminController {
     @Autowired
     CnicVerificationService cnicVerificationService;
 
+    @Autowired
+    QueryProfiler queryProfiler;
+
+    @Autowired
+    ListingCache listingCache;
+
+    @Autowired
+    ListingFacetCache listingFacetCache;
+
+    @Autowired
+    DuplicateDetectionService duplicateDetectionService;
+
+    @Autowired
+    ListingSuggestService listingSuggestService;
+
+    @Autowired
+    StripeWebhookInbox stripeWebhookInbox;
+
+    @Autowired
+    StripeGateway stripeGateway;
+
+    @Autowired
+    EscrowSummaryService escrowSummaryService;
+
+    @Autowired
+    StripeReconciliationService stripeReconciliationService;
+
+    @Autowired
+    FavoriteCountRepair favoriteCountRepair;
+
     @GetMapping("/dashboard")
     public ResponseEntity<String> dashboard() {
         return ResponseEntity.ok("Welcome to the Admin Dashboard");
@@ -96,4 +143,130 @@ public class AdminController {
     public ResponseEntity<?> getAllCnics(){
         return ResponseEntity.ok(cnicVerificationService.getAllVerifications());
     }
+
+    //  ========== Near-duplicate listing review ==============
+    // flags raised by the text / image LSH checks, newest first
+    @GetMapping("/duplicates")
+    public ResponseEntity<?> getDuplicateFlags(
+            @RequestParam(defaultValue = "OPEN") String status,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(duplicateDetectionService.getFlags(
+                parseEnum(DuplicateFlag.Status.class, "status", status), page, size));
+    }
+
+    @GetMapping("/duplicates/listing/{listingId}")
+    public ResponseEntity<?> getDuplicateFlagsForListing(@PathVariable String listingId) {
+        return ResponseEntity.ok(duplicateDetectionService.getFlagsForListing(listingId));
+    }
+
+    @PostMapping("/duplicates/{id}/confirm")
+    public ResponseEntity<?> confirmDuplicate(@PathVariable String id, Principal principal) {
+        return ResponseEntity.ok(duplicateDetectionService.review(id, DuplicateFlag.Status.CONFIRMED, principal.getName()));
+    }
+
+    @PostMapping("/duplicates/{id}/dismiss")
+    public ResponseEntity<?> dismissDuplicate(@PathVariable String id, Principal principal) {
+        return ResponseEntity.ok(duplicateDetectionService.review(id, DuplicateFlag.Status.DISMISSED, principal.getName()));
+    }
+
+    @GetMapping("/duplicates/stats")
+    public ResponseEntity<?> getDuplicateIndexStats() {
+        return ResponseEntity.ok(duplicateDetectionService.stats());
+    }
+
+    //  ========== Stripe webhook inbox ==============
+    @GetMapping("/webhooks")
+    public ResponseEntity<?> getWebhookEvents(
+            @RequestParam(defaultValue = "DEAD") String status,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(stripeWebhookInbox.list(parseEnum(WebhookEvent.Status.class, "status", status), page, size));
+    }
+
+    @GetMapping("/webhooks/{eventId}")
+    public ResponseEntity<?> getWebhookEvent(@PathVariable String eventId) {
+        return ResponseEntity.ok(stripeWebhookInbox.get(eventId));
+    }
+
+    // re-run one stored event, e.g. after fixing the cause of a DEAD one
+    @PostMapping("/webhooks/{eventId}/replay")
+    public ResponseEntity<?> replayWebhookEvent(@PathVariable String eventId) {
+        return ResponseEntity.ok(stripeWebhookInbox.replay(eventId));
+    }
+
+    @PostMapping("/webhooks/replay-dead")
+    public ResponseEntity<?> replayDeadWebhookEvents() {
+        return ResponseEntity.ok(Map.of("requeued", stripeWebhookInbox.replayDead()));
+    }
+
+    //  ========== Mongo query profile / index advisor ==============
+    // per query shape latency, sampled explain plans and an index suggestion for COLLSCAN shapes
+    @GetMapping("/query-profile")
+    public ResponseEntity<?> getQueryProfile() {
+        return ResponseEntity.ok(Map.of(
+                "queries", queryProfiler.report(),
+                "droppedShapes", queryProfiler.getDroppedShapes()
+        ));
+    }
+
+    @DeleteMapping("/query-profile")
+    public ResponseEntity<?> resetQueryProfile() {
+        queryProfiler.reset();
+        return ResponseEntity.ok("Query profile cleared");
+    }
+
+    // hit / miss / eviction counters of the in-process caches
+    @GetMapping("/cache-stats")
+    public ResponseEntity<?> getCacheStats() {
+        return ResponseEntity.ok(Map.of(
+                "listings", listingCache.stats(),
+                "listingFacets", listingFacetCache.stats(),
+                "listingSuggest", listingSuggestService.stats()));
+    }
+
+    // recompute escrow_summaries from transactions now instead of waiting for the nightly run
+    @PostMapping("/escrow-summaries/reconcile")
+    public ResponseEntity<?> reconcileEscrowSummaries() {
+        return ResponseEntity.ok(escrowSummaryService.reconcile());
+    }
+
+    // recount listing favorite counters now instead of waiting for the nightly run
+    @PostMapping("/favorite-counts/repair")
+    public ResponseEntity<?> repairFavoriteCounts() {
+        return ResponseEntity.ok(favoriteCountRepair.repair());
+    }
+
+    // compare transactions with Stripe now; full=true ignores the checkpoint
+    @PostMapping("/stripe-reconcile")
+    public ResponseEntity<?> reconcileWithStripe(@RequestParam(defaultValue = "false") boolean full) throws StripeException {
+        return ResponseEntity.ok(stripeReconciliationService.run(full));
+    }
+
+    // checkpoint and report of the last reconciliation run
+    @GetMapping("/stripe-reconcile")
+    public ResponseEntity<?> lastStripeReconciliation() {
+        return ResponseEntity.ok(stripeReconciliationService.lastRun());
+    }
+
+    // differences with Stripe that were not repaired automatically, newest first
+    @GetMapping("/stripe-reconcile/issues")
+    public ResponseEntity<?> stripeReconciliationIssues(@RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(stripeReconciliationService.openIssues(limit));
+    }
+
+    // circuit breaker state, bulkhead usage and latency per Stripe operation
+    @GetMapping("/stripe-stats")
+    public ResponseEntity<?> getStripeStats() {
+        return ResponseEntity.ok(stripeGateway.stats());
+    }
+
+    // case-insensitive; an unknown value is a 400 that names the accepted ones
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.trim())) return constant;
+        }
+        throw new RuntimeException("Invalid " + name + " '" + value + "'; expected one of "
+                + Arrays.toString(type.getEnumConstants()));
+    }
 }
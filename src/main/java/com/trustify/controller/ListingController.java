@@ -3,22 +3,31 @@ package com.trustify.controller;
 import com.trustify.dto.ListingDTO;
 import com.trustify.model.Listing;
 import com.trustify.service.ImageUploadService;
+import com.trustify.service.ListingImportService;
 import com.trustify.service.ListingService;
+import com.trustify.service.ListingSuggestService;
 import com.trustify.service.impl.ListingServiceImpl;
+import com.trustify.util.ETags;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.security.Principal;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -30,6 +39,17 @@ public class ListingController {
     private final ListingService listingService;
     private final ImageUploadService imageUploadService;
     private final ListingServiceImpl listingServiceImpl;
+    private final ListingImportService listingImportService;
+    private final ListingSuggestService listingSuggestService;
+
+    // Public reads may be cached briefly; responses carrying per-user favorite flags stay private
+    private static final CacheControl DETAIL_CACHE = CacheControl.maxAge(Duration.ofSeconds(10)).cachePublic().mustRevalidate();
+    private static final CacheControl FEED_CACHE = CacheControl.maxAge(Duration.ofSeconds(10)).cachePublic();
+    private static final CacheControl FACET_CACHE = CacheControl.maxAge(Duration.ofSeconds(30)).cachePublic();
+
+    private static CacheControl feedCache(Principal principal) {
+        return principal == null ? FEED_CACHE : CacheControl.noCache().cachePrivate();
+    }
 
 
     // Auth required
@@ -42,16 +62,13 @@ public class ListingController {
             @RequestParam("type") String type,
             @RequestParam("category") String category,
             @RequestParam(value = "images", required = false) List<MultipartFile> images,
+            @RequestParam(value = "latitude", required = false) Double latitude,
+            @RequestParam(value = "longitude", required = false) Double longitude,
             Principal principal
     ){
         try {
-            List<String> imageUrls = new ArrayList<>();
-            if (images != null && !images.isEmpty()) {
-                for (MultipartFile file : images) {
-                    String url = imageUploadService.saveImage(file);
-                    imageUrls.add(url);
-                }
-            }
+            // uploaded in parallel, returned in the same order as the images
+            List<String> imageUrls = imageUploadService.saveImages(images);
 
             ListingDTO dto = new ListingDTO();
             dto.setTitle(title);
@@ -60,6 +77,8 @@ public class ListingController {
             dto.setType(Listing.ListingType.valueOf(type.toUpperCase()));
             dto.setCategory(category);
             dto.setImageUrls(imageUrls);
+            dto.setLatitude(latitude);
+            dto.setLongitude(longitude);
 
             return ResponseEntity.ok(listingService.createListing(dto, principal));
 
@@ -68,27 +87,73 @@ public class ListingController {
         }
     }
 
+    // Bulk import for merchant onboarding: the raw body is NDJSON (one listing per line) or CSV
+    // with a header row, read as a stream rather than multipart so large files are not buffered.
+    // The response is an NDJSON report, one line per row and a final summary line.
+    @PostMapping("/import")
+    @PreAuthorize("hasRole('USER')")
+    public void importListings(
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Principal principal
+    ) throws IOException {
+        ListingImportService.Format importFormat;
+        if (format != null) {
+            importFormat = ListingImportService.Format.valueOf(format.toUpperCase());
+        } else {
+            String contentType = request.getContentType();
+            importFormat = contentType != null && contentType.startsWith("text/csv")
+                    ? ListingImportService.Format.CSV
+                    : ListingImportService.Format.NDJSON;
+        }
+
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        listingImportService.importListings(request.getInputStream(), importFormat, principal, response.getOutputStream());
+    }
+
     // no auth required
     // http://localhost:8080/listings?page=0&size=5&sortBy=price&sortDir=asc
     // this is how it is going to be working in postman
     // this is how it worked earlier
     // http://localhost:8080/api/listings
+    // cursor mode (infinite scroll): pass ?cursor= for the first page, then the returned nextCursor
     @GetMapping
     public ResponseEntity<?> getAllListings(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
             @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String cursor,
             Principal principal
     ) {
-        return ResponseEntity.ok(listingService.getAllActiveListings(page, size, sortBy, sortDir, principal));
+        if (cursor != null) {
+            return ResponseEntity.ok().cacheControl(feedCache(principal)).body(listingService.getAllActiveListingsAfter(cursor, size, sortBy, sortDir, principal));
+        }
+        return ResponseEntity.ok().cacheControl(feedCache(principal)).body(listingService.getAllActiveListings(page, size, sortBy, sortDir, principal));
       //  return ResponseEntity.ok(listingService.getAllActiveListings());
     }
 
     // no auth required
+    // polling clients send If-None-Match and get 304 while the listing is unchanged
     @GetMapping("/{id}")
-    public ResponseEntity<ListingDTO> getListingById(@PathVariable String id, HttpServletRequest request) {
+    public ResponseEntity<ListingDTO> getListingById(
+            @PathVariable String id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest request
+    ) {
+        if (ifNoneMatch != null) {
+            String etag = listingService.getListingETag(id);
+            if (ETags.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(DETAIL_CACHE).build();
+            }
+        }
+
+        // shared instance from ListingCache: read it, never modify it
         Listing listing = listingService.getListingById(id);
+        // counted on full loads only, so a client re-polling with If-None-Match is not a new view
+        listingService.recordView(id);
 
         ListingDTO dto = new ListingDTO();
         dto.setTitle(listing.getTitle());
@@ -97,8 +162,15 @@ public class ListingController {
         dto.setType(listing.getType());
         dto.setCategory(listing.getCategory());
         dto.setImageUrls(listingServiceImpl.buildFullImageUrls(listing.getImageUrls(), request));
+        if (listing.getLocation() != null) {
+            dto.setLatitude(listing.getLocation().getY());
+            dto.setLongitude(listing.getLocation().getX());
+        }
 
-        return ResponseEntity.ok(dto);
+        return ResponseEntity.ok()
+                .eTag(listingService.etagOf(listing))
+                .cacheControl(DETAIL_CACHE)
+                .body(dto);
       //  return ResponseEntity.ok(listingService.getListingById(id));
     }
 
@@ -130,58 +202,154 @@ public class ListingController {
 
     // no auth required
     @GetMapping("/rent")
-    public ResponseEntity<List<Listing>> getAllRentListings(
+    public ResponseEntity<?> getAllRentListings(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "desc") String sortDir
+            @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String cursor
     ) {
-        return ResponseEntity.ok(listingService.getListingsByType(Listing.ListingType.RENT, page, size, sortBy, sortDir));
+        if (cursor != null) {
+            return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.getListingsByTypeAfter(Listing.ListingType.RENT, cursor, size, sortBy, sortDir));
+        }
+        return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.getListingsByType(Listing.ListingType.RENT, page, size, sortBy, sortDir));
 
         //return ResponseEntity.ok(listingService.getListingsByType(Listing.ListingType.RENT));
     }
 
     // no auth required
     @GetMapping("/sell")
-    public ResponseEntity<List<Listing>> getAllSellListings(
+    public ResponseEntity<?> getAllSellListings(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "desc") String sortDir
+            @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String cursor
     ) {
-        return ResponseEntity.ok(listingService.getListingsByType(Listing.ListingType.SALE, page, size, sortBy, sortDir));
+        if (cursor != null) {
+            return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.getListingsByTypeAfter(Listing.ListingType.SALE, cursor, size, sortBy, sortDir));
+        }
+        return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.getListingsByType(Listing.ListingType.SALE, page, size, sortBy, sortDir));
         // return ResponseEntity.ok(listingService.getListingsByType(Listing.ListingType.SALE));
     }
 
     // no auth required
+    // http://localhost:8080/api/listings/search?q=iphone 13&category=mobiles&type=SALE&priceMax=200000
+    // q goes through the listings text index, category is an exact case-insensitive match;
+    // sortBy=relevance ranks by text score
     @GetMapping("/search")
-    public ResponseEntity<Page<Listing>> searchListings(
+    public ResponseEntity<?> searchListings(
+            @RequestParam(required = false) String q,
             @RequestParam(required = false) String category,
             @RequestParam(required = false) Listing.ListingType type,
             @RequestParam(required = false) Double priceMax,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "desc") String sortDir
+            @RequestParam(defaultValue = "relevance") String sortBy,
+            @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String cursor
     ) {
-        return ResponseEntity.ok(listingService.searchListings(
-                category != null ? category : "",
-                type != null ? type : Listing.ListingType.SALE,
-                priceMax != null ? priceMax : Double.MAX_VALUE,
+        if (cursor != null) {
+            return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.searchListingsAfter(
+                    q, category, type, priceMax,
+                    cursor, size, sortBy, sortDir
+            ));
+        }
+        return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingService.searchListings(
+                q, category, type, priceMax,
                 page, size, sortBy, sortDir
         ));
     }
 
+    // no auth required
+    // http://localhost:8080/api/listings/trending?page=0&size=20
+    // ranked by recent favorites, views and purchases; the ranking refreshes every few seconds
+    @GetMapping("/trending")
+    public ResponseEntity<?> getTrendingListings(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            Principal principal
+    ) {
+        return ResponseEntity.ok().cacheControl(feedCache(principal))
+                .body(listingService.getTrendingListings(page, size, principal));
+    }
+
+    // no auth required
+    // http://localhost:8080/api/listings/facets?q=iphone&type=SALE
+    // counts per category, per type and per price bucket for the same filters as /search
+    @GetMapping("/facets")
+    public ResponseEntity<?> getFacets(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Listing.ListingType type,
+            @RequestParam(required = false) Double priceMax
+    ) {
+        return ResponseEntity.ok().cacheControl(FACET_CACHE).body(listingService.getFacets(q, category, type, priceMax));
+    }
+
+    // no auth required
+    // typeahead for the search box: ranked title / category completions from memory, no Mongo query
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "8") int limit
+    ) {
+        return ResponseEntity.ok().cacheControl(FEED_CACHE).body(listingSuggestService.suggest(q, limit));
+    }
+
+    // no auth required
+    // http://localhost:8080/api/listings/nearby?lat=31.52&lng=74.35&radiusKm=5&type=RENT
+    // nearest first; pass the returned nextCursor to continue
+    @GetMapping("/nearby")
+    public ResponseEntity<?> getNearbyListings(
+            @RequestParam double lat,
+            @RequestParam double lng,
+            @RequestParam(required = false) Double radiusKm,
+            @RequestParam(required = false) Listing.ListingType type,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Double priceMax,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
+            Principal principal
+    ) {
+        return ResponseEntity.ok().cacheControl(feedCache(principal)).body(listingService.getListingsNear(
+                lat, lng, radiusKm, type, category, priceMax, cursor, size, principal));
+    }
+
+    // no auth required
+    // http://localhost:8080/api/listings/within?minLat=31.4&minLng=74.2&maxLat=31.6&maxLng=74.5
+    // map viewport search, ordered by distance from the centre of the box
+    @GetMapping("/within")
+    public ResponseEntity<?> getListingsWithin(
+            @RequestParam double minLat,
+            @RequestParam double minLng,
+            @RequestParam double maxLat,
+            @RequestParam double maxLng,
+            @RequestParam(required = false) Listing.ListingType type,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Double priceMax,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
+            Principal principal
+    ) {
+        return ResponseEntity.ok().cacheControl(feedCache(principal)).body(listingService.getListingsWithin(
+                minLat, minLng, maxLat, maxLng, type, category, priceMax, cursor, size, principal));
+    }
+
     // auth required
     @GetMapping("/mine")
     @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<List<Listing>> getMyListings(
+    public ResponseEntity<?> getMyListings(
             Principal principal,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "desc") String sortDir
+            @RequestParam(defaultValue = "desc") String sortDir,
+            @RequestParam(required = false) String cursor
             ) {
+        if (cursor != null) {
+            return ResponseEntity.ok(listingService.getListingsByOwnerAfter(principal, cursor, size, sortBy, sortDir));
+        }
         return ResponseEntity.ok(listingService.getListingsByOwner(principal, page, size, sortBy, sortDir));
         //return ResponseEntity.ok(listingService.getListingsByUser(principal));
     }
@@ -201,6 +369,35 @@ public class ListingController {
         }
     }
 
+    // Idempotent variants: repeating the call leaves the same state
+    @PutMapping("/{listingId}/favorite")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> addFavorite(
+            @PathVariable String listingId,
+            Principal principal
+    ) {
+        try {
+            boolean added = listingService.addFavorite(listingId, principal);
+            return ResponseEntity.ok(Map.of("favorite", true, "changed", added));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{listingId}/favorite")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> removeFavorite(
+            @PathVariable String listingId,
+            Principal principal
+    ) {
+        try {
+            boolean removed = listingService.removeFavorite(listingId, principal);
+            return ResponseEntity.ok(Map.of("favorite", false, "changed", removed));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("error", e.getMessage()));
+        }
+    }
+
     // this requires auth
     @GetMapping("/favorites")
     @PreAuthorize("hasRole('USER')")
@@ -1,26 +1,20 @@
 package com.trustify.controller;
 
 import com.stripe.exception.SignatureVerificationException;
-import com.stripe.model.Charge;
 import com.stripe.model.Event;
-import com.stripe.model.PaymentIntent;
 import com.stripe.net.Webhook;
-import com.trustify.service.TransactionService;
-import jakarta.servlet.http.HttpServletRequest;
+import com.trustify.service.StripeWebhookInbox;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.BufferedReader;
-import java.util.stream.Collectors;
-
 @RestController
 @RequestMapping("/stripe")
 @RequiredArgsConstructor
 public class StripeWebhookController {
 
-    private final TransactionService transactionService;
+    private final StripeWebhookInbox stripeWebhookInbox;
 
     @Value("${STRIPE_WEBHOOK_SECRET}")
     private String webhookSecret;
@@ -38,29 +32,9 @@ public class StripeWebhookController {
             return ResponseEntity.status(400).body("Invalid payload");
         }
 
-        String type = event.getType();
-
-        switch (type) {
-            case "payment_intent.succeeded":
-            case "payment_intent.amount_capturable_updated": {
-                var pi = (com.stripe.model.PaymentIntent) event.getDataObjectDeserializer().getObject().orElse(null);
-                if (pi != null) transactionService.handlePaymentIntentSucceeded(pi.getId());
-                break;
-            }
-            case "payment_intent.canceled": {
-                var pi = (com.stripe.model.PaymentIntent) event.getDataObjectDeserializer().getObject().orElse(null);
-                if (pi != null) transactionService.handlePaymentIntentCancelled(pi.getId());
-                break;
-            }
-            case "charge.refunded": {
-                // optionally handle refunds
-                break;
-            }
-            default:
-                // log or ignore
-        }
-
-        return ResponseEntity.ok("received");
+        // durable append only; processing happens in the inbox lanes after the ack
+        boolean stored = stripeWebhookInbox.append(event, payload);
+        return ResponseEntity.ok(stored ? "received" : "duplicate");
     }
 
 }
@@ -3,10 +3,17 @@ package com.trustify.controller;
 import com.trustify.dto.TimelineLogDTO;
 import com.trustify.model.TimelineLog;
 import com.trustify.repository.TimelineLogRepository;
+import com.trustify.repository.projection.IdView;
+import com.trustify.util.ETags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -19,8 +26,21 @@ public class TimelineLogController {
     @Autowired
     private TimelineLogRepository timelineLogRepository;
 
+    private static final CacheControl PRIVATE_REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    // Logs are append-only: the ETag is (count, newest id), both read from the index, so an
+    // unchanged timeline is answered with 304 without loading any log
     @GetMapping("/{transactionId}")
-    public List<TimelineLogDTO> getTimeline(@PathVariable String transactionId){
+    public ResponseEntity<List<TimelineLogDTO>> getTimeline(
+            @PathVariable String transactionId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+        if (ifNoneMatch != null) {
+            String etag = timelineETag(transactionId);
+            if (ETags.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(PRIVATE_REVALIDATE).build();
+            }
+        }
+
         List<TimelineLog> logs = timelineLogRepository
                 .findByTransactionIdOrderByCreatedAtAsc(transactionId);
 
@@ -34,7 +54,23 @@ public class TimelineLogController {
                 .timestamp(log.getCreatedAt())
                 .build()).collect(Collectors.toList());
 
-        return collect;
+        // the loaded list already holds both parts of the tag
+        String newestId = logs.stream()
+                .max(Comparator.comparing(TimelineLog::getCreatedAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparing(TimelineLog::getId))
+                .map(TimelineLog::getId)
+                .orElse(null);
+        return ResponseEntity.ok()
+                .eTag(ETags.of(transactionId, logs.size(), newestId))
+                .cacheControl(PRIVATE_REVALIDATE)
+                .body(collect);
+    }
+
+    private String timelineETag(String transactionId) {
+        String newestId = timelineLogRepository.findFirstByTransactionIdOrderByCreatedAtDescIdDesc(transactionId)
+                .map(IdView::getId)
+                .orElse(null);
+        return ETags.of(transactionId, timelineLogRepository.countByTransactionId(transactionId), newestId);
     }
 
 }
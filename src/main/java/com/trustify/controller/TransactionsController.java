@@ -3,14 +3,21 @@ package com.trustify.controller;
 import com.stripe.model.PaymentIntent;
 import com.trustify.dto.*;
 import com.trustify.model.Transaction;
+import com.trustify.service.EscrowSummaryService;
+import com.trustify.service.IdempotencyService;
 import com.trustify.service.TransactionService;
+import com.trustify.util.ETags;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -22,19 +29,30 @@ public class TransactionsController {
     private String stripeSecret;
 
     private final TransactionService transactionService;
+    private final IdempotencyService idempotencyService;
+    private final EscrowSummaryService escrowSummaryService;
+
+    // per-user data: never in shared caches, always revalidated
+    private static final CacheControl PRIVATE_REVALIDATE = CacheControl.noCache().cachePrivate();
 
     // payment intent creation and authorization
+    // with an Idempotency-Key header, retries get the first response instead of a second PaymentIntent
     @PostMapping
-    public ResponseEntity<?> createTransaction(@RequestBody CreateTransactionRequest req) {
-        CreateTransactionResult result = transactionService.createAndAuthorize(req);
-        Transaction tx = result.getTransaction();
+    public ResponseEntity<?> createTransaction(
+            @RequestBody CreateTransactionRequest req,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            Principal principal) {
+        return idempotencyService.execute("tx-create", idempotencyKey, principal, req, stripeKey -> {
+            CreateTransactionResult result = transactionService.createAndAuthorize(req, stripeKey);
+            Transaction tx = result.getTransaction();
 
-        TransactionResponse resp = new TransactionResponse();
-        resp.setTransactionId(tx.getId());
-        resp.setStripeClientSecret(result.getStripeClientSecret());
-        resp.setStripePaymentIntentId(tx.getStripePaymentIntentId());
+            TransactionResponse resp = new TransactionResponse();
+            resp.setTransactionId(tx.getId());
+            resp.setStripeClientSecret(result.getStripeClientSecret());
+            resp.setStripePaymentIntentId(tx.getStripePaymentIntentId());
 
-        return ResponseEntity.ok(resp);
+            return ResponseEntity.ok(resp);
+        });
     }
 
 
@@ -45,10 +63,43 @@ public class TransactionsController {
         return ResponseEntity.ok("Refund initiated");
     }
 
+    // the caller's purchases and sales, newest first; pass the returned nextCursor for the next page
+    @GetMapping("/mine")
+    public ResponseEntity<?> myTransactions(
+            @RequestParam(required = false) Transaction.TransactionStatus status,
+            @RequestParam(required = false) Transaction.TransactionType type,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            Principal principal) {
+        return ResponseEntity.ok()
+                .cacheControl(PRIVATE_REVALIDATE)
+                .body(transactionService.listForUser(principal.getName(), status, type, cursor, size));
+    }
+
+    // dashboard counters: funds in escrow, pending actions, open disputes, completed this month
+    @GetMapping("/summary")
+    public ResponseEntity<?> mySummary(Principal principal) {
+        return ResponseEntity.ok()
+                .cacheControl(PRIVATE_REVALIDATE)
+                .body(escrowSummaryService.summaryFor(principal.getName()));
+    }
+
+    // If-None-Match is answered from an _id/updatedAt projection, without loading the transaction
     @GetMapping("/{id}")
-    public ResponseEntity<?> get(@PathVariable String id) {
+    public ResponseEntity<?> get(
+            @PathVariable String id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            String etag = transactionService.getTransactionETag(id);
+            if (ETags.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(PRIVATE_REVALIDATE).build();
+            }
+        }
         Transaction tx = transactionService.getTransaction(id);
-        return ResponseEntity.ok(tx);
+        return ResponseEntity.ok()
+                .eTag(transactionService.etagOf(tx))
+                .cacheControl(PRIVATE_REVALIDATE)
+                .body(tx);
     }
 
     // ------------------------------------------------------ //
@@ -67,10 +118,12 @@ public class TransactionsController {
 
 
     // ---------------- Confirm Release (Admin / Seller finalizes) ----------------
+    // Idempotency-Key: a retried release replays the first capture instead of capturing twice
     @PostMapping("/{id}/confirm-release")
     public ResponseEntity<?> confirmRelease(
             @PathVariable String id,
             @RequestBody(required = false) Map<String, Object> body,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
             Principal principal) {
 
         Long amountToCaptureCents = null;
@@ -78,8 +131,10 @@ public class TransactionsController {
             amountToCaptureCents = Long.valueOf(body.get("amountToCaptureCents").toString());
         }
 
-        CaptureResponse resp = transactionService.capture(id, principal.getName(), amountToCaptureCents);
-        return ResponseEntity.ok(resp);
+        Long amount = amountToCaptureCents;
+        Object request = List.of(id, body != null ? body : Map.of());
+        return idempotencyService.execute("tx-release", idempotencyKey, principal, request, stripeKey ->
+                ResponseEntity.ok(transactionService.capture(id, principal.getName(), amount, stripeKey)));
     }
 
     // ---------------- Open Dispute ----------------
@@ -0,0 +1,24 @@
+package com.trustify.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class EscrowSummaryDTO {
+    private Side asBuyer;
+    private Side asSeller;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Side {
+        private long inEscrow;
+        private long fundsInEscrowCents;
+        private long pendingActions;
+        private long disputesOpen;
+        private long completedThisMonth;
+    }
+}
@@ -26,5 +26,9 @@ public class ListingDTO {
 
     private List<String> imageUrls;
 
+    // optional; both or neither
+    private Double latitude;
+    private Double longitude;
+
     private boolean isFavorite;
 }
@@ -0,0 +1,27 @@
+package com.trustify.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class ListingFacets {
+    private long total;
+    private Map<String, Long> categories;   // most frequent first
+    private Map<String, Long> types;        // SALE / RENT
+    private List<PriceBucket> priceBuckets;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class PriceBucket {
+        private double min;
+        private Double max;  // null for the open-ended top bucket
+        private long count;
+    }
+}
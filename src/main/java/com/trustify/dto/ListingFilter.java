@@ -0,0 +1,17 @@
+package com.trustify.dto;
+
+import com.trustify.model.Listing;
+import lombok.Builder;
+import lombok.Data;
+
+// Filters shared by the listing feeds; null fields are not applied
+@Data
+@Builder
+public class ListingFilter {
+    private Listing.ListingStatus status;
+    private Listing.ListingType type;
+    private String ownerId;
+    private String category;
+    private Double priceMax;
+    private String text; // free-text terms, resolved against the listings text index
+}
@@ -0,0 +1,27 @@
+package com.trustify.dto;
+
+import com.trustify.model.Listing;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+// Card shown in feeds; the full listing (with description) comes from GET /listings/{id}
+@Data
+public class ListingSummaryDTO {
+    private String id;
+    private String title;
+    private double price;
+    private Listing.ListingType type;
+    private String category;
+    private List<String> imageUrls;
+    private String thumbnailUrl;  // card-sized variant of the first image, the original until it exists
+    private String blurHash;
+    private long favoriteCount;
+    private Instant createdAt;
+    private Listing.ListingStatus status; // only on the owner's own listings (/listings/mine)
+    private Long viewCount;               // same
+    private Long impressionCount;         // same
+
+    private boolean isFavorite;
+}
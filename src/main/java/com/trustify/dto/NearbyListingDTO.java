@@ -0,0 +1,18 @@
+package com.trustify.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.trustify.model.ListingImage;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.List;
+
+// Feed card plus its distance from the search origin; read straight from the $geoNear output
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class NearbyListingDTO extends ListingSummaryDTO {
+    private double distance; // meters
+
+    @JsonIgnore
+    private List<ListingImage> imageVariants; // read from Mongo, surfaced as thumbnailUrl/blurHash
+}
@@ -0,0 +1,27 @@
+package com.trustify.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class QueryProfileEntry {
+    private String collection;
+    private String command;
+    private String shape;          // filter/sort with literal values replaced by "?"
+
+    private long count;
+    private long slowCount;
+    private double totalMs;
+    private double meanMs;
+    private double p50Ms;
+    private double p99Ms;
+    private double maxMs;
+
+    private Boolean collectionScan; // null until an explain has been sampled
+    private String winningPlan;
+    private String suggestedIndex;  // only set for COLLSCAN shapes
+    private Instant lastSeenAt;
+}
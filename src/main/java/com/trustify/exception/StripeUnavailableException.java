@@ -0,0 +1,7 @@
+package com.trustify.exception;
+
+public class StripeUnavailableException extends RuntimeException {
+    public StripeUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,57 @@
+package com.trustify.migration;
+
+import com.trustify.model.Listing;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.stream.Stream;
+
+/**
+ * Fills Listing.categoryKey on listings written before the category filter moved off the
+ * text index. Safe to run on every startup: afterwards every listing with a category has
+ * its key.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CategoryKeyMigration implements ApplicationRunner {
+
+    private static final int BULK_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Query legacy = new Query(Criteria.where("category").exists(true).and("categoryKey").exists(false));
+        legacy.fields().include("_id", "category");
+
+        long migrated = 0;
+        int pending = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+        try (Stream<Document> rows = mongoTemplate.stream(legacy, Document.class, "listings")) {
+            for (Document row : (Iterable<Document>) rows::iterator) {
+                String key = Listing.categoryKey(row.getString("category"));
+                if (key == null) continue;
+                bulk.updateOne(new Query(Criteria.where("_id").is(row.get("_id"))), new Update().set("categoryKey", key));
+                if (++pending >= BULK_BATCH_SIZE) {
+                    migrated += bulk.execute().getModifiedCount();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+                    pending = 0;
+                }
+            }
+        }
+        if (pending > 0) migrated += bulk.execute().getModifiedCount();
+        if (migrated > 0) {
+            log.info("Set categoryKey on {} legacy listings", migrated);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.trustify.migration;
+
+import com.trustify.model.Listing;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Marks listings from before Listing.derivativesPending existed that still need derivatives
+ * (none yet, or a failed attempt), so the backfill finds them on its partial index, and
+ * derived listings with images that have no perceptual hash as hashesPending, for the hash
+ * backfill. Safe to run on every startup: marked listings are skipped.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DerivativesPendingMigration implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Query legacy = new Query(new Criteria().andOperator(
+                Criteria.where("imageUrls.0").exists(true),
+                Criteria.where("derivativesPending").exists(false),
+                new Criteria().orOperator(
+                        Criteria.where("imageVariants").exists(false),
+                        Criteria.where("derivativesFailedAt").exists(true))));
+        long migrated = mongoTemplate.updateMulti(legacy, new Update().set("derivativesPending", true), Listing.class)
+                .getModifiedCount();
+        if (migrated > 0) {
+            log.info("Marked {} legacy listings as waiting for image derivatives", migrated);
+        }
+
+        // every image, variant-less ones included; a pending derive computes the hashes anyway
+        Query unhashed = new Query(new Criteria().andOperator(
+                Criteria.where("imageVariants").elemMatch(Criteria.where("dHash").exists(false)),
+                Criteria.where("derivativesPending").ne(true),
+                Criteria.where("hashesPending").exists(false),
+                Criteria.where("hashAttempts").exists(false)));
+        long unhashedCount = mongoTemplate.updateMulti(unhashed, new Update().set("hashesPending", true), Listing.class)
+                .getModifiedCount();
+        if (unhashedCount > 0) {
+            log.info("Marked {} legacy listings as waiting for image hashes", unhashedCount);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.trustify.migration;
+
+import com.trustify.model.Favorite;
+import com.trustify.model.Listing;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Moves the old embedded users.favoriteListingIds arrays into the favorites collection
+ * and recomputes listing favorite counters. Safe to run on every startup: once the
+ * arrays are unset there is nothing left to migrate.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FavoritesMigration implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Query legacy = new Query(Criteria.where("favoriteListingIds.0").exists(true));
+        legacy.fields().include("_id").include("favoriteListingIds");
+
+        List<Document> users = mongoTemplate.find(legacy, Document.class, "users");
+        if (users.isEmpty()) {
+            return;
+        }
+
+        Instant now = Instant.now();
+        int moved = 0;
+        for (Document user : users) {
+            String userId = user.getObjectId("_id").toHexString();
+            List<String> listingIds = user.getList("favoriteListingIds", String.class);
+
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favorite.class);
+            for (String listingId : listingIds) {
+                Query byId = new Query(Criteria.where("_id").is(Favorite.idFor(userId, listingId)));
+                Update insert = new Update()
+                        .setOnInsert("userId", userId)
+                        .setOnInsert("listingId", listingId)
+                        .setOnInsert("createdAt", now);
+                bulk.upsert(byId, insert);
+            }
+            bulk.execute();
+            moved += listingIds.size();
+
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(user.getObjectId("_id"))),
+                    new Update().unset("favoriteListingIds"), "users");
+        }
+
+        recomputeFavoriteCounts();
+        log.info("Migrated {} favorites from {} users", moved, users.size());
+    }
+
+    private void recomputeFavoriteCounts() {
+        Aggregation countPerListing = Aggregation.newAggregation(
+                Aggregation.group("listingId").count().as("count"));
+        List<Document> counts = mongoTemplate.aggregate(countPerListing, Favorite.class, Document.class)
+                .getMappedResults();
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+        for (Document count : counts) {
+            bulk.updateOne(new Query(Criteria.where("_id").is(count.getString("_id"))),
+                    new Update().set("favoriteCount", count.get("count", Number.class).longValue()));
+        }
+        if (!counts.isEmpty()) {
+            bulk.execute();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.trustify.migration;
+
+import com.trustify.model.Transaction;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives transactions written before Transaction.version existed a version of 0, so the
+ * version checks in TransactionOutbox and EscrowStateMachine can match them. Safe to run
+ * on every startup: afterwards no document is missing the field.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TransactionVersionMigration implements ApplicationRunner {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long migrated = mongoTemplate.updateMulti(
+                new Query(Criteria.where("version").exists(false)),
+                new Update().set("version", 0L),
+                Transaction.class).getModifiedCount();
+        if (migrated > 0) {
+            log.info("Set version on {} legacy transactions", migrated);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.trustify.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
@@ -16,14 +17,17 @@ public class CnicVerification {
     @Id
     private String id;
 
+    @Indexed
     private String userId;
 
     private String frontImageUrl;
     private String backImageUrl;
 
     private String extractedName;
+    @Indexed(sparse = true)
     private String extractedCnicNumber;
 
+    @Indexed
     private VerificationStatus status;
 
     private String adminRemarks; // for admin to provide feedback on rejection or approval
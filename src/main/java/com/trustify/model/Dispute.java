@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -19,6 +20,7 @@ public class Dispute {
     @Id
     private String id;
 
+    @Indexed
     private String transactionId;  // store the transaction _id directly
 
     private String openedBy;       // buyerId
@@ -30,6 +32,7 @@ public class Dispute {
     private String resolvedBy;     // adminId
     private String resolutionNote;
     private Long refundAmountCents;  // optional
+    @Indexed
     private String status;
 
     // This one is for Dispute and Admin override
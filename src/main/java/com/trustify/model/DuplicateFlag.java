@@ -0,0 +1,55 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// A listing that looks like a repost of an earlier one, queued for admin review
+@Document(collection = "duplicate_flags")
+@CompoundIndexes({
+        // one flag per pair and kind, however often the pair is rechecked
+        @CompoundIndex(name = "listing_matched_kind", def = "{'listingId': 1, 'matchedListingId': 1, 'kind': 1}", unique = true),
+        @CompoundIndex(name = "status_createdAt", def = "{'status': 1, 'createdAt': -1}")
+})
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class DuplicateFlag {
+
+    @Id
+    private String id;
+
+    private String listingId;          // the newer listing
+    private String matchedListingId;   // the earlier listing it resembles
+    private String ownerId;
+    private String matchedOwnerId;
+
+    private Kind kind;
+    private double similarity;         // TEXT: estimated Jaccard; IMAGE: 1 - hamming / 64
+
+    @Builder.Default
+    private Status status = Status.OPEN;
+
+    private Instant createdAt;
+    private String reviewedBy;         // admin email
+    private Instant reviewedAt;
+
+    public enum Kind {
+        TEXT,
+        IMAGE
+    }
+
+    public enum Status {
+        OPEN,
+        CONFIRMED,
+        DISMISSED
+    }
+}
@@ -0,0 +1,45 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dashboard counters of one party id (a buyerId / sellerId value), kept up to date with
+ * $inc on every transaction state change and repaired by EscrowSummaryService.reconcile.
+ */
+@Document(collection = "escrow_summaries")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class EscrowSummary {
+
+    @Id
+    private String id;
+
+    @Builder.Default
+    private Counters buyer = new Counters();
+    @Builder.Default
+    private Counters seller = new Counters();
+
+    private Instant updatedAt;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Counters {
+        private long inEscrow;
+        private long fundsInEscrowCents;
+        private long pendingActions;
+        private long disputesOpen;
+        private Map<String, Long> completedByMonth = new HashMap<>(); // "yyyy-MM" (UTC) -> count
+    }
+}
@@ -0,0 +1,35 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+@Document(collection = "favorites")
+@CompoundIndex(name = "userId_createdAt", def = "{'userId': 1, 'createdAt': -1}")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Favorite {
+
+    // "<userId>:<listingId>" so the pair is unique without a second index and can be upserted
+    @Id
+    private String id;
+
+    private String userId;
+    @Indexed // removal together with the listing, and the counter repair
+    private String listingId;
+
+    private Instant createdAt;
+
+    public static String idFor(String userId, String listingId) {
+        return userId + ":" + listingId;
+    }
+}
@@ -0,0 +1,39 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// First response for an Idempotency-Key; _id = scope:caller:key, removed by the TTL index after expiresAt
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+
+    @Id
+    private String id;
+
+    private String requestHash;     // a reused key must come with the same request
+    private Status status;
+
+    private Integer responseStatus;
+    private String responseBody;    // JSON, replayed as-is
+
+    private Instant createdAt;
+
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expiresAt;
+
+    public enum Status {
+        IN_PROGRESS,
+        COMPLETED
+    }
+}
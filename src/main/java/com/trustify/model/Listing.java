@@ -6,13 +6,36 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.LastModifiedBy;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexType;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexed;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
 
 @Document(collection = "listings")
+// feed indexes end with _id so keyset pages (sortField, _id) are a pure index range scan
+@CompoundIndexes({
+        @CompoundIndex(name = "status_createdAt_id", def = "{'status': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "status_price_id", def = "{'status': 1, 'price': 1, '_id': 1}"),
+        @CompoundIndex(name = "status_type_createdAt_id", def = "{'status': 1, 'type': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "status_type_price_id", def = "{'status': 1, 'type': 1, 'price': 1, '_id': 1}"),
+        @CompoundIndex(name = "status_categoryKey_createdAt_id", def = "{'status': 1, 'categoryKey': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "ownerId_createdAt_id", def = "{'ownerId': 1, 'createdAt': -1, '_id': -1}"),
+        // derivative backfill: only listings still waiting for derivatives are in it
+        @CompoundIndex(name = "derivativesPending_failedAt", def = "{'derivativesPending': 1, 'derivativesFailedAt': 1}",
+                partialFilter = "{'derivativesPending': true}"),
+        // perceptual-hash backfill, likewise only listings with images still missing their hash
+        @CompoundIndex(name = "hashesPending_id", def = "{'hashesPending': 1, '_id': 1}",
+                partialFilter = "{'hashesPending': true}")
+})
 @Data
 @Builder
 @AllArgsConstructor
@@ -22,25 +45,60 @@ public class Listing {
     @Id
     private String id;
 
+    // text index backing /listings/search; weights rank title hits above description hits
+    @TextIndexed(weight = 3)
     private String title;
+
+    @TextIndexed
     private String description;
     private double price;
 
     private String ownerId; // Reference to User ID
 
     // Whether the item is for SALE or RENT
+    @Indexed
     private ListingType type; // SALE or RENT
 
+    @TextIndexed(weight = 2)
     private String category;
+
+    // category as filtered on (see categoryKey(String)); category keeps the owner's spelling for display
+    private String categoryKey;
+
     private List<String> imageUrls;
 
+    // resized variants + blurhash per image, filled in by ImageDerivativeService after upload
+    private List<ListingImage> imageVariants;
+
+    // true from creation until every image is derived; unset (not false) so the partial index stays small
+    private Boolean derivativesPending;
+
+    // set while some image could not be derived; the backfill retries with backoff up to max-attempts times
+    private Instant derivativesFailedAt;
+    private Integer derivativeAttempts;
+
+    // set on listings derived before images carried a dHash; the hash backfill only reads the images
+    private Boolean hashesPending;
+    private Integer hashAttempts;
+
     @Builder.Default
     private ListingStatus status = ListingStatus.ACTIVE;
 
+    // maintained with $inc by favorite add/remove, never rewritten from a loaded document
+    private long favoriteCount;
+
+    // write-behind counters flushed by ListingStatsCounter; lag real traffic by up to one flush interval
+    private long viewCount;
+    private long impressionCount;
+
+    // GeoJSON point, [longitude, latitude]; null for listings created without a location
+    @GeoSpatialIndexed(type = GeoSpatialIndexType.GEO_2DSPHERE)
+    private GeoJsonPoint location;
+
     @CreatedDate
     private Instant createdAt;
 
-    @LastModifiedBy
+    @LastModifiedDate
     private Instant updatedAt;
 
     public enum ListingType {
@@ -55,7 +113,9 @@ public class Listing {
         REMOVED
     }
 
-    //private String location;
-
 
+    public static String categoryKey(String category) {
+        if (category == null || category.isBlank()) return null;
+        return category.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
 }
@@ -0,0 +1,30 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+// Near-duplicate signatures of one listing (_id = listing id); loaded into the LSH index at startup
+@Document(collection = "listing_fingerprints")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ListingFingerprint {
+
+    @Id
+    private String id;
+
+    private String ownerId;
+    private List<Integer> minHash;    // MinHash.SIZE values over title + description shingles
+    private List<Long> imageHashes;   // dHash of each image, set once derivatives are built
+    private Instant updatedAt;
+
+    private Instant scannedAt;        // only on the scan checkpoint (DuplicateDetectionService.scan)
+}
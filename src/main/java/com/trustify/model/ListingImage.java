@@ -0,0 +1,31 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Derivatives of one entry of Listing.imageUrls, produced in the background after upload
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ListingImage {
+
+    private String original;
+    private String blurHash;          // tiny placeholder rendered while the real image loads
+    private Long dHash;               // 64-bit perceptual hash, used to spot reposted photos
+    private List<Variant> variants;   // ascending by width
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Variant {
+        private int width;
+        private int height;
+        private String format;        // "webp" or "jpeg"
+        private String url;
+    }
+}
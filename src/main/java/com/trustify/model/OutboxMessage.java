@@ -0,0 +1,96 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+
+/**
+ * A side effect of a transaction state change, stored inside the transaction document
+ * (Transaction.outbox) by the same write as the change. TransactionOutbox relays it to
+ * payment_events, timeline_logs, email or fraud scoring and then removes it.
+ *
+ * messageId becomes the _id of the payment event / timeline log it produces, so a
+ * relay that is repeated after a crash does not write them twice.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxMessage {
+
+    private String messageId;
+    private Kind kind;
+    private Instant createdAt;
+
+    // PAYMENT_EVENT
+    private String type;
+    private String actor;
+    private String stripeObjectId;
+
+    // TIMELINE; FRAUD_REWARD / FRAUD_PENALTY name a party of the transaction instead
+    private String userId;
+    private Party party;
+    private String username;
+    private String description;
+    private TimelineLog.ActionType actionType;
+    private TimelineLog.ActorType actorType;
+
+    // EMAIL: a template, or a plain subject and body
+    private String to;
+    private EmailTemplate template;
+    private String subject;
+    private String body;
+
+    public enum Kind { PAYMENT_EVENT, TIMELINE, EMAIL, FRAUD_REWARD, FRAUD_PENALTY }
+
+    public enum EmailTemplate { ESCROW_RELEASED, REFUND }
+
+    public enum Party { BUYER, SELLER }
+
+    public static OutboxMessage paymentEvent(String type, String actor, String stripeObjectId) {
+        return base(Kind.PAYMENT_EVENT)
+                .type(type)
+                .actor(actor)
+                .stripeObjectId(stripeObjectId)
+                .build();
+    }
+
+    public static OutboxMessage timeline(String userId, String username, String description,
+                                         TimelineLog.ActionType actionType, TimelineLog.ActorType actorType) {
+        return base(Kind.TIMELINE)
+                .userId(userId)
+                .username(username)
+                .description(description)
+                .actionType(actionType)
+                .actorType(actorType)
+                .build();
+    }
+
+    public static OutboxMessage email(String to, String subject, String body) {
+        return base(Kind.EMAIL).to(to).subject(subject).body(body).build();
+    }
+
+    public static OutboxMessage email(String to, EmailTemplate template) {
+        return base(Kind.EMAIL).to(to).template(template).build();
+    }
+
+    // resolved against the transaction when relayed, so a step does not have to read it first
+    public static OutboxMessage fraudReward(Party party) {
+        return base(Kind.FRAUD_REWARD).party(party).build();
+    }
+
+    public static OutboxMessage fraudPenalty(Party party) {
+        return base(Kind.FRAUD_PENALTY).party(party).build();
+    }
+
+    private static OutboxMessageBuilder base(Kind kind) {
+        return OutboxMessage.builder()
+                .messageId(new ObjectId().toHexString())
+                .kind(kind)
+                .createdAt(Instant.now());
+    }
+}
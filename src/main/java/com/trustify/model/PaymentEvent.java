@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -20,6 +21,7 @@ public class PaymentEvent {
     @Id
     private String id;
 
+    @Indexed(sparse = true)
     private String transactionId; // optional
     private String stripeObjectId; // paymentIntentId or chargeId
     private String type; // "CREATE_INTENT", "WEBHOOK_PAYMENT_INTENT_SUCCEEDED", "RELEASE", "REFUND", etc.
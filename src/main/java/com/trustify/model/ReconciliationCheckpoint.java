@@ -0,0 +1,29 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+// Where the last Stripe reconciliation stopped in (updatedAt, _id) order, and what it found
+@Document(collection = "reconciliation_checkpoints")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReconciliationCheckpoint {
+
+    @Id
+    private String id;
+
+    private Instant lastUpdatedAt;
+    private String lastTransactionId;
+
+    private Instant lastRunAt;
+    private Map<String, Object> lastReport;
+}
@@ -0,0 +1,57 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A difference between a transaction and its Stripe PaymentIntent. One document per
+ * transaction and kind (id = transactionId:kind); removed once a later run finds the
+ * transaction in agreement with Stripe.
+ */
+@Document(collection = "reconciliation_issues")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReconciliationIssue {
+
+    @Id
+    private String id;
+
+    @Indexed
+    private String transactionId;
+    private String paymentIntentId;
+    private Kind kind;
+
+    private Transaction.TransactionStatus localStatus;
+    private String stripeStatus;
+    private Long localAmountCents;
+    private Long stripeAmountCents;
+
+    private boolean repaired; // fixed by the run that found it, kept for the record
+    private String detail;
+    @Indexed
+    private Instant detectedAt;
+
+    public enum Kind {
+        MISSING_IN_STRIPE,
+        MISSED_AUTHORIZATION,   // repaired: Stripe holds the money, we were still PENDING
+        MISSED_CANCELLATION,    // repaired: Stripe cancelled, we still held the transaction
+        CAPTURED_ONLY_IN_STRIPE,
+        NOT_CAPTURED_IN_STRIPE,
+        NOT_CANCELLED_IN_STRIPE,
+        AMOUNT_MISMATCH,
+        MISSING_PAYMENT_EVENT
+    }
+
+    public static String idFor(String transactionId, Kind kind) {
+        return transactionId + ":" + kind;
+    }
+}
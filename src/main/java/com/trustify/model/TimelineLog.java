@@ -6,11 +6,13 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
 @Document(collection = "timeline_logs")
+@CompoundIndex(name = "transactionId_createdAt", def = "{'transactionId': 1, 'createdAt': 1}")
 @Data
 @Builder
 @AllArgsConstructor
@@ -1,19 +1,43 @@
 package com.trustify.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 
 @Document(collection = "transactions")
+@CompoundIndexes({
+        // per-user history: both sides are read in (createdAt, _id) order and merged
+        @CompoundIndex(name = "buyerId_createdAt_id", def = "{'buyerId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "sellerId_createdAt_id", def = "{'sellerId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "buyerId_status_createdAt_id", def = "{'buyerId': 1, 'status': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "sellerId_status_createdAt_id", def = "{'sellerId': 1, 'status': 1, 'createdAt': -1, '_id': -1}"),
+        // scheduler sweeps: equality on status first, then the time range
+        @CompoundIndex(name = "status_createdAt", def = "{'status': 1, 'createdAt': 1}"),
+        @CompoundIndex(name = "status_shippedAt", def = "{'status': 1, 'shippedAt': 1}"),
+        @CompoundIndex(name = "status_rentalEnd", def = "{'status': 1, 'rentalEnd': 1}"),
+        // Stripe reconciliation walks changes in this order from its checkpoint
+        @CompoundIndex(name = "updatedAt_id", def = "{'updatedAt': 1, '_id': 1}"),
+        // and re-checks the open ones by _id, skipping the recently checked on the index keys
+        @CompoundIndex(name = "status_id_lastReconciledAt", def = "{'status': 1, '_id': 1, 'lastReconciledAt': 1}"),
+        // outbox relay: only transactions with pending messages have entries
+        @CompoundIndex(name = "outbox_createdAt", def = "{'outbox.createdAt': 1}", sparse = true)
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -22,6 +46,10 @@ public class Transaction {
     @Id
     private String id;
 
+    // bumped by every write; documents from before it existed get 0 from TransactionVersionMigration
+    @Version
+    private Long version;
+
     private String listingId;
     private String buyerId;   // could be email or userId
     private String sellerId;
@@ -38,9 +66,17 @@ public class Transaction {
     private String currency;
 
     private TransactionStatus status;
+    private Instant completedAt; // last move into a completed status, for the monthly summary counters
 
+    @Indexed(sparse = true)
     private String stripePaymentIntentId;
     private String stripeChargeId;
+    private String stripeRefundId;
+    private Long amountRefundedCents;
+
+    // set when Stripe moved money but the status could not follow; cleared by hand after review
+    @Indexed(sparse = true)
+    private String reviewReason;
 
     // ------------- Manual release fields -------------
     private Instant releaseRequestedAt;
@@ -54,6 +90,7 @@ public class Transaction {
 
     private LocalDateTime shippedAt;
     private LocalDate rentalStartDate;
+    @Indexed
     private LocalDate rentalEnd;
     private boolean renterPickedUp;
     private boolean renterReturned;
@@ -63,8 +100,17 @@ public class Transaction {
 
     private Map<String,Object> metadata;
 
+    // side effects committed with the last state changes, not yet relayed (see TransactionOutbox);
+    // internal, and removed without touching updatedAt, so kept out of responses and their ETag
+    @JsonIgnore
+    private List<OutboxMessage> outbox;
+
+    // last time StripeReconciliationService compared it with its PaymentIntent; set without touching updatedAt
+    private Instant lastReconciledAt;
+
     @CreatedDate
     private Instant createdAt;
+    @LastModifiedDate
     private Instant updatedAt;
 
 
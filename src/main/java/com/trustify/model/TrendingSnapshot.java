@@ -0,0 +1,34 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+// The whole trending top-K in one document, replaced atomically on every snapshot
+@Document(collection = "trending_snapshots")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TrendingSnapshot {
+
+    @Id
+    private String id;
+
+    private Instant takenAt;
+    private List<Entry> entries; // highest score first; scores are as of takenAt
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Entry {
+        private String listingId;
+        private double score;
+    }
+}
@@ -3,12 +3,10 @@ package com.trustify.model;
 import lombok.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.LastModifiedBy;
+import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.Set;
 
 @Document(collection = "users")
 @Data
@@ -30,6 +28,7 @@ public class User {
     private String phone;
     private String password;
 
+    @Indexed
     @Builder.Default
     private Role role = Role.USER;
 
@@ -39,11 +38,9 @@ public class User {
     @CreatedDate
     private Instant createdAt;
 
-    @LastModifiedBy
+    @LastModifiedDate
     private Instant updatedAt;
 
-    private Set<String> favoriteListingIds = new HashSet<>();
-
     public enum Role {
         USER,
         ADMIN
@@ -56,6 +53,7 @@ public class User {
     }
 
     // Rating System + Fraud Score
+    @Indexed
     private Integer fraudScore = 0;     // 0 = safe, 100 = dangerous
     private Double trustRating = 5.0;  // starts perfect
     private Integer totalTransactions = 0;
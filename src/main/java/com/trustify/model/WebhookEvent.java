@@ -0,0 +1,58 @@
+package com.trustify.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// Inbox entry of a verified Stripe webhook; _id is the Stripe event id, so redeliveries collapse into one
+@Document(collection = "stripe_webhook_events")
+@CompoundIndexes({
+        // poller: due RECEIVED / RETRY events and expired PROCESSING leases
+        @CompoundIndex(name = "status_nextAttemptAt", def = "{'status': 1, 'nextAttemptAt': 1}"),
+        // ordering check: earlier unfinished events of the same PaymentIntent
+        @CompoundIndex(name = "objectId_stripeCreated", def = "{'objectId': 1, 'stripeCreated': 1, 'receivedAt': 1}")
+})
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class WebhookEvent {
+
+    @Id
+    private String id;
+
+    private String type;            // e.g. payment_intent.succeeded
+    private String objectId;        // PaymentIntent id the event is ordered by (the event id when there is none)
+    private Long stripeCreated;     // epoch seconds, as sent by Stripe
+    private String payload;         // raw verified body, kept for replays and audits
+
+    private Status status;
+    private int attempts;
+    private Instant nextAttemptAt;
+    private Instant lockedUntil;    // lease of the worker processing it
+    private String lastError;
+
+    private Instant receivedAt;
+    private Instant processedAt;
+
+    // set once PROCESSED or IGNORED (stripe.webhooks.retention-days later); unfinished and DEAD events never expire
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expiresAt;
+
+    public enum Status {
+        RECEIVED,
+        PROCESSING,
+        RETRY,
+        PROCESSED,
+        IGNORED,    // type we do not handle
+        DEAD        // gave up after max attempts; replay from /admin/webhooks
+    }
+}
@@ -0,0 +1,12 @@
+package com.trustify.repository;
+
+import com.trustify.model.DuplicateFlag;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface DuplicateFlagRepository extends MongoRepository<DuplicateFlag, String> {
+    List<DuplicateFlag> findByStatusOrderByCreatedAtDesc(DuplicateFlag.Status status, Pageable pageable); // admin review queue
+    List<DuplicateFlag> findByListingId(String listingId);
+}
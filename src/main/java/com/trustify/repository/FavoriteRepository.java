@@ -0,0 +1,12 @@
+package com.trustify.repository;
+
+import com.trustify.model.Favorite;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface FavoriteRepository extends MongoRepository<Favorite, String>, FavoriteRepositoryCustom {
+    List<Favorite> findByUserIdOrderByCreatedAtDesc(String userId);
+
+    long deleteByListingId(String listingId);
+}
@@ -0,0 +1,10 @@
+package com.trustify.repository;
+
+public interface FavoriteRepositoryCustom {
+
+    // true when the pair was inserted, false when it already existed
+    boolean add(String userId, String listingId);
+
+    // true when the pair existed and was removed
+    boolean remove(String userId, String listingId);
+}
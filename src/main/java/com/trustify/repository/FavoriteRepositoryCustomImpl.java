@@ -0,0 +1,33 @@
+package com.trustify.repository;
+
+import com.trustify.model.Favorite;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+@RequiredArgsConstructor
+public class FavoriteRepositoryCustomImpl implements FavoriteRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public boolean add(String userId, String listingId) {
+        Query byPair = new Query(Criteria.where("_id").is(Favorite.idFor(userId, listingId)));
+        Update insertOnly = new Update()
+                .setOnInsert("userId", userId)
+                .setOnInsert("listingId", listingId)
+                .setOnInsert("createdAt", Instant.now());
+
+        return mongoTemplate.upsert(byPair, insertOnly, Favorite.class).getUpsertedId() != null;
+    }
+
+    @Override
+    public boolean remove(String userId, String listingId) {
+        Query byPair = new Query(Criteria.where("_id").is(Favorite.idFor(userId, listingId)));
+        return mongoTemplate.remove(byPair, Favorite.class).getDeletedCount() > 0;
+    }
+}
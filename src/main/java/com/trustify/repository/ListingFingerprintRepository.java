@@ -0,0 +1,7 @@
+package com.trustify.repository;
+
+import com.trustify.model.ListingFingerprint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface ListingFingerprintRepository extends MongoRepository<ListingFingerprint, String> {
+}
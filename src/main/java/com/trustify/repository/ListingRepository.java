@@ -1,19 +1,25 @@
 package com.trustify.repository;
 
 import com.trustify.model.Listing;
+import com.trustify.repository.projection.VersionView;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
-public interface ListingRepository extends MongoRepository<Listing, String> {
+public interface ListingRepository extends MongoRepository<Listing, String>, ListingRepositoryCustom {
     List<Listing> findByStatus(Listing.ListingStatus status);
     Page<Listing> findByStatus(Listing.ListingStatus status, Pageable pageable);
+    // List instead of Page: skip/limit only, no count query
+    <T> List<T> findByStatus(Listing.ListingStatus status, Pageable pageable, Class<T> type);
     List<Listing> findByType(Listing.ListingType type);
 
     Page<Listing> findByStatusAndType(Listing.ListingStatus status, Listing.ListingType type, Pageable pageable);
+    <T> List<T> findByStatusAndType(Listing.ListingStatus status, Listing.ListingType type, Pageable pageable, Class<T> projection);
 
 
 //    @Query("{ 'category': { $regex: ?0, $options: 'i' }, 'type': ?1, 'price': { $lte: ?2 } }")
@@ -21,12 +27,13 @@ public interface ListingRepository extends MongoRepository<Listing, String> {
 
     List<Listing> findByOwnerId(String ownerId);
     Page<Listing> findByOwnerId(String ownerId, Pageable pageable);
+    <T> List<T> findByOwnerId(String ownerId, Pageable pageable, Class<T> type);
 
 
-    @Query("{ 'category': { $regex: ?0, $options: 'i' }, 'type': ?1, 'price': { $lte: ?2 }, 'status': 'ACTIVE' }")
-    Page<Listing> searchListings(String category, Listing.ListingType type, Double priceMax, Pageable pageable);
-
     List<Listing> findByIdIn(List<String> ids);
+    Optional<VersionView> findVersionById(String id);
+    <T> List<T> findByIdIn(Collection<String> ids, Class<T> type);
+    <T> List<T> findByIdInAndStatus(Collection<String> ids, Listing.ListingStatus status, Class<T> type);
 
 
 }
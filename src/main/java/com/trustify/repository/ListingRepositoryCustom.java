@@ -0,0 +1,38 @@
+package com.trustify.repository;
+
+import com.trustify.dto.ListingFacets;
+import com.trustify.dto.ListingFilter;
+import com.trustify.dto.NearbyListingDTO;
+import com.trustify.model.Listing;
+import com.trustify.util.KeysetCursor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.geo.GeoJsonPolygon;
+
+import java.util.List;
+
+public interface ListingRepositoryCustom {
+
+    // Keyset page ordered by (sortField, _id); no skip and no count query
+    List<Listing> findPageAfter(ListingFilter filter, String sortField, boolean descending, KeysetCursor after, int limit);
+
+    // Same page read into a projection type; closed interface projections only fetch their own fields
+    <T> List<T> findPageAfter(ListingFilter filter, String sortField, boolean descending, KeysetCursor after, int limit, Class<T> type);
+
+    // Text-index search; a pageable without sort orders results by relevance score
+    Page<Listing> search(ListingFilter filter, Pageable pageable);
+
+    // Same search read into a projection type
+    <T> Page<T> search(ListingFilter filter, Pageable pageable, Class<T> type);
+
+    // $geoNear page ordered by (distance, _id); maxDistanceMeters and within are both optional bounds
+    List<NearbyListingDTO> findNear(GeoJsonPoint origin, Double maxDistanceMeters, GeoJsonPolygon within,
+                                    ListingFilter filter, KeysetCursor after, int limit);
+
+    // Category, type and price-bucket counts for the filter in one $facet aggregation
+    ListingFacets facets(ListingFilter filter, double[] priceBoundaries, int maxCategories);
+
+    // atomic $inc; false when the listing does not exist
+    boolean incrementFavoriteCount(String listingId, long delta);
+}
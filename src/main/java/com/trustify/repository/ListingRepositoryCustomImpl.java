@@ -0,0 +1,238 @@
+package com.trustify.repository;
+
+import com.trustify.dto.ListingFacets;
+import com.trustify.dto.ListingFilter;
+import com.trustify.dto.NearbyListingDTO;
+import com.trustify.model.Listing;
+import com.trustify.util.KeysetCursor;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.geo.GeoJsonPolygon;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class ListingRepositoryCustomImpl implements ListingRepositoryCustom {
+
+    private static final SpelAwareProxyProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+    // $bucket needs a default for values past the last boundary
+    private static final String OPEN_BUCKET = "open";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<Listing> findPageAfter(ListingFilter filter, String sortField, boolean descending, KeysetCursor after, int limit) {
+        return findPageAfter(filter, sortField, descending, after, limit, Listing.class);
+    }
+
+    @Override
+    public <T> List<T> findPageAfter(ListingFilter filter, String sortField, boolean descending, KeysetCursor after, int limit, Class<T> type) {
+        List<Criteria> criteria = new ArrayList<>(filterCriteria(filter));
+
+        if (after != null) {
+            Object lastId = ObjectId.isValid(after.getId()) ? new ObjectId(after.getId()) : after.getId();
+            // (field < v) OR (field == v AND _id < id), flipped for ascending order
+            criteria.add(new Criteria().orOperator(
+                    descending ? Criteria.where(sortField).lt(after.getValue()) : Criteria.where(sortField).gt(after.getValue()),
+                    descending
+                            ? Criteria.where(sortField).is(after.getValue()).and("_id").lt(lastId)
+                            : Criteria.where(sortField).is(after.getValue()).and("_id").gt(lastId)
+            ));
+        }
+
+        Query query = criteria.isEmpty() ? new Query() : new Query(new Criteria().andOperator(criteria));
+        TextCriteria text = textCriteria(filter);
+        if (text != null) query.addCriteria(text);
+
+        Sort.Direction direction = descending ? Sort.Direction.DESC : Sort.Direction.ASC;
+        query.with(Sort.by(direction, sortField).and(Sort.by(direction, "_id")));
+        query.limit(limit);
+
+        return mongoTemplate.query(Listing.class).as(type).matching(query).all();
+    }
+
+    @Override
+    public Page<Listing> search(ListingFilter filter, Pageable pageable) {
+        return search(filter, pageable, Listing.class);
+    }
+
+    @Override
+    public <T> Page<T> search(ListingFilter filter, Pageable pageable, Class<T> type) {
+        List<Criteria> criteria = filterCriteria(filter);
+        TextCriteria text = textCriteria(filter);
+
+        Query query;
+        if (text != null) {
+            TextQuery textQuery = TextQuery.queryText(text);
+            if (pageable.getSort().isUnsorted()) textQuery.sortByScore();
+            query = textQuery;
+        } else {
+            query = new Query();
+        }
+        if (!criteria.isEmpty()) query.addCriteria(new Criteria().andOperator(criteria));
+        query.with(pageable);
+        if (type.isInterface()) {
+            // listed explicitly: a text query already projects its score, which would otherwise be all it returns
+            PROJECTIONS.getProjectionInformation(type).getInputProperties()
+                    .forEach(property -> query.fields().include(property.getName()));
+        }
+
+        List<T> content = mongoTemplate.query(Listing.class).as(type).matching(query).all();
+        // count only runs when the page is full, i.e. the total cannot be derived from the content
+        return PageableExecutionUtils.getPage(content, pageable,
+                () -> mongoTemplate.count(Query.of(query).limit(-1).skip(-1), Listing.class));
+    }
+
+    @Override
+    public List<NearbyListingDTO> findNear(GeoJsonPoint origin, Double maxDistanceMeters, GeoJsonPolygon within,
+                                           ListingFilter filter, KeysetCursor after, int limit) {
+        List<Criteria> criteria = new ArrayList<>(filterCriteria(filter));
+        if (within != null) criteria.add(Criteria.where("location").within(within));
+        Document query = criteria.isEmpty() ? new Document() : new Criteria().andOperator(criteria).getCriteriaObject();
+        // the custom stage bypasses aggregation mapping, so enums and GeoJSON are converted here
+        Document mappedQuery = new QueryMapper(mongoTemplate.getConverter())
+                .getMappedObject(query, mongoTemplate.getConverter().getMappingContext().getPersistentEntity(Listing.class));
+
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(context -> {
+            Document geoNear = new Document("near", new Document("type", "Point").append("coordinates", origin.getCoordinates()))
+                    .append("distanceField", "distance")
+                    .append("spherical", true)
+                    .append("key", "location")
+                    .append("query", mappedQuery);
+            if (maxDistanceMeters != null) geoNear.append("maxDistance", maxDistanceMeters);
+            // resume at the previous page's distance; the index walk skips everything closer
+            if (after != null) geoNear.append("minDistance", after.getValue());
+            return new Document("$geoNear", geoNear);
+        });
+        if (after != null) {
+            Object lastId = ObjectId.isValid(after.getId()) ? new ObjectId(after.getId()) : after.getId();
+            // same distance as the last row: only ids after it
+            stages.add(Aggregation.match(new Criteria().orOperator(
+                    Criteria.where("distance").gt(after.getValue()),
+                    Criteria.where("distance").is(after.getValue()).and("_id").gt(lastId))));
+        }
+        stages.add(Aggregation.sort(Sort.by("distance").and(Sort.by("_id"))));
+        stages.add(Aggregation.limit(limit));
+        stages.add(Aggregation.project("title", "price", "type", "category", "imageUrls", "imageVariants", "favoriteCount", "createdAt", "distance"));
+
+        return mongoTemplate.aggregate(Aggregation.newAggregation(stages), "listings", NearbyListingDTO.class)
+                .getMappedResults();
+    }
+
+    @Override
+    public ListingFacets facets(ListingFilter filter, double[] priceBoundaries, int maxCategories) {
+        List<AggregationOperation> stages = new ArrayList<>();
+        // $text has to be the first stage of the pipeline
+        TextCriteria text = textCriteria(filter);
+        if (text != null) stages.add(Aggregation.match(text));
+        List<Criteria> criteria = filterCriteria(filter);
+        if (!criteria.isEmpty()) stages.add(Aggregation.match(new Criteria().andOperator(criteria)));
+
+        Object[] boundaries = Arrays.stream(priceBoundaries).boxed().toArray();
+        stages.add(Aggregation.facet(
+                        Aggregation.group("category").count().as("count"),
+                        Aggregation.sort(Sort.Direction.DESC, "count"),
+                        Aggregation.limit(maxCategories)).as("categories")
+                .and(Aggregation.group("type").count().as("count")).as("types")
+                .and(Aggregation.bucket("price")
+                        .withBoundaries(boundaries)
+                        .withDefaultBucket(OPEN_BUCKET)
+                        .andOutputCount().as("count")).as("prices")
+                .and(Aggregation.count().as("total")).as("total"));
+
+        Document result = mongoTemplate.aggregate(Aggregation.newAggregation(stages), Listing.class, Document.class)
+                .getUniqueMappedResult();
+
+        Map<String, Long> categories = new LinkedHashMap<>();
+        Map<String, Long> types = new LinkedHashMap<>();
+        Map<Object, Long> buckets = new HashMap<>();
+        long total = 0;
+        if (result != null) {
+            for (Document d : result.getList("categories", Document.class)) {
+                if (d.get("_id") != null) categories.put(d.get("_id").toString(), count(d));
+            }
+            for (Document d : result.getList("types", Document.class)) {
+                if (d.get("_id") != null) types.put(d.get("_id").toString(), count(d));
+            }
+            for (Document d : result.getList("prices", Document.class)) {
+                Object id = d.get("_id");
+                buckets.put(id instanceof Number n ? (Object) n.doubleValue() : id, count(d));
+            }
+            List<Document> totals = result.getList("total", Document.class);
+            if (!totals.isEmpty()) total = count(totals.get(0), "total");
+        }
+
+        // every bucket is returned, empty ones with 0, so the UI can draw a stable histogram
+        List<ListingFacets.PriceBucket> priceBuckets = new ArrayList<>();
+        for (int i = 0; i < priceBoundaries.length - 1; i++) {
+            priceBuckets.add(new ListingFacets.PriceBucket(priceBoundaries[i], priceBoundaries[i + 1],
+                    buckets.getOrDefault(priceBoundaries[i], 0L)));
+        }
+        priceBuckets.add(new ListingFacets.PriceBucket(priceBoundaries[priceBoundaries.length - 1], null,
+                buckets.getOrDefault(OPEN_BUCKET, 0L)));
+
+        return ListingFacets.builder()
+                .total(total)
+                .categories(categories)
+                .types(types)
+                .priceBuckets(priceBuckets)
+                .build();
+    }
+
+    @Override
+    public boolean incrementFavoriteCount(String listingId, long delta) {
+        Query byId = new Query(Criteria.where("_id").is(listingId));
+        return mongoTemplate.updateFirst(byId, new Update().inc("favoriteCount", delta), Listing.class)
+                .getMatchedCount() > 0;
+    }
+
+    private static long count(Document d) {
+        return count(d, "count");
+    }
+
+    private static long count(Document d, String field) {
+        Number n = d.get(field, Number.class);
+        return n == null ? 0 : n.longValue();
+    }
+
+    private TextCriteria textCriteria(ListingFilter filter) {
+        if (filter == null || filter.getText() == null || filter.getText().isBlank()) return null;
+        return TextCriteria.forDefaultLanguage().matching(filter.getText());
+    }
+
+    private List<Criteria> filterCriteria(ListingFilter filter) {
+        List<Criteria> criteria = new ArrayList<>();
+        if (filter == null) return criteria;
+
+        if (filter.getStatus() != null) criteria.add(Criteria.where("status").is(filter.getStatus()));
+        if (filter.getType() != null) criteria.add(Criteria.where("type").is(filter.getType()));
+        if (filter.getOwnerId() != null) criteria.add(Criteria.where("ownerId").is(filter.getOwnerId()));
+        // exact match on the normalized category, the same in search, facets and $geoNear
+        String categoryKey = Listing.categoryKey(filter.getCategory());
+        if (categoryKey != null) criteria.add(Criteria.where("categoryKey").is(categoryKey));
+        if (filter.getPriceMax() != null) criteria.add(Criteria.where("price").lte(filter.getPriceMax()));
+        return criteria;
+    }
+}
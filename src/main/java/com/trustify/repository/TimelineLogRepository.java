@@ -1,10 +1,16 @@
 package com.trustify.repository;
 
 import com.trustify.model.TimelineLog;
+import com.trustify.repository.projection.IdView;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface TimelineLogRepository extends MongoRepository<TimelineLog, String> {
     List<TimelineLog> findByTransactionIdOrderByCreatedAtAsc(String transactionId);
+
+    // logs are append-only, so (count, newest id) identifies a timeline version
+    long countByTransactionId(String transactionId);
+    Optional<IdView> findFirstByTransactionIdOrderByCreatedAtDescIdDesc(String transactionId);
 }
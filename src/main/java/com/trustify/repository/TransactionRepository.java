@@ -1,6 +1,7 @@
 package com.trustify.repository;
 
 import com.trustify.model.Transaction;
+import com.trustify.repository.projection.VersionView;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
@@ -10,10 +11,11 @@ import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
-public interface TransactionRepository extends MongoRepository<Transaction, String> {
+public interface TransactionRepository extends MongoRepository<Transaction, String>, TransactionRepositoryCustom {
     Optional<Transaction> findByStripePaymentIntentId(String paymentIntentId);
     List<Transaction> findByBuyerId(String buyerId);
     List<Transaction> findBySellerId(String sellerId);
+    Optional<VersionView> findVersionById(String id);
 
     // Auto-cancel if seller never accepted within X hours
     List<Transaction> findAllByStatusAndCreatedAtBefore(String status, LocalDateTime time);
@@ -0,0 +1,15 @@
+package com.trustify.repository;
+
+import com.trustify.model.Transaction;
+import com.trustify.util.KeysetCursor;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface TransactionRepositoryCustom {
+
+    // Keyset page of one side (buyerId or sellerId) ordered by (createdAt, _id) descending; status and type are optional
+    List<Transaction> findPartyPageAfter(String partyField, Collection<String> partyIds,
+                                         Transaction.TransactionStatus status, Transaction.TransactionType type,
+                                         KeysetCursor after, int limit);
+}
@@ -0,0 +1,48 @@
+package com.trustify.repository;
+
+import com.trustify.model.Transaction;
+import com.trustify.util.KeysetCursor;
+import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class TransactionRepositoryCustomImpl implements TransactionRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<Transaction> findPartyPageAfter(String partyField, Collection<String> partyIds,
+                                                Transaction.TransactionStatus status, Transaction.TransactionType type,
+                                                KeysetCursor after, int limit) {
+        List<Criteria> criteria = new ArrayList<>();
+        criteria.add(Criteria.where(partyField).in(partyIds));
+        // status is part of the (party, status, createdAt, _id) index; type is checked on the rows read
+        if (status != null) criteria.add(Criteria.where("status").is(status));
+        if (type != null) criteria.add(Criteria.where("type").is(type));
+
+        if (after != null) {
+            Object lastId = ObjectId.isValid(after.getId()) ? new ObjectId(after.getId()) : after.getId();
+            // (createdAt < v) OR (createdAt == v AND _id < id)
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("createdAt").lt(after.getValue()),
+                    Criteria.where("createdAt").is(after.getValue()).and("_id").lt(lastId)
+            ));
+        }
+
+        Query query = new Query(new Criteria().andOperator(criteria));
+        query.with(Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "_id")));
+        query.limit(limit);
+        // pending side effects are internal to the relay
+        query.fields().exclude("outbox");
+
+        return mongoTemplate.find(query, Transaction.class);
+    }
+}
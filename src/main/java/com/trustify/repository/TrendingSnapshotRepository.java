@@ -0,0 +1,7 @@
+package com.trustify.repository;
+
+import com.trustify.model.TrendingSnapshot;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface TrendingSnapshotRepository extends MongoRepository<TrendingSnapshot, String> {
+}
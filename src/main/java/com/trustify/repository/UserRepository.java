@@ -2,12 +2,14 @@ package com.trustify.repository;
 
 import com.trustify.model.CnicVerification;
 import com.trustify.model.User;
+import com.trustify.repository.projection.UserIdView;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.Optional;
 
 public interface UserRepository extends MongoRepository<User, String> {
     Optional<User> findByEmail(String email);
+    Optional<UserIdView> findIdByEmail(String email);
     Optional<User> findByUsername(String username);
     Optional<User> findByRole(User.Role role);
 
@@ -0,0 +1,11 @@
+package com.trustify.repository;
+
+import com.trustify.model.WebhookEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface WebhookEventRepository extends MongoRepository<WebhookEvent, String> {
+    List<WebhookEvent> findByStatusOrderByReceivedAtDesc(WebhookEvent.Status status, Pageable pageable);
+}
@@ -0,0 +1,6 @@
+package com.trustify.repository.projection;
+
+// Closed projection: only _id
+public interface IdView {
+    String getId();
+}
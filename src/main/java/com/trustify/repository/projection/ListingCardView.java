@@ -0,0 +1,20 @@
+package com.trustify.repository.projection;
+
+import com.trustify.model.Listing;
+import com.trustify.model.ListingImage;
+
+import java.time.Instant;
+import java.util.List;
+
+// Closed projection for feed cards: description, ownerId and status are never read from Mongo
+public interface ListingCardView {
+    String getId();
+    String getTitle();
+    double getPrice();
+    Listing.ListingType getType();
+    String getCategory();
+    List<String> getImageUrls();
+    List<ListingImage> getImageVariants();
+    long getFavoriteCount();
+    Instant getCreatedAt();
+}
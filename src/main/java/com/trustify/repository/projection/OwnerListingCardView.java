@@ -0,0 +1,11 @@
+package com.trustify.repository.projection;
+
+import com.trustify.model.Listing;
+
+// Card of the owner's own listings: the owner also needs to see which ones are sold or inactive,
+// and how often each one was seen
+public interface OwnerListingCardView extends ListingCardView {
+    Listing.ListingStatus getStatus();
+    long getViewCount();
+    long getImpressionCount();
+}
@@ -0,0 +1,6 @@
+package com.trustify.repository.projection;
+
+// Closed projection: only _id is fetched from the users collection
+public interface UserIdView {
+    String getId();
+}
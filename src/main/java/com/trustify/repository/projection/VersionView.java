@@ -0,0 +1,9 @@
+package com.trustify.repository.projection;
+
+import java.time.Instant;
+
+// Closed projection used to answer If-None-Match without loading the document
+public interface VersionView {
+    String getId();
+    Instant getUpdatedAt();
+}
@@ -3,7 +3,10 @@ package com.trustify.scheduler;
 import com.trustify.model.Transaction;
 import com.trustify.repository.TransactionRepository;
 import com.trustify.service.EmailService;
+import com.trustify.service.EscrowStateMachine;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -19,6 +22,7 @@ public class ReminderScheduler {
     private final TransactionRepository txRepo;
     private final EmailService emailService;
     private final JavaMailSender mailSender;
+    private final EscrowStateMachine escrowStateMachine;
 
     // every day at 09:00 server time
     @Scheduled(cron = "0 0 9 * * *")
@@ -36,17 +40,17 @@ public class ReminderScheduler {
         List<Transaction> rentalsEndingTomorrow = txRepo.findAllEndingWithinDays(tomorrow, today);
 
         for (Transaction tx : rentalsEndingTomorrow) {
-            if (!tx.isReminderSent()) { // optional flag to prevent duplicates
+            // claim the reminder first, so two instances never both send it
+            boolean claimed = escrowStateMachine.update(tx.getId(),
+                    Criteria.where("reminderSent").ne(true),
+                    new Update().set("reminderSent", true));
+            if (claimed) {
                 emailService.sendEmail(
                         tx.getBuyerEmail(),
                         "Rental Ending Soon",
                         "<p>Your rental for item <b>" + tx.getListingId() +
                                 "</b> ends tomorrow. Please prepare to return it.</p>"
                 );
-
-                // Mark reminder as sent
-                tx.setReminderSent(true);
-                txRepo.save(tx);
             }
         }
     }
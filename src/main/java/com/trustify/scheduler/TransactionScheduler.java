@@ -1,9 +1,12 @@
 package com.trustify.scheduler;
 
 
+import com.trustify.model.OutboxMessage;
 import com.trustify.model.Transaction;
 import com.trustify.repository.TransactionRepository;
 import com.trustify.service.EmailService;
+import com.trustify.service.EscrowStateMachine;
+import com.trustify.service.EscrowTransition;
 import com.trustify.service.TransactionService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -20,6 +23,7 @@ public class TransactionScheduler {
     private final TransactionRepository txRepo;
     private final TransactionService escrowService;
     private final EmailService emailService;
+    private final EscrowStateMachine escrowStateMachine;
 
     // 1️⃣ Auto-cancel (seller inactive > 24 hours)
     @Scheduled(cron = "0 0 * * * *") // every hour
@@ -36,14 +40,13 @@ public class TransactionScheduler {
             // refund automatically
             escrowService.refund(tx.getId(), tx.getAmountCents());
 
-            // emails
-            emailService.sendRefundEmail(tx.getBuyerEmail(), tx.getId());
-            emailService.sendEmail(tx.getSellerEmail(),
-                    "Order Auto-Cancelled",
-                    "Seller did not accept in 24 hours.");
-
-            tx.setStatus(Transaction.TransactionStatus.valueOf("AUTO_CANCELLED"));
-            txRepo.save(tx);
+            // emails go out with the status change
+            escrowStateMachine.transition(tx.getId(), EscrowTransition.AUTO_CANCEL)
+                    .emit(OutboxMessage.email(tx.getBuyerEmail(), OutboxMessage.EmailTemplate.REFUND),
+                            OutboxMessage.email(tx.getSellerEmail(),
+                                    "Order Auto-Cancelled",
+                                    "Seller did not accept in 24 hours."))
+                    .applyIfAllowed();
         }
     }
 
@@ -61,13 +64,12 @@ public class TransactionScheduler {
 
             escrowService.capture(tx.getId(),"SYSTEM", null);
 
-            emailService.sendEscrowReleasedEmail(tx.getSellerEmail(), tx.getId());
-            emailService.sendEmail(tx.getBuyerEmail(),
-                    "Delivery Auto-Confirmed",
-                    "We auto-confirmed the delivery after 48 hours.");
-
-            tx.setStatus(Transaction.TransactionStatus.valueOf("DELIVERED_AUTO"));
-            txRepo.save(tx);
+            escrowStateMachine.transition(tx.getId(), EscrowTransition.AUTO_DELIVER)
+                    .emit(OutboxMessage.email(tx.getSellerEmail(), OutboxMessage.EmailTemplate.ESCROW_RELEASED),
+                            OutboxMessage.email(tx.getBuyerEmail(),
+                                    "Delivery Auto-Confirmed",
+                                    "We auto-confirmed the delivery after 48 hours."))
+                    .applyIfAllowed();
         }
     }
 
@@ -84,28 +86,34 @@ public class TransactionScheduler {
 
         for (Transaction tx : rentals) {
 
+            OutboxMessage[] emails;
             if (!tx.isDamageReported()) {
 
                 escrowService.finalizeRefund(tx.getId());
 
-                emailService.sendEscrowReleasedEmail(tx.getBuyerEmail(), tx.getId());
-                emailService.sendEmail(tx.getSellerEmail(),
-                        "Rental Completed",
-                        "Deposit released — no damage reported.");
+                emails = new OutboxMessage[] {
+                        OutboxMessage.email(tx.getBuyerEmail(), OutboxMessage.EmailTemplate.ESCROW_RELEASED),
+                        OutboxMessage.email(tx.getSellerEmail(),
+                                "Rental Completed",
+                                "Deposit released — no damage reported.")
+                };
 
             } else {
                 // damage case
-                emailService.sendEmail(tx.getSellerEmail(),
-                        "Damage Reported",
-                        "Admin will now review your damage claim.");
-
-                emailService.sendEmail(tx.getBuyerEmail(),
-                        "Damage Case Pending",
-                        "Admin is reviewing the damage report.");
+                emails = new OutboxMessage[] {
+                        OutboxMessage.email(tx.getSellerEmail(),
+                                "Damage Reported",
+                                "Admin will now review your damage claim."),
+                        OutboxMessage.email(tx.getBuyerEmail(),
+                                "Damage Case Pending",
+                                "Admin is reviewing the damage report.")
+                };
             }
 
-            tx.setStatus(Transaction.TransactionStatus.valueOf("RENT_COMPLETED"));
-            txRepo.save(tx);
+            // skipped if a user action moved the transaction on in the meantime
+            escrowStateMachine.transition(tx.getId(), EscrowTransition.RENTAL_END)
+                    .emit(emails)
+                    .applyIfAllowed();
         }
     }
 
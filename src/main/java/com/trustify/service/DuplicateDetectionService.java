@@ -0,0 +1,274 @@
+package com.trustify.service;
+
+import com.trustify.model.DuplicateFlag;
+import com.trustify.model.Listing;
+import com.trustify.model.ListingFingerprint;
+import com.trustify.repository.DuplicateFlagRepository;
+import com.trustify.repository.ListingFingerprintRepository;
+import com.trustify.util.LshIndex;
+import com.trustify.util.MinHash;
+import com.trustify.util.PerceptualHash;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Flags listings that look like reposts of earlier ones.
+ *
+ * Text: a MinHash signature of the title + description shingles, banded 16 x 4 into an
+ * LSH index, so only listings sharing a band are compared (pairs above roughly 0.5
+ * Jaccard almost always share one). Images: the dHash of every image, banded 4 x 16
+ * bits. Candidates are verified against the full signature before they are flagged.
+ *
+ * The index lives in memory and is rebuilt from listing_fingerprints at startup; a
+ * lookup touches a few buckets, never the collection. The scan keeps its checkpoint in
+ * the same collection, so a restart does not stream every listing again.
+ */
+@Slf4j
+@Service
+public class DuplicateDetectionService {
+
+    private static final int TEXT_BANDS = 16;
+    private static final int MAX_MATCHES = 10;
+    // not a listing id, so neither the index nor a lookup ever picks it up
+    private static final String SCAN_CHECKPOINT_ID = "scan-checkpoint";
+
+    private final MongoTemplate mongoTemplate;
+    private final ListingFingerprintRepository fingerprintRepository;
+    private final DuplicateFlagRepository flagRepository;
+    private final double textThreshold;
+    private final int imageMaxDistance;
+
+    private final LshIndex textIndex = new LshIndex();
+    private final LshIndex imageIndex = new LshIndex();
+    private final Map<String, int[]> signatures = new ConcurrentHashMap<>();
+    private final Map<String, long[]> imageHashes = new ConcurrentHashMap<>();
+
+    public DuplicateDetectionService(MongoTemplate mongoTemplate,
+                                     ListingFingerprintRepository fingerprintRepository,
+                                     DuplicateFlagRepository flagRepository,
+                                     @Value("${listing.duplicates.text-similarity:0.8}") double textThreshold,
+                                     @Value("${listing.duplicates.image-max-distance:6}") int imageMaxDistance) {
+        this.mongoTemplate = mongoTemplate;
+        this.fingerprintRepository = fingerprintRepository;
+        this.flagRepository = flagRepository;
+        this.textThreshold = textThreshold;
+        this.imageMaxDistance = imageMaxDistance;
+    }
+
+    // Called when a listing is created; never fails the caller
+    public List<DuplicateFlag> checkText(Listing listing) {
+        try {
+            int[] signature = MinHash.signature(listing.getTitle() + " " + listing.getDescription());
+            if (signature == null) return List.of();
+
+            Map<String, Double> matches = new HashMap<>();
+            for (String candidate : textIndex.candidates(LshIndex.minHashBands(signature, TEXT_BANDS))) {
+                int[] other = signatures.get(candidate);
+                if (other == null || candidate.equals(listing.getId())) continue;
+                double similarity = MinHash.similarity(signature, other);
+                if (similarity >= textThreshold) matches.put(candidate, similarity);
+            }
+
+            indexText(listing.getId(), signature);
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(listing.getId())),
+                    new Update()
+                            .set("ownerId", listing.getOwnerId())
+                            .set("minHash", toList(signature))
+                            .set("updatedAt", Instant.now()),
+                    ListingFingerprint.class);
+
+            return flag(listing.getId(), listing.getOwnerId(), DuplicateFlag.Kind.TEXT, matches);
+        } catch (Exception e) {
+            log.warn("Duplicate text check failed for listing {}: {}", listing.getId(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    // Called by ImageDerivativeService once the image hashes of a listing are known
+    public List<DuplicateFlag> checkImages(String listingId, String ownerId, List<Long> hashes) {
+        if (hashes == null || hashes.isEmpty()) return List.of();
+        try {
+            long[] own = hashes.stream().mapToLong(Long::longValue).toArray();
+
+            // best (smallest) distance from any of our images to any image of the candidate
+            Map<String, Double> matches = new HashMap<>();
+            for (String candidate : imageIndex.candidates(LshIndex.bitBands(own))) {
+                long[] other = imageHashes.get(candidate);
+                if (other == null || candidate.equals(listingId)) continue;
+                int best = Integer.MAX_VALUE;
+                for (long a : own) {
+                    for (long b : other) best = Math.min(best, PerceptualHash.distance(a, b));
+                }
+                if (best <= imageMaxDistance) matches.put(candidate, 1 - best / 64.0);
+            }
+
+            indexImages(listingId, own);
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(listingId)),
+                    new Update()
+                            .set("ownerId", ownerId)
+                            .set("imageHashes", hashes)
+                            .set("updatedAt", Instant.now()),
+                    ListingFingerprint.class);
+
+            return flag(listingId, ownerId, DuplicateFlag.Kind.IMAGE, matches);
+        } catch (Exception e) {
+            log.warn("Duplicate image check failed for listing {}: {}", listingId, e.getMessage());
+            return List.of();
+        }
+    }
+
+    // The listing itself is gone; flags that mention it stay for the record
+    public void remove(String listingId) {
+        int[] signature = signatures.remove(listingId);
+        if (signature != null) textIndex.remove(listingId, LshIndex.minHashBands(signature, TEXT_BANDS));
+        long[] hashes = imageHashes.remove(listingId);
+        if (hashes != null) imageIndex.remove(listingId, LshIndex.bitBands(hashes));
+        fingerprintRepository.deleteById(listingId);
+    }
+
+    public List<DuplicateFlag> getFlags(DuplicateFlag.Status status, int page, int size) {
+        return flagRepository.findByStatusOrderByCreatedAtDesc(status, PageRequest.of(page, Math.min(size, 100)));
+    }
+
+    public List<DuplicateFlag> getFlagsForListing(String listingId) {
+        return flagRepository.findByListingId(listingId);
+    }
+
+    public DuplicateFlag review(String flagId, DuplicateFlag.Status status, String adminEmail) {
+        if (status == DuplicateFlag.Status.OPEN) throw new RuntimeException("Review must confirm or dismiss the flag");
+        DuplicateFlag flag = flagRepository.findById(flagId)
+                .orElseThrow(() -> new RuntimeException("Duplicate flag not found"));
+        flag.setStatus(status);
+        flag.setReviewedBy(adminEmail);
+        flag.setReviewedAt(Instant.now());
+        return flagRepository.save(flag);
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+                "textSignatures", signatures.size(),
+                "textBuckets", textIndex.bucketCount(),
+                "imageSignatures", imageHashes.size(),
+                "imageBuckets", imageIndex.bucketCount());
+    }
+
+    private List<DuplicateFlag> flag(String listingId, String ownerId, DuplicateFlag.Kind kind, Map<String, Double> matches) {
+        if (matches.isEmpty()) return List.of();
+
+        List<Map.Entry<String, Double>> best = matches.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .limit(MAX_MATCHES)
+                .toList();
+        Map<String, String> owners = new HashMap<>();
+        fingerprintRepository.findAllById(best.stream().map(Map.Entry::getKey).toList())
+                .forEach(f -> owners.put(f.getId(), f.getOwnerId()));
+
+        List<DuplicateFlag> flags = new ArrayList<>();
+        Instant now = Instant.now();
+        for (Map.Entry<String, Double> match : best) {
+            DuplicateFlag flag = DuplicateFlag.builder()
+                    .listingId(listingId)
+                    .matchedListingId(match.getKey())
+                    .ownerId(ownerId)
+                    .matchedOwnerId(owners.get(match.getKey()))
+                    .kind(kind)
+                    .similarity(match.getValue())
+                    .createdAt(now)
+                    .build();
+            // setOnInsert: a re-check never reopens a flag an admin already reviewed
+            mongoTemplate.upsert(new Query(Criteria.where("listingId").is(listingId)
+                            .and("matchedListingId").is(match.getKey())
+                            .and("kind").is(kind)),
+                    new Update()
+                            .setOnInsert("ownerId", flag.getOwnerId())
+                            .setOnInsert("matchedOwnerId", flag.getMatchedOwnerId())
+                            .setOnInsert("similarity", flag.getSimilarity())
+                            .setOnInsert("status", flag.getStatus())
+                            .setOnInsert("createdAt", now),
+                    DuplicateFlag.class);
+            flags.add(flag);
+        }
+        log.info("Listing {} flagged as a possible {} duplicate of {}", listingId, kind, matches.keySet());
+        return flags;
+    }
+
+    private void indexText(String listingId, int[] signature) {
+        int[] old = signatures.put(listingId, signature);
+        if (old != null) textIndex.remove(listingId, LshIndex.minHashBands(old, TEXT_BANDS));
+        textIndex.add(listingId, LshIndex.minHashBands(signature, TEXT_BANDS));
+    }
+
+    private void indexImages(String listingId, long[] hashes) {
+        long[] old = imageHashes.put(listingId, hashes);
+        if (old != null) imageIndex.remove(listingId, LshIndex.bitBands(old));
+        imageIndex.add(listingId, LshIndex.bitBands(hashes));
+    }
+
+    @PostConstruct
+    void load() {
+        try (Stream<ListingFingerprint> fingerprints = mongoTemplate.stream(new Query(), ListingFingerprint.class)) {
+            fingerprints.forEach(f -> {
+                if (f.getMinHash() != null && f.getMinHash().size() == MinHash.SIZE) {
+                    indexText(f.getId(), f.getMinHash().stream().mapToInt(Integer::intValue).toArray());
+                }
+                if (f.getImageHashes() != null && !f.getImageHashes().isEmpty()) {
+                    indexImages(f.getId(), f.getImageHashes().stream().mapToLong(Long::longValue).toArray());
+                }
+            });
+            log.info("Duplicate index loaded: {}", stats());
+        } catch (Exception e) {
+            log.warn("Could not load listing fingerprints, the scan will rebuild them: {}", e.getMessage());
+        }
+    }
+
+    // Fingerprints listings that did not go through createListing: bulk imports and listings from before this existed.
+    // The first run ever covers every listing, later runs only those created since the previous one.
+    @Scheduled(initialDelayString = "${listing.duplicates.scan-initial-delay-ms:60000}",
+            fixedDelayString = "${listing.duplicates.scan-interval-ms:600000}")
+    public void scan() {
+        Instant started = Instant.now();
+        ListingFingerprint checkpoint = mongoTemplate.findById(SCAN_CHECKPOINT_ID, ListingFingerprint.class);
+        Instant lastScan = checkpoint != null ? checkpoint.getScannedAt() : null;
+        Query query = lastScan == null
+                ? new Query()
+                : new Query(Criteria.where("createdAt").gte(lastScan.minus(5, ChronoUnit.MINUTES)));
+        query.fields().include("title", "description", "ownerId");
+
+        AtomicInteger checked = new AtomicInteger();
+        try (Stream<Listing> listings = mongoTemplate.stream(query, Listing.class)) {
+            listings.filter(l -> !signatures.containsKey(l.getId()))
+                    .forEach(l -> {
+                        checkText(l);
+                        checked.incrementAndGet();
+                    });
+        }
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(SCAN_CHECKPOINT_ID)),
+                new Update().set("scannedAt", started), ListingFingerprint.class);
+        if (checked.get() > 0) log.info("Duplicate scan fingerprinted {} listings", checked.get());
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int v : values) list.add(v);
+        return list;
+    }
+}
@@ -0,0 +1,163 @@
+package com.trustify.service;
+
+import com.trustify.model.OutboxMessage;
+import com.trustify.model.Transaction;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies EscrowTransitions as single conditional findAndModify calls:
+ *
+ *   { _id, status: { $in: from }, ...guards }  ->  $set status + the changed fields,
+ *                                                  $inc version, $push outbox messages
+ *
+ * Only the fields the step changes are written, so concurrent steps on other fields are
+ * not lost, and a step racing another one (a webhook against a user action) either
+ * still finds its start status or does not apply at all. A step needs one round trip;
+ * only a rejected one reads the transaction again to explain why.
+ *
+ * The update returns the document as it was, so the status it left is known for the
+ * escrow summary counters; the caller gets that document with the step's changes applied.
+ */
+@Service
+@RequiredArgsConstructor
+public class EscrowStateMachine {
+
+    private final MongoTemplate mongoTemplate;
+    private final TransactionOutbox transactionOutbox;
+    private final EscrowSummaryService escrowSummaryService;
+
+    public Step transition(String transactionId, EscrowTransition transition) {
+        return new Step(Criteria.where("_id").is(transactionId), transition);
+    }
+
+    public Step transitionByPaymentIntent(String paymentIntentId, EscrowTransition transition) {
+        return new Step(Criteria.where("stripePaymentIntentId").is(paymentIntentId), transition);
+    }
+
+    /** Sets fields without a status change; false when the transaction is missing or the guard does not hold. */
+    public boolean update(String transactionId, Criteria guard, Update changes) {
+        Criteria criteria = Criteria.where("_id").is(transactionId);
+        if (guard != null) criteria = new Criteria().andOperator(criteria, guard);
+        changes.set("updatedAt", Instant.now()).inc("version", 1);
+        return mongoTemplate.updateFirst(new Query(criteria), changes, Transaction.class).getMatchedCount() > 0;
+    }
+
+    public final class Step {
+        private final Criteria identity;
+        private final EscrowTransition transition;
+        private final List<Criteria> guards = new ArrayList<>();
+        private final List<String> guardMessages = new ArrayList<>();
+        private final Update changes = new Update();
+        private final List<OutboxMessage> messages = new ArrayList<>();
+        private Transaction.TransactionStatus target;
+
+        private Step(Criteria identity, EscrowTransition transition) {
+            this.identity = identity;
+            this.transition = transition;
+            if (transition.to().size() == 1) target = transition.to().iterator().next();
+        }
+
+        public Step to(Transaction.TransactionStatus status) {
+            if (!transition.to().contains(status)) {
+                throw new IllegalStateException(transition + " cannot end in " + status);
+            }
+            target = status;
+            return this;
+        }
+
+        /** An extra condition on the document; message is the error when it is what fails. */
+        public Step guard(Criteria condition, String message) {
+            guards.add(condition);
+            guardMessages.add(message);
+            return this;
+        }
+
+        public Step set(String field, Object value) {
+            changes.set(field, value);
+            return this;
+        }
+
+        public Step emit(OutboxMessage... outbox) {
+            messages.addAll(List.of(outbox));
+            return this;
+        }
+
+        /** The transaction after the step; throws when it does not apply. */
+        public Transaction apply() {
+            Transaction updated = applyIfAllowed();
+            if (updated == null) throw rejection();
+            return updated;
+        }
+
+        /** The transaction after the step, or null when it does not apply. */
+        public Transaction applyIfAllowed() {
+            if (target == null) throw new IllegalStateException(transition + " needs a target status");
+
+            List<Criteria> all = new ArrayList<>();
+            all.add(identity);
+            all.add(Criteria.where("status").in(transition.from()));
+            all.addAll(guards);
+
+            Instant now = Instant.now();
+            changes.set("status", target).set("updatedAt", now);
+            if (EscrowSummaryService.COMPLETED_STATUSES.contains(target)) changes.set("completedAt", now);
+            Update update = changes.inc("version", 1);
+            if (!messages.isEmpty()) update.push("outbox").each(messages.toArray());
+
+            Transaction tx = mongoTemplate.findAndModify(
+                    new Query(new Criteria().andOperator(all.toArray(new Criteria[0]))),
+                    update,
+                    FindAndModifyOptions.options().returnNew(false),
+                    Transaction.class);
+            if (tx == null) return null;
+
+            Transaction.TransactionStatus from = tx.getStatus();
+            Instant completedBefore = tx.getCompletedAt();
+            applyLocally(tx);
+            if (!messages.isEmpty()) transactionOutbox.relaySoon();
+            escrowSummaryService.onTransition(tx, from, completedBefore);
+            return tx;
+        }
+
+        // the same changes the update made, on the document it returned
+        private void applyLocally(Transaction tx) {
+            MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                    .getRequiredPersistentEntity(Transaction.class);
+            PersistentPropertyAccessor<Transaction> accessor = entity.getPropertyAccessor(tx);
+            changes.getUpdateObject().get("$set", Document.class)
+                    .forEach((field, value) -> accessor.setProperty(entity.getRequiredPersistentProperty(field), value));
+            tx.setVersion(tx.getVersion() == null ? 1 : tx.getVersion() + 1);
+            if (!messages.isEmpty()) {
+                List<OutboxMessage> outbox = tx.getOutbox() == null ? new ArrayList<>() : new ArrayList<>(tx.getOutbox());
+                outbox.addAll(messages);
+                tx.setOutbox(outbox);
+            }
+        }
+
+        private RuntimeException rejection() {
+            Transaction current = mongoTemplate.findOne(new Query(identity), Transaction.class);
+            if (current == null) return new RuntimeException("Transaction not found");
+            for (int i = 0; i < guards.size(); i++) {
+                Query guarded = new Query(new Criteria().andOperator(identity, guards.get(i)));
+                if (!mongoTemplate.exists(guarded, Transaction.class)) return new RuntimeException(guardMessages.get(i));
+            }
+            if (!transition.allows(current.getStatus())) return new RuntimeException(transition.rejection());
+            // everything holds now, so it changed between the update and this read
+            return new OptimisticLockingFailureException("Transaction " + current.getId() + " was changed concurrently, please retry");
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.trustify.service;
+
+import com.trustify.dto.EscrowSummaryDTO;
+import com.trustify.model.EscrowSummary;
+import com.trustify.model.Transaction;
+import com.trustify.model.Transaction.TransactionStatus;
+import com.trustify.model.User;
+import com.trustify.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.trustify.model.Transaction.TransactionStatus.*;
+
+/**
+ * Per-party dashboard counters (escrow_summaries). Every status change applies the
+ * difference between what the transaction counted for before and after as one $inc
+ * upsert per party, so reading a dashboard is a lookup by _id instead of a scan.
+ *
+ * The $inc follows the transaction write rather than sharing it, so a crash in
+ * between leaves a summary off by one; reconcile() recomputes every summary from
+ * transactions and repairs the ones that drifted.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EscrowSummaryService {
+
+    private static final String BUYER = "buyer";
+    private static final String SELLER = "seller";
+    private static final int BULK_BATCH_SIZE = 500;
+
+    // money authorized and not yet captured, released or refunded
+    private static final Set<TransactionStatus> IN_ESCROW = EnumSet.of(
+            AUTHORIZED, HELD, PENDING_RELEASE, PENDING_DISPUTE, RENT_ACTIVE, RENTAL_IN_PROGRESS, RENTAL_RETURNED);
+    // waiting on the buyer: accept conditions / request release / pick up, or return the item
+    private static final Set<TransactionStatus> BUYER_ACTIONS = EnumSet.of(AUTHORIZED, RENTAL_IN_PROGRESS);
+    // waiting on the seller: confirm the release, or settle the deposit of a returned item
+    private static final Set<TransactionStatus> SELLER_ACTIONS = EnumSet.of(PENDING_RELEASE, RENTAL_RETURNED);
+    public static final Set<TransactionStatus> COMPLETED_STATUSES = EnumSet.of(
+            RELEASED, DELIVERED_AUTO, TransactionStatus.COMPLETED, RENT_COMPLETED, DAMAGE_RESOLVED);
+
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+
+    private final MongoTemplate mongoTemplate;
+    private final UserRepository userRepository;
+
+    public void onCreated(Transaction tx) {
+        record(tx, null, null);
+    }
+
+    /** tx is the transaction after the change; from and completedBefore are what it had before. */
+    public void onTransition(Transaction tx, TransactionStatus from, Instant completedBefore) {
+        record(tx, from, completedBefore);
+    }
+
+    private void record(Transaction tx, TransactionStatus from, Instant completedBefore) {
+        Map<String, Map<String, Long>> deltas = new LinkedHashMap<>();
+        for (String side : List.of(BUYER, SELLER)) {
+            String party = BUYER.equals(side) ? tx.getBuyerId() : tx.getSellerId();
+            if (party == null) continue;
+
+            EscrowSummary.Counters before = counts(side, from, 1, tx.getAmountCents(), month(completedBefore));
+            EscrowSummary.Counters after = counts(side, tx.getStatus(), 1, tx.getAmountCents(), month(tx.getCompletedAt()));
+            Map<String, Long> delta = deltas.computeIfAbsent(party, p -> new HashMap<>());
+            flatten(side, after).forEach((field, value) -> delta.merge(field, value, Long::sum));
+            flatten(side, before).forEach((field, value) -> delta.merge(field, -value, Long::sum));
+        }
+
+        deltas.forEach((party, delta) -> {
+            delta.values().removeIf(v -> v == 0);
+            if (delta.isEmpty()) return;
+            Update update = new Update().set("updatedAt", Instant.now());
+            delta.forEach(update::inc);
+            try {
+                mongoTemplate.upsert(new Query(Criteria.where("_id").is(party)), update, EscrowSummary.class);
+            } catch (RuntimeException e) {
+                // the transaction change is already stored; reconcile() repairs the summary
+                log.warn("Could not update escrow summary of {}: {}", party, e.getMessage());
+            }
+        });
+    }
+
+    public EscrowSummaryDTO summaryFor(String userEmail) {
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        // buyerId / sellerId hold either the user id or the email
+        List<EscrowSummary> summaries = mongoTemplate.find(
+                new Query(Criteria.where("_id").in(user.getId(), userEmail)), EscrowSummary.class);
+
+        String thisMonth = MONTH.format(Instant.now());
+        EscrowSummaryDTO.Side asBuyer = new EscrowSummaryDTO.Side();
+        EscrowSummaryDTO.Side asSeller = new EscrowSummaryDTO.Side();
+        for (EscrowSummary summary : summaries) {
+            addTo(asBuyer, summary.getBuyer(), thisMonth);
+            addTo(asSeller, summary.getSeller(), thisMonth);
+        }
+        return new EscrowSummaryDTO(asBuyer, asSeller);
+    }
+
+    /**
+     * Recomputes all summaries from transactions with one grouped aggregation per side and
+     * rewrites the ones that differ. A summary changed after the recount started is left
+     * alone: its own $inc is newer than the recount, and the next run checks it again.
+     */
+    @Scheduled(cron = "${escrow.summary.reconcile-cron:0 30 3 * * *}")
+    public synchronized Map<String, Object> reconcile() {
+        Instant started = Instant.now();
+        Map<String, EscrowSummary> expected = new HashMap<>();
+        recount(expected, "buyerId", BUYER);
+        recount(expected, "sellerId", SELLER);
+
+        int checked = 0, repaired = 0, skipped = 0, created = 0;
+        List<EscrowSummary> repairs = new ArrayList<>();
+        try (Stream<EscrowSummary> stored = mongoTemplate.stream(new Query(), EscrowSummary.class)) {
+            for (EscrowSummary summary : (Iterable<EscrowSummary>) stored::iterator) {
+                checked++;
+                EscrowSummary want = expected.remove(summary.getId());
+                if (want == null) want = EscrowSummary.builder().id(summary.getId()).build();
+                if (sameCounts(summary, want)) continue;
+                if (summary.getUpdatedAt() != null && !summary.getUpdatedAt().isBefore(started)) {
+                    skipped++;
+                    continue;
+                }
+                repairs.add(want);
+                repaired++;
+                if (repairs.size() >= BULK_BATCH_SIZE) {
+                    writeRepairs(repairs, started);
+                    repairs.clear();
+                }
+            }
+        }
+        writeRepairs(repairs, started);
+
+        // parties with transactions but no summary at all
+        List<EscrowSummary> missing = new ArrayList<>(expected.values());
+        for (int i = 0; i < missing.size(); i += BULK_BATCH_SIZE) {
+            List<EscrowSummary> batch = missing.subList(i, Math.min(i + BULK_BATCH_SIZE, missing.size()));
+            batch.forEach(s -> s.setUpdatedAt(Instant.now()));
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, EscrowSummary.class).insert(batch).execute();
+            } catch (BulkOperationException e) {
+                // a transition created it meanwhile; its $inc started from zero, the next run checks it
+                boolean onlyDuplicates = e.getErrors().stream().allMatch(err -> err.getCode() == 11000);
+                if (!onlyDuplicates) throw e;
+            }
+            created += batch.size();
+        }
+
+        if (repaired > 0 || created > 0) {
+            log.warn("Escrow summaries repaired: {} rewritten, {} created, {} checked", repaired, created, checked);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("checked", checked);
+        report.put("repaired", repaired);
+        report.put("created", created);
+        report.put("skippedChangedDuringRun", skipped);
+        report.put("tookMs", Instant.now().toEpochMilli() - started.toEpochMilli());
+        return report;
+    }
+
+    private void recount(Map<String, EscrowSummary> expected, String partyField, String side) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where(partyField).ne(null)),
+                Aggregation.project("status", "amountCents")
+                        .and(partyField).as("party")
+                        .and(DateOperators.dateOf("completedAt").toString("%Y-%m")).as("month"),
+                Aggregation.group("party", "status", "month")
+                        .count().as("count")
+                        .sum("amountCents").as("amountCents")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        try (Stream<Document> rows = mongoTemplate.aggregateStream(aggregation, "transactions", Document.class)) {
+            rows.forEach(row -> {
+                Document id = row.get("_id", Document.class);
+                TransactionStatus status;
+                try {
+                    status = TransactionStatus.valueOf(id.getString("status"));
+                } catch (RuntimeException e) {
+                    return; // missing or unknown status counts for nothing
+                }
+                EscrowSummary.Counters counts = counts(side, status,
+                        ((Number) row.get("count")).longValue(),
+                        ((Number) row.get("amountCents")).longValue(),
+                        id.getString("month"));
+                EscrowSummary summary = expected.computeIfAbsent(id.getString("party"),
+                        party -> EscrowSummary.builder().id(party).build());
+                add(BUYER.equals(side) ? summary.getBuyer() : summary.getSeller(), counts);
+            });
+        }
+    }
+
+    private void writeRepairs(List<EscrowSummary> repairs, Instant started) {
+        if (repairs.isEmpty()) return;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, EscrowSummary.class);
+        for (EscrowSummary want : repairs) {
+            Query unchangedSinceStart = new Query(new Criteria().andOperator(
+                    Criteria.where("_id").is(want.getId()),
+                    new Criteria().orOperator(
+                            Criteria.where("updatedAt").lt(started),
+                            Criteria.where("updatedAt").exists(false))));
+            bulk.updateOne(unchangedSinceStart, new Update()
+                    .set(BUYER, want.getBuyer())
+                    .set(SELLER, want.getSeller())
+                    .set("updatedAt", Instant.now()));
+        }
+        bulk.execute();
+    }
+
+    // what `count` transactions in `status` with `amountCents` in total add to one side's counters
+    private static EscrowSummary.Counters counts(String side, TransactionStatus status, long count,
+                                                 long amountCents, String completedMonth) {
+        EscrowSummary.Counters counts = new EscrowSummary.Counters();
+        if (status == null) return counts;
+        if (IN_ESCROW.contains(status)) {
+            counts.setInEscrow(count);
+            counts.setFundsInEscrowCents(amountCents);
+        }
+        Set<TransactionStatus> actions = BUYER.equals(side) ? BUYER_ACTIONS : SELLER_ACTIONS;
+        if (actions.contains(status)) counts.setPendingActions(count);
+        if (status == PENDING_DISPUTE) counts.setDisputesOpen(count);
+        if (COMPLETED_STATUSES.contains(status) && completedMonth != null) {
+            counts.getCompletedByMonth().put(completedMonth, count);
+        }
+        return counts;
+    }
+
+    private static Map<String, Long> flatten(String side, EscrowSummary.Counters counts) {
+        Map<String, Long> fields = new HashMap<>();
+        fields.put(side + ".inEscrow", counts.getInEscrow());
+        fields.put(side + ".fundsInEscrowCents", counts.getFundsInEscrowCents());
+        fields.put(side + ".pendingActions", counts.getPendingActions());
+        fields.put(side + ".disputesOpen", counts.getDisputesOpen());
+        counts.getCompletedByMonth().forEach((month, n) -> fields.put(side + ".completedByMonth." + month, n));
+        fields.values().removeIf(v -> v == 0);
+        return fields;
+    }
+
+    private static void add(EscrowSummary.Counters into, EscrowSummary.Counters counts) {
+        into.setInEscrow(into.getInEscrow() + counts.getInEscrow());
+        into.setFundsInEscrowCents(into.getFundsInEscrowCents() + counts.getFundsInEscrowCents());
+        into.setPendingActions(into.getPendingActions() + counts.getPendingActions());
+        into.setDisputesOpen(into.getDisputesOpen() + counts.getDisputesOpen());
+        counts.getCompletedByMonth().forEach((month, n) -> into.getCompletedByMonth().merge(month, n, Long::sum));
+    }
+
+    private static boolean sameCounts(EscrowSummary stored, EscrowSummary want) {
+        return flatten(BUYER, orEmpty(stored.getBuyer())).equals(flatten(BUYER, want.getBuyer()))
+                && flatten(SELLER, orEmpty(stored.getSeller())).equals(flatten(SELLER, want.getSeller()));
+    }
+
+    // documents created by $inc only have the fields that were incremented
+    private static EscrowSummary.Counters orEmpty(EscrowSummary.Counters counts) {
+        if (counts == null) return new EscrowSummary.Counters();
+        if (counts.getCompletedByMonth() == null) counts.setCompletedByMonth(new HashMap<>());
+        return counts;
+    }
+
+    private static void addTo(EscrowSummaryDTO.Side side, EscrowSummary.Counters counts, String thisMonth) {
+        counts = orEmpty(counts);
+        side.setInEscrow(side.getInEscrow() + counts.getInEscrow());
+        side.setFundsInEscrowCents(side.getFundsInEscrowCents() + counts.getFundsInEscrowCents());
+        side.setPendingActions(side.getPendingActions() + counts.getPendingActions());
+        side.setDisputesOpen(side.getDisputesOpen() + counts.getDisputesOpen());
+        side.setCompletedThisMonth(side.getCompletedThisMonth() + counts.getCompletedByMonth().getOrDefault(thisMonth, 0L));
+    }
+
+    private static String month(Instant at) {
+        return at == null ? null : MONTH.format(at);
+    }
+}
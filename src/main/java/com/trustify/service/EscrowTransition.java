@@ -0,0 +1,86 @@
+package com.trustify.service;
+
+import com.trustify.model.Transaction.TransactionStatus;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static com.trustify.model.Transaction.TransactionStatus.*;
+
+/**
+ * The escrow state machine: for every step, the statuses it may start from and the
+ * statuses it may end in. EscrowStateMachine turns a step into one conditional update,
+ * so a transition whose start status is no longer current simply does not match.
+ */
+public enum EscrowTransition {
+
+    // Stripe webhooks; a replay must never move a transaction back from a later state
+    AUTHORIZE(EnumSet.of(PENDING, AUTHORIZED), EnumSet.of(AUTHORIZED),
+            "Transaction cannot be authorized in its current state"),
+    CANCEL_BY_STRIPE(EnumSet.of(PENDING, AUTHORIZED, HELD, PENDING_RELEASE, MANUAL_REVIEW), EnumSet.of(CANCELLED),
+            "Transaction cannot be cancelled in its current state"),
+
+    REQUEST_RELEASE(EnumSet.of(AUTHORIZED), EnumSet.of(PENDING_RELEASE),
+            "Transaction not in authorized state"),
+    CAPTURE(EnumSet.of(PENDING_RELEASE, AUTHORIZED, PARTIALLY_RELEASED), EnumSet.of(RELEASED, PARTIALLY_RELEASED),
+            "Transaction not in releasable state"),
+    REFUND(EnumSet.complementOf(EnumSet.of(REFUNDED, CANCELLED, FAILED, AUTO_CANCELLED, PENDING_DISPUTE)), EnumSet.of(REFUNDED),
+            "Transaction cannot be refunded in its current state"),
+
+    OPEN_DISPUTE(EnumSet.of(AUTHORIZED, HELD, PENDING_RELEASE, PARTIALLY_RELEASED, RELEASED,
+                    RENTAL_IN_PROGRESS, RENTAL_RETURNED, DELIVERED_AUTO), EnumSet.of(PENDING_DISPUTE),
+            "Transaction cannot be disputed in its current state"),
+    RESOLVE_DISPUTE(EnumSet.of(PENDING_DISPUTE), EnumSet.of(REFUNDED, COMPLETED, PARTIALLY_RELEASED),
+            "Transaction not in dispute state"),
+
+    // conditions are accepted without a status change
+    ACCEPT_CONDITIONS(EnumSet.of(AUTHORIZED), EnumSet.of(AUTHORIZED),
+            "Transaction not in a state to accept conditions"),
+    START_RENTAL(EnumSet.of(AUTHORIZED), EnumSet.of(RENTAL_IN_PROGRESS),
+            "Rental cannot be started in the current state"),
+    COMPLETE_RENTAL(EnumSet.of(RENTAL_IN_PROGRESS), EnumSet.of(RENTAL_RETURNED),
+            "Rental is not in progress"),
+    RESOLVE_DAMAGE(EnumSet.of(RELEASED, PARTIALLY_RELEASED, REFUNDED, RENTAL_IN_PROGRESS, RENTAL_RETURNED), EnumSet.of(DAMAGE_RESOLVED),
+            "Damage cannot be resolved in the current state"),
+    FINALIZE_REFUND(EnumSet.of(REFUNDED, RELEASED, PARTIALLY_RELEASED, RENTAL_IN_PROGRESS, RENTAL_RETURNED, RENT_ACTIVE), EnumSet.of(COMPLETED),
+            "Deposit cannot be refunded in the current state"),
+
+    // schedulers
+    AUTO_CANCEL(EnumSet.of(PENDING, AUTHORIZED, REFUNDED), EnumSet.of(AUTO_CANCELLED),
+            "Transaction cannot be auto-cancelled"),
+    AUTO_DELIVER(EnumSet.of(RELEASED, PARTIALLY_RELEASED), EnumSet.of(DELIVERED_AUTO),
+            "Delivery cannot be auto-confirmed"),
+    RENTAL_END(EnumSet.of(RENT_ACTIVE, RENTAL_IN_PROGRESS, RENTAL_RETURNED, COMPLETED), EnumSet.of(RENT_COMPLETED),
+            "Rental cannot be completed");
+
+    private final Set<TransactionStatus> from;
+    private final Set<TransactionStatus> to;
+    private final String rejection;
+
+    EscrowTransition(Set<TransactionStatus> from, Set<TransactionStatus> to, String rejection) {
+        this.from = from;
+        this.to = to;
+        this.rejection = rejection;
+    }
+
+    public Set<TransactionStatus> from() {
+        return from;
+    }
+
+    public Set<TransactionStatus> to() {
+        return to;
+    }
+
+    public boolean allows(TransactionStatus status) {
+        return from.contains(status);
+    }
+
+    // fail fast before calling Stripe; the conditional update re-checks it
+    public void check(TransactionStatus status) {
+        if (!allows(status)) throw new RuntimeException(rejection);
+    }
+
+    public String rejection() {
+        return rejection;
+    }
+}
@@ -0,0 +1,95 @@
+package com.trustify.service;
+
+import com.trustify.model.Favorite;
+import com.trustify.model.Listing;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Listing.favoriteCount is an $inc that follows the favorites write rather than sharing it,
+ * so a crash in between leaves the counter off by one. repair() recounts favorites per
+ * listing and rewrites the counters that drifted.
+ *
+ * Counters are read before the recount and only written where they still hold the value
+ * read, so an $inc landing during the run makes that write miss instead of being lost;
+ * the next run checks the listing again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FavoriteCountRepair {
+
+    private static final int BULK_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Scheduled(cron = "${favorites.repair-cron:0 45 3 * * *}")
+    public synchronized Map<String, Object> repair() {
+        Instant started = Instant.now();
+
+        // listings that claim favorites, with the value the repair may replace
+        Map<String, Long> stored = new HashMap<>();
+        Query counted = new Query(Criteria.where("favoriteCount").ne(0).exists(true));
+        counted.fields().include("_id", "favoriteCount");
+        try (Stream<Document> rows = mongoTemplate.stream(counted, Document.class, "listings")) {
+            rows.forEach(row -> stored.put(row.get("_id").toString(), row.get("favoriteCount", Number.class).longValue()));
+        }
+
+        Map<String, Long> actual = new HashMap<>();
+        Aggregation perListing = Aggregation.newAggregation(Aggregation.group("listingId").count().as("count"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        try (Stream<Document> rows = mongoTemplate.aggregateStream(perListing, Favorite.class, Document.class)) {
+            rows.forEach(row -> actual.put(row.getString("_id"), row.get("count", Number.class).longValue()));
+        }
+
+        int drifted = 0, pending = 0;
+        long repaired = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+        Map<String, Long> all = new HashMap<>(stored);
+        actual.keySet().forEach(id -> all.putIfAbsent(id, null));
+        for (Map.Entry<String, Long> entry : all.entrySet()) {
+            long want = actual.getOrDefault(entry.getKey(), 0L);
+            Long have = entry.getValue();
+            if (have != null && have == want) continue;
+
+            Criteria unchanged = have != null
+                    ? Criteria.where("favoriteCount").is(have)
+                    : new Criteria().orOperator(Criteria.where("favoriteCount").is(0), Criteria.where("favoriteCount").exists(false));
+            bulk.updateOne(new Query(new Criteria().andOperator(Criteria.where("_id").is(entry.getKey()), unchanged)),
+                    new Update().set("favoriteCount", want));
+            drifted++;
+            if (++pending >= BULK_BATCH_SIZE) {
+                repaired += bulk.execute().getModifiedCount();
+                bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+                pending = 0;
+            }
+        }
+        if (pending > 0) repaired += bulk.execute().getModifiedCount();
+
+        if (repaired > 0) {
+            log.warn("Favorite counters repaired: {} of {} listings", repaired, all.size());
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("checked", all.size());
+        report.put("drifted", drifted);
+        report.put("repaired", repaired);
+        report.put("tookMs", Instant.now().toEpochMilli() - started.toEpochMilli());
+        return report;
+    }
+}
@@ -0,0 +1,236 @@
+package com.trustify.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trustify.exception.IdempotencyConflictException;
+import com.trustify.model.IdempotencyRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Idempotency-Key handling for unsafe endpoints.
+ *
+ * The first request with a key claims it in idempotency_keys and runs; its 2xx response
+ * is stored and replayed to every later request with the same key until the TTL expires.
+ * Duplicates arriving while the first one runs wait for its result: on this instance
+ * through an in-flight future, across instances by polling the record. A failed request
+ * releases its key so the client can retry it.
+ *
+ * The action receives a Stripe idempotency key derived from the caller and the key, so
+ * a retry that slips past (e.g. after the claim expired) still does not repeat the
+ * Stripe side effect.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_MILLIS = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Duration lockTimeout;
+
+    private final Map<String, CompletableFuture<Replay>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(MongoTemplate mongoTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${idempotency.ttl-hours:24}") long ttlHours,
+                              @Value("${idempotency.lock-timeout-seconds:60}") long lockTimeoutSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.lockTimeout = Duration.ofSeconds(lockTimeoutSeconds);
+    }
+
+    /**
+     * Runs the action at most once per (scope, caller, key). Without a key the action
+     * simply runs, with a null Stripe key.
+     */
+    public ResponseEntity<?> execute(String scope, String key, Principal principal, Object request,
+                                     Function<String, ResponseEntity<?>> action) {
+        if (key == null || key.isBlank()) return action.apply(null);
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new RuntimeException(HEADER + " must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String caller = principal != null ? principal.getName() : "anonymous";
+        String id = scope + ":" + caller + ":" + key;
+        String requestHash = sha256(toJson(request));
+
+        CompletableFuture<Replay> mine = new CompletableFuture<>();
+        CompletableFuture<Replay> running = inFlight.putIfAbsent(id, mine);
+        if (running != null) return await(running, requestHash);
+
+        try {
+            Replay previous = claim(id, requestHash);
+            if (previous != null) {
+                mine.complete(previous);
+                return previous.toResponse();
+            }
+
+            ResponseEntity<?> response;
+            try {
+                response = action.apply(scope + "-" + sha256(caller + ":" + key).substring(0, 40));
+            } catch (RuntimeException e) {
+                release(id);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+
+            Replay result = new Replay(response.getStatusCode().value(), toJson(response.getBody()), requestHash);
+            if (response.getStatusCode().is2xxSuccessful()) {
+                complete(id, result);
+            } else {
+                release(id);
+            }
+            mine.complete(result);
+            return response;
+        } finally {
+            inFlight.remove(id, mine);
+        }
+    }
+
+    // null when this request now owns the key, else the stored response of an earlier one
+    private Replay claim(String id, String requestHash) {
+        long deadline = System.nanoTime() + lockTimeout.toNanos();
+        while (true) {
+            Instant now = Instant.now();
+            try {
+                mongoTemplate.insert(IdempotencyRecord.builder()
+                        .id(id)
+                        .requestHash(requestHash)
+                        .status(IdempotencyRecord.Status.IN_PROGRESS)
+                        .createdAt(now)
+                        // a claim left behind by a crashed instance expires on its own
+                        .expiresAt(now.plus(lockTimeout))
+                        .build());
+                return null;
+            } catch (DuplicateKeyException e) {
+                // claimed before: replay it, or wait for the instance running it
+            }
+
+            IdempotencyRecord existing = mongoTemplate.findById(id, IdempotencyRecord.class);
+            if (existing != null) {
+                if (!requestHash.equals(existing.getRequestHash())) {
+                    throw new RuntimeException(HEADER + " was already used with a different request");
+                }
+                if (existing.getStatus() == IdempotencyRecord.Status.COMPLETED) {
+                    return new Replay(existing.getResponseStatus(), existing.getResponseBody(), existing.getRequestHash());
+                }
+                if (existing.getExpiresAt() != null && existing.getExpiresAt().isBefore(now)) {
+                    // stale claim the TTL monitor has not removed yet
+                    mongoTemplate.remove(new Query(Criteria.where("_id").is(id)
+                            .and("status").is(IdempotencyRecord.Status.IN_PROGRESS)
+                            .and("expiresAt").is(existing.getExpiresAt())), IdempotencyRecord.class);
+                    continue;
+                }
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IdempotencyConflictException("A request with this " + HEADER + " is still in progress");
+            }
+            sleep();
+        }
+    }
+
+    private void complete(String id, Replay result) {
+        Instant now = Instant.now();
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id)),
+                new Update()
+                        .set("status", IdempotencyRecord.Status.COMPLETED)
+                        .set("responseStatus", result.status())
+                        .set("responseBody", result.body())
+                        .set("expiresAt", now.plus(ttl)),
+                IdempotencyRecord.class);
+    }
+
+    private void release(String id) {
+        try {
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(id)
+                    .and("status").is(IdempotencyRecord.Status.IN_PROGRESS)), IdempotencyRecord.class);
+        } catch (Exception e) {
+            // the claim expires by itself
+            log.warn("Could not release idempotency key {}: {}", id, e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> await(CompletableFuture<Replay> running, String requestHash) {
+        try {
+            Replay replay = running.get(lockTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (!requestHash.equals(replay.requestHash())) {
+                throw new RuntimeException(HEADER + " was already used with a different request");
+            }
+            return replay.toResponse();
+        } catch (ExecutionException e) {
+            // the same failure the first request got
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IdempotencyConflictException("A request with this " + HEADER + " is still in progress");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("Interrupted while waiting for the original request");
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize for idempotency", e);
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("Interrupted while waiting for the original request");
+        }
+    }
+
+    private record Replay(int status, String body, String requestHash) {
+        ResponseEntity<?> toResponse() {
+            return ResponseEntity.status(status)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(REPLAYED_HEADER, "true")
+                    .body(body);
+        }
+    }
+}
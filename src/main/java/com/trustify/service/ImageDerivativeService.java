@@ -0,0 +1,357 @@
+package com.trustify.service;
+
+import com.trustify.model.Listing;
+import com.trustify.model.ListingImage;
+import com.trustify.util.BlurHash;
+import com.trustify.util.PerceptualHash;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds resized variants and a blurhash for every listing image, off the request path.
+ * Work is queued on a small bounded pool; anything dropped or failed is picked up
+ * again by the periodic backfill, so a full queue never blocks listing creation. The
+ * backfill only reads listings marked derivativesPending, which is unset once every
+ * image is derived.
+ *
+ * Images are derived one by one: one that cannot be read keeps its original only, and the
+ * listing is marked with derivativesFailedAt and an attempt count. The backfill retries it
+ * after retry-delay-ms, at most max-attempts times, and takes never-failed listings first,
+ * so broken uploads cannot crowd out the rest.
+ *
+ * Listings derived before images carried a perceptual hash are marked hashesPending; the
+ * hash backfill reads the smallest stored copy of each unhashed image and sets only its
+ * dHash, without deriving the variants again.
+ */
+@Slf4j
+@Service
+public class ImageDerivativeService {
+
+    // target widths, ascending; feed cards use the smallest one at least CARD_WIDTH wide
+    static final int[] VARIANT_WIDTHS = {160, 480, 1080};
+    public static final int CARD_WIDTH = 480;
+    private static final int BLURHASH_SAMPLE = 32;
+    private static final float QUALITY = 0.8f;
+
+    private final ImageStorage storage;
+    private final MongoTemplate mongoTemplate;
+    private final ListingCache listingCache;
+    private final DuplicateDetectionService duplicateDetectionService;
+    private final String format;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    private final ThreadPoolExecutor workers;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    public ImageDerivativeService(ImageStorage storage,
+                                  MongoTemplate mongoTemplate,
+                                  ListingCache listingCache,
+                                  DuplicateDetectionService duplicateDetectionService,
+                                  @Value("${image.derivatives.threads:2}") int threads,
+                                  @Value("${image.derivatives.queue-size:500}") int queueSize,
+                                  @Value("${image.derivatives.max-attempts:5}") int maxAttempts,
+                                  @Value("${image.derivatives.retry-delay-ms:3600000}") long retryDelayMillis) {
+        this.storage = storage;
+        this.mongoTemplate = mongoTemplate;
+        this.listingCache = listingCache;
+        this.duplicateDetectionService = duplicateDetectionService;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        // WebP only when an ImageIO plugin for it is on the classpath; the JDK itself ships JPEG
+        this.format = ImageIO.getImageWritersByFormatName("webp").hasNext() ? "webp" : "jpeg";
+        this.workers = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "image-derivatives");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Called after a listing is saved; returns immediately
+    public void submit(String listingId) {
+        enqueue(listingId, () -> process(listingId), () -> recordFailure(listingId));
+    }
+
+    // one task per listing at a time, whether it derives or only hashes
+    private void enqueue(String listingId, Task task, Runnable onFailure) {
+        if (listingId == null || !queued.add(listingId)) return;
+        try {
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.warn("Image derivatives failed for listing {}: {}", listingId, e.getMessage());
+                    onFailure.run();
+                } finally {
+                    queued.remove(listingId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(listingId);
+            log.debug("Derivative queue full, listing {} left for the backfill", listingId);
+        }
+    }
+
+    // Listings still marked derivativesPending, e.g. dropped from a full queue, and failed ones due for a retry;
+    // a read of the partial index, never-failed listings first (a missing derivativesFailedAt sorts lowest)
+    @Scheduled(fixedDelayString = "${image.derivatives.backfill-interval-ms:600000}")
+    public void backfill() {
+        Instant now = Instant.now();
+        Query pending = new Query(new Criteria().andOperator(
+                Criteria.where("derivativesPending").is(true),
+                new Criteria().orOperator(
+                        Criteria.where("derivativeAttempts").exists(false),
+                        Criteria.where("derivativeAttempts").lt(maxAttempts)),
+                new Criteria().orOperator(
+                        Criteria.where("derivativesFailedAt").exists(false),
+                        Criteria.where("derivativesFailedAt").lt(now.minusMillis(retryDelayMillis))),
+                Criteria.where("createdAt").lt(now.minus(1, ChronoUnit.MINUTES))));
+        pending.fields().include("_id");
+        pending.with(Sort.by(Sort.Direction.ASC, "derivativesFailedAt"));
+        pending.limit(100);
+
+        mongoTemplate.find(pending, Listing.class).forEach(listing -> submit(listing.getId()));
+    }
+
+    // Listings marked hashesPending, read through their partial index
+    @Scheduled(fixedDelayString = "${image.derivatives.backfill-interval-ms:600000}")
+    public void backfillHashes() {
+        Query pending = new Query(Criteria.where("hashesPending").is(true));
+        pending.fields().include("_id");
+        pending.with(Sort.by(Sort.Direction.ASC, "_id"));
+        pending.limit(100);
+
+        mongoTemplate.find(pending, Listing.class)
+                .forEach(listing -> enqueue(listing.getId(), () -> hashes(listing.getId()), () -> { }));
+    }
+
+    // Sets imageVariants.N.dHash for every image without one, from its smallest variant or the original
+    public void hashes(String listingId) {
+        Query byId = new Query(Criteria.where("_id").is(listingId));
+        byId.fields().include("imageUrls", "imageVariants", "ownerId", "hashAttempts");
+        Listing listing = mongoTemplate.findOne(byId, Listing.class);
+        if (listing == null || listing.getImageVariants() == null) return;
+
+        List<ListingImage> images = listing.getImageVariants();
+        Update update = new Update();
+        List<Long> hashes = new ArrayList<>();
+        int failed = 0;
+        for (int i = 0; i < images.size(); i++) {
+            ListingImage image = images.get(i);
+            if (image.getDHash() != null) {
+                hashes.add(image.getDHash());
+                continue;
+            }
+            List<ListingImage.Variant> variants = image.getVariants();
+            String source = variants != null && !variants.isEmpty() ? variants.get(0).getUrl() : image.getOriginal();
+            try {
+                long hash = PerceptualHash.dHash(resize(read(source), BLURHASH_SAMPLE));
+                update.set("imageVariants." + i + ".dHash", hash);
+                hashes.add(hash);
+            } catch (IOException | RuntimeException e) {
+                // e.g. an imported URL outside our storage; it stays unhashed
+                log.warn("Image hash failed for {} of listing {}: {}", source, listingId, e.getMessage());
+                failed++;
+            }
+        }
+
+        int attempts = listing.getHashAttempts() == null ? 1 : listing.getHashAttempts() + 1;
+        if (failed == 0) {
+            update.unset("hashesPending").unset("hashAttempts");
+        } else if (attempts >= maxAttempts) {
+            // give up; hashAttempts stays as the record of it
+            update.unset("hashesPending").set("hashAttempts", attempts);
+        } else {
+            update.set("hashAttempts", attempts);
+        }
+        // only if the images are unchanged since they were read, so the positions still hold
+        Query unchanged = new Query(Criteria.where("_id").is(listingId).and("imageUrls").is(listing.getImageUrls()));
+        mongoTemplate.updateFirst(unchanged, update, Listing.class);
+        listingCache.invalidate(listingId);
+
+        duplicateDetectionService.checkImages(listingId, listing.getOwnerId(), hashes);
+    }
+
+    public void process(String listingId) throws IOException {
+        Query byId = new Query(Criteria.where("_id").is(listingId));
+        byId.fields().include("imageUrls", "ownerId");
+        Listing listing = mongoTemplate.findOne(byId, Listing.class);
+        if (listing == null || listing.getImageUrls() == null) return;
+
+        List<ListingImage> images = new ArrayList<>();
+        int failed = 0;
+        for (String url : listing.getImageUrls()) {
+            try {
+                images.add(derive(url));
+            } catch (IOException | RuntimeException e) {
+                // the others still get their variants; this one is served as uploaded
+                log.warn("Image derivatives failed for {} of listing {}: {}", url, listingId, e.getMessage());
+                images.add(ListingImage.builder().original(url).variants(List.of()).build());
+                failed++;
+            }
+        }
+
+        Update update = new Update().set("imageVariants", images);
+        if (failed > 0) {
+            update.set("derivativesFailedAt", Instant.now()).inc("derivativeAttempts", 1);
+        } else {
+            update.unset("derivativesFailedAt").unset("derivativeAttempts").unset("derivativesPending");
+        }
+        // only if the image list is unchanged since it was read
+        Query unchanged = new Query(Criteria.where("_id").is(listingId).and("imageUrls").is(listing.getImageUrls()));
+        mongoTemplate.updateFirst(unchanged, update, Listing.class);
+        listingCache.invalidate(listingId);
+
+        duplicateDetectionService.checkImages(listingId, listing.getOwnerId(),
+                images.stream().map(ListingImage::getDHash).filter(Objects::nonNull).toList());
+    }
+
+    // the whole listing failed, e.g. it could not be read; counts as an attempt like a failed image
+    private void recordFailure(String listingId) {
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(listingId)),
+                    new Update().set("derivativesFailedAt", Instant.now()).inc("derivativeAttempts", 1), Listing.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not record derivative failure for listing {}: {}", listingId, e.getMessage());
+        }
+    }
+
+    public ListingImage derive(String originalUrl) throws IOException {
+        BufferedImage original = read(originalUrl);
+
+        List<ListingImage.Variant> variants = new ArrayList<>();
+        for (int width : VARIANT_WIDTHS) {
+            // never upscale; the original covers anything wider than itself
+            if (width >= original.getWidth()) break;
+            BufferedImage resized = resize(original, width);
+            String key = "variants/" + keyOf(originalUrl) + "_" + width + "." + extension();
+            String url = storage.store(key, encode(resized), "image/" + format);
+            variants.add(new ListingImage.Variant(resized.getWidth(), resized.getHeight(), format, url));
+        }
+
+        BufferedImage sample = resize(original, BLURHASH_SAMPLE);
+        return ListingImage.builder()
+                .original(originalUrl)
+                .blurHash(BlurHash.encode(sample, 4, 3))
+                .dHash(PerceptualHash.dHash(sample))
+                .variants(variants)
+                .build();
+    }
+
+    private BufferedImage read(String url) throws IOException {
+        BufferedImage image;
+        try (InputStream in = storage.open(url)) {
+            image = ImageIO.read(in);
+        }
+        if (image == null) throw new IOException("Unsupported image format: " + url);
+        return image;
+    }
+
+    /** Smallest variant at least {@code minWidth} wide, else the largest one, else the original. */
+    public static String pick(ListingImage image, int minWidth) {
+        if (image == null) return null;
+        List<ListingImage.Variant> variants = image.getVariants();
+        if (variants == null || variants.isEmpty()) return image.getOriginal();
+        for (ListingImage.Variant v : variants) {
+            if (v.getWidth() >= minWidth) return v.getUrl();
+        }
+        return variants.get(variants.size() - 1).getUrl();
+    }
+
+    private static BufferedImage resize(BufferedImage source, int width) {
+        int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        // RGB on white: JPEG has no alpha channel
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) throw new IOException("No ImageIO writer for " + format);
+        ImageWriter writer = writers.next();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionTypes() != null && param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(QUALITY);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private String extension() {
+        return "jpeg".equals(format) ? "jpg" : format;
+    }
+
+    private static String keyOf(String url) {
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,23 @@
+package com.trustify.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where listing images live. S3UploadService is the production store;
+ * LocalImageStorage (image.storage=local) keeps files on disk for dev and tests.
+ */
+public interface ImageStorage {
+
+    // stores an uploaded file under a fresh key and returns its public URL
+    String upload(MultipartFile file) throws IOException;
+
+    // stores generated content under the given key and returns its public URL
+    String store(String key, byte[] content, String contentType);
+
+    InputStream open(String url) throws IOException;
+
+    void delete(String url);
+}
@@ -1,17 +1,158 @@
 package com.trustify.service;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 @Service
-@RequiredArgsConstructor
 public class ImageUploadService {
 
-    private final S3UploadService s3Service;
+    private final ImageStorage storage;
+    private final int perRequestConcurrency;
+    private final long timeoutMillis;
+
+    // shared by all requests; a full queue rejects instead of piling up request threads
+    private final ThreadPoolExecutor uploadExecutor;
+
+    public ImageUploadService(ImageStorage storage,
+                              @Value("${image.upload.threads:16}") int threads,
+                              @Value("${image.upload.queue-size:200}") int queueSize,
+                              @Value("${image.upload.per-request-concurrency:4}") int perRequestConcurrency,
+                              @Value("${image.upload.timeout-seconds:30}") long timeoutSeconds) {
+        this.storage = storage;
+        this.perRequestConcurrency = Math.max(1, perRequestConcurrency);
+        this.timeoutMillis = timeoutSeconds * 1000;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.uploadExecutor = new ThreadPoolExecutor(
+                threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "image-upload-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.uploadExecutor.allowCoreThreadTimeOut(true);
+    }
 
     public String saveImage(MultipartFile file) {
-        return s3Service.uploadFile(file);
+        try {
+            return storage.upload(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to upload image", e);
+        }
+    }
+
+    /**
+     * Uploads all files concurrently and returns their URLs in the order of the input.
+     * At most perRequestConcurrency uploads of one call are in flight at a time. If any
+     * upload fails or the deadline passes, the uploads that did succeed are deleted.
+     */
+    public List<String> saveImages(List<MultipartFile> files) {
+        if (files == null || files.isEmpty()) return new ArrayList<>();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        String[] urls = new String[files.size()];
+        UploadBatch batch = new UploadBatch();
+        CompletionService<Void> completion = new ExecutorCompletionService<>(uploadExecutor);
+        List<Future<Void>> futures = new ArrayList<>();
+
+        int next = 0;
+        try {
+            // sliding window: start up to the cap, then one more each time one finishes
+            for (; next < files.size() && next < perRequestConcurrency; next++) {
+                futures.add(submit(completion, files.get(next), next, urls, batch));
+            }
+            for (int done = 0; done < files.size(); done++) {
+                long remaining = deadline - System.nanoTime();
+                Future<Void> finished = completion.poll(remaining, TimeUnit.NANOSECONDS);
+                if (finished == null) {
+                    throw new RuntimeException("Image upload timed out");
+                }
+                finished.get();
+                if (next < files.size()) {
+                    futures.add(submit(completion, files.get(next), next, urls, batch));
+                    next++;
+                }
+            }
+            return new ArrayList<>(Arrays.asList(urls));
+
+        } catch (ExecutionException e) {
+            abort(futures, batch);
+            throw new RuntimeException("Failed to upload image: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(futures, batch);
+            throw new RuntimeException("Image upload interrupted");
+        } catch (RejectedExecutionException e) {
+            abort(futures, batch);
+            throw new RuntimeException("Image upload is busy, try again shortly");
+        } catch (RuntimeException e) {
+            abort(futures, batch);
+            throw e;
+        }
+    }
+
+    private Future<Void> submit(CompletionService<Void> completion, MultipartFile file, int index,
+                                String[] urls, UploadBatch batch) {
+        return completion.submit(() -> {
+            String url = storage.upload(file);
+            if (!batch.record(url)) {
+                // the batch already failed; nobody will use this object
+                storage.delete(url);
+                return null;
+            }
+            urls[index] = url;
+            return null;
+        });
+    }
+
+    private void abort(List<Future<Void>> futures, UploadBatch batch) {
+        futures.forEach(f -> f.cancel(true));
+        for (String url : batch.abort()) {
+            try {
+                storage.delete(url);
+            } catch (Exception ignored) {
+                // best effort; an orphaned object is harmless
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdownNow();
+    }
+
+    // Uploads that finish after a failure must clean up after themselves
+    private static final class UploadBatch {
+        private final List<String> uploaded = new ArrayList<>();
+        private boolean aborted;
+
+        synchronized boolean record(String url) {
+            if (aborted) return false;
+            uploaded.add(url);
+            return true;
+        }
+
+        synchronized List<String> abort() {
+            aborted = true;
+            return new ArrayList<>(uploaded);
+        }
     }
 }
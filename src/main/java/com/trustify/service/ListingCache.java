@@ -0,0 +1,42 @@
+package com.trustify.service;
+
+import com.trustify.model.Listing;
+import com.trustify.util.TtlCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Read-through cache for single listings (GET /listings/{id}).
+ * Entries are shared between requests, so callers must treat them as read-only.
+ * Every write path in ListingServiceImpl calls invalidate(); the TTL bounds
+ * staleness for writes made by other instances.
+ */
+@Component
+public class ListingCache {
+
+    private final TtlCache<String, Listing> cache;
+
+    public ListingCache(@Value("${listing.cache.max-size:10000}") int maxSize,
+                        @Value("${listing.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.cache = new TtlCache<>(maxSize, ttlSeconds * 1000);
+    }
+
+    public Listing get(String id, Function<String, Listing> loader) {
+        return cache.get(id, loader);
+    }
+
+    public Listing getIfPresent(String id) {
+        return cache.getIfPresent(id);
+    }
+
+    public void invalidate(String id) {
+        if (id != null) cache.invalidate(id);
+    }
+
+    public Map<String, Object> stats() {
+        return cache.stats();
+    }
+}
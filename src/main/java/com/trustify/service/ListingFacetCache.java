@@ -0,0 +1,33 @@
+package com.trustify.service;
+
+import com.trustify.dto.ListingFacets;
+import com.trustify.dto.ListingFilter;
+import com.trustify.util.TtlCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Short-lived cache for GET /listings/facets, keyed by the normalized filter.
+ * Counts are allowed to lag writes by up to the TTL; nothing invalidates entries.
+ */
+@Component
+public class ListingFacetCache {
+
+    private final TtlCache<ListingFilter, ListingFacets> cache;
+
+    public ListingFacetCache(@Value("${listing.facets.cache.max-size:1000}") int maxSize,
+                             @Value("${listing.facets.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.cache = new TtlCache<>(maxSize, ttlSeconds * 1000);
+    }
+
+    public ListingFacets get(ListingFilter filter, Function<ListingFilter, ListingFacets> loader) {
+        return cache.get(filter, loader);
+    }
+
+    public Map<String, Object> stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,342 @@
+package com.trustify.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trustify.dto.ListingDTO;
+import com.trustify.model.Listing;
+import com.trustify.model.ListingImage;
+import com.trustify.repository.UserRepository;
+import com.trustify.repository.projection.UserIdView;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bulk listing import from NDJSON (one ListingDTO per line) or CSV with a header row.
+ *
+ * The input is parsed row by row and valid rows are written in unordered bulk inserts of
+ * batch-size documents, so memory stays flat regardless of the file size. The report is
+ * streamed back as NDJSON, one line per row plus a final summary line; a bad row only
+ * fails itself.
+ */
+@Slf4j
+@Service
+public class ListingImportService {
+
+    public enum Format { NDJSON, CSV }
+
+    // CSV columns; imageUrls are separated by '|'
+    private static final List<String> CSV_COLUMNS =
+            List.of("title", "description", "price", "type", "category", "imageUrls", "latitude", "longitude");
+    private static final int MAX_CSV_FIELD = 64 * 1024;
+
+    private final MongoTemplate mongoTemplate;
+    private final UserRepository userRepository;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final ListingSuggestService listingSuggestService;
+    private final int batchSize;
+    private final int maxRows;
+
+    public ListingImportService(MongoTemplate mongoTemplate,
+                                UserRepository userRepository,
+                                Validator validator,
+                                ObjectMapper objectMapper,
+                                ListingSuggestService listingSuggestService,
+                                @Value("${listing.import.batch-size:500}") int batchSize,
+                                @Value("${listing.import.max-rows:100000}") int maxRows) {
+        this.mongoTemplate = mongoTemplate;
+        this.userRepository = userRepository;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.listingSuggestService = listingSuggestService;
+        this.batchSize = batchSize;
+        this.maxRows = maxRows;
+    }
+
+    public void importListings(InputStream input, Format format, Principal principal, OutputStream report) throws IOException {
+        String ownerId = userRepository.findIdByEmail(principal.getName())
+                .map(UserIdView::getId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        long started = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Batch batch = new Batch(report);
+
+        int row = 0;
+        if (format == Format.CSV) {
+            CsvReader csv = new CsvReader(reader);
+            Map<String, Integer> header = csvHeader(csv.next());
+            List<String> fields;
+            while ((fields = csv.next()) != null && row < maxRows) {
+                if (fields.size() == 1 && fields.get(0).isBlank()) continue;
+                row++;
+                try {
+                    batch.add(row, toListing(fromCsv(header, fields), ownerId));
+                } catch (Exception e) {
+                    batch.reportError(row, List.of(message(e)));
+                }
+            }
+        } else {
+            String line;
+            while ((line = reader.readLine()) != null && row < maxRows) {
+                if (line.isBlank()) continue;
+                row++;
+                try {
+                    batch.add(row, toListing(objectMapper.readValue(line, ListingDTO.class), ownerId));
+                } catch (Exception e) {
+                    batch.reportError(row, List.of(message(e)));
+                }
+            }
+        }
+        batch.flush();
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("rows", row);
+        summary.put("created", batch.created);
+        summary.put("failed", batch.failed);
+        summary.put("truncated", row >= maxRows);
+        summary.put("millis", System.currentTimeMillis() - started);
+        batch.write(Map.of("summary", summary));
+        report.flush();
+        log.info("Listing import by {}: {} rows, {} created, {} failed", ownerId, row, batch.created, batch.failed);
+    }
+
+    private Listing toListing(ListingDTO dto, String ownerId) {
+        List<String> errors = new ArrayList<>();
+        for (ConstraintViolation<ListingDTO> v : validator.validate(dto)) {
+            errors.add(v.getPropertyPath() + ": " + v.getMessage());
+        }
+        if (dto.getPrice() != null && dto.getPrice() < 0) errors.add("price: must not be negative");
+        if (dto.getImageUrls() != null) {
+            for (String url : dto.getImageUrls()) {
+                if (!isHttpUrl(url)) errors.add("imageUrls: not an http(s) URL: " + url);
+            }
+        }
+        if ((dto.getLatitude() == null) != (dto.getLongitude() == null)) {
+            errors.add("location: latitude and longitude go together");
+        } else if (dto.getLatitude() != null
+                && (Math.abs(dto.getLatitude()) > 90 || Math.abs(dto.getLongitude()) > 180)) {
+            errors.add("location: invalid coordinates");
+        }
+        if (!errors.isEmpty()) throw new RowException(errors);
+
+        List<String> imageUrls = dto.getImageUrls() != null ? dto.getImageUrls() : List.of();
+        Instant now = Instant.now();
+        return Listing.builder()
+                // ids are assigned here so the report can name them even for an unordered bulk
+                .id(new ObjectId().toHexString())
+                .title(dto.getTitle())
+                .description(dto.getDescription())
+                .price(dto.getPrice())
+                .type(dto.getType())
+                .category(dto.getCategory())
+                .categoryKey(Listing.categoryKey(dto.getCategory()))
+                .imageUrls(imageUrls)
+                // external URLs are not in our storage, so they are served as-is without derivatives
+                .imageVariants(imageUrls.stream()
+                        .map(url -> ListingImage.builder().original(url).variants(List.of()).build())
+                        .toList())
+                .location(dto.getLatitude() != null ? new GeoJsonPoint(dto.getLongitude(), dto.getLatitude()) : null)
+                .ownerId(ownerId)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+    }
+
+    private static Map<String, Integer> csvHeader(List<String> header) {
+        if (header == null) throw new RuntimeException("CSV is empty");
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            index.put(header.get(i).trim(), i);
+        }
+        if (!index.containsKey("title")) {
+            throw new RuntimeException("CSV header must name the columns: " + String.join(",", CSV_COLUMNS));
+        }
+        return index;
+    }
+
+    private static ListingDTO fromCsv(Map<String, Integer> header, List<String> fields) {
+        ListingDTO dto = new ListingDTO();
+        dto.setTitle(field(header, fields, "title"));
+        dto.setDescription(field(header, fields, "description"));
+        dto.setCategory(field(header, fields, "category"));
+
+        String price = field(header, fields, "price");
+        if (price != null) dto.setPrice(Double.valueOf(price));
+        String type = field(header, fields, "type");
+        if (type != null) dto.setType(Listing.ListingType.valueOf(type.toUpperCase(Locale.ROOT)));
+        String images = field(header, fields, "imageUrls");
+        if (images != null) {
+            dto.setImageUrls(Arrays.stream(images.split("\\|")).map(String::trim).filter(s -> !s.isEmpty()).toList());
+        }
+        String lat = field(header, fields, "latitude");
+        String lng = field(header, fields, "longitude");
+        if (lat != null) dto.setLatitude(Double.valueOf(lat));
+        if (lng != null) dto.setLongitude(Double.valueOf(lng));
+        return dto;
+    }
+
+    private static String field(Map<String, Integer> header, List<String> fields, String column) {
+        Integer i = header.get(column);
+        if (i == null || i >= fields.size()) return null;
+        String value = fields.get(i).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isHttpUrl(String url) {
+        try {
+            String scheme = URI.create(url).getScheme();
+            return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String message(Exception e) {
+        if (e instanceof RowException r) return String.join("; ", r.errors);
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    // Pending rows of the current chunk plus the report writer
+    private final class Batch {
+        private final OutputStream report;
+        private final List<Listing> listings = new ArrayList<>();
+        private final List<Integer> rows = new ArrayList<>();
+        private long created;
+        private long failed;
+
+        Batch(OutputStream report) {
+            this.report = report;
+        }
+
+        void add(int row, Listing listing) throws IOException {
+            rows.add(row);
+            listings.add(listing);
+            if (listings.size() >= batchSize) flush();
+        }
+
+        void flush() throws IOException {
+            if (listings.isEmpty()) return;
+
+            Map<Integer, String> insertErrors = new HashMap<>();
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class)
+                        .insert(listings)
+                        .execute();
+            } catch (BulkOperationException e) {
+                e.getErrors().forEach(err -> insertErrors.put(err.getIndex(), err.getMessage()));
+            } catch (Exception e) {
+                for (int i = 0; i < listings.size(); i++) insertErrors.put(i, message(e));
+            }
+
+            for (int i = 0; i < listings.size(); i++) {
+                String error = insertErrors.get(i);
+                if (error == null) {
+                    created++;
+                    listingSuggestService.added(listings.get(i));
+                    write(Map.of("row", rows.get(i), "status", "created", "id", listings.get(i).getId()));
+                } else {
+                    failed++;
+                    write(Map.of("row", rows.get(i), "status", "error", "errors", List.of(error)));
+                }
+            }
+            listings.clear();
+            rows.clear();
+            report.flush();
+        }
+
+        void reportError(int row, List<String> errors) throws IOException {
+            failed++;
+            write(Map.of("row", row, "status", "error", "errors", errors));
+        }
+
+        void write(Object line) throws IOException {
+            report.write(objectMapper.writeValueAsBytes(line));
+            report.write('\n');
+        }
+    }
+
+    private static final class RowException extends RuntimeException {
+        private final List<String> errors;
+
+        RowException(List<String> errors) {
+            super(String.join("; ", errors));
+            this.errors = errors;
+        }
+    }
+
+    // Minimal RFC 4180 reader: quoted fields may hold commas, doubled quotes and line breaks
+    private static final class CsvReader {
+        private final BufferedReader in;
+
+        CsvReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = in.read()) != -1) {
+                any = true;
+                char ch = (char) c;
+                if (quoted) {
+                    if (ch == '"') {
+                        in.mark(1);
+                        int n = in.read();
+                        if (n == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            if (n != -1) in.reset();
+                        }
+                    } else {
+                        field.append(ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                } else if (ch == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (ch == '\n') {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (ch != '\r') {
+                    field.append(ch);
+                }
+                if (field.length() > MAX_CSV_FIELD) {
+                    throw new IOException("CSV field longer than " + MAX_CSV_FIELD + " characters (unclosed quote?)");
+                }
+            }
+            if (!any) return null;
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
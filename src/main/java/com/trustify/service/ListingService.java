@@ -1,6 +1,10 @@
 package com.trustify.service;
 
+import com.trustify.dto.CursorPage;
 import com.trustify.dto.ListingDTO;
+import com.trustify.dto.ListingFacets;
+import com.trustify.dto.ListingSummaryDTO;
+import com.trustify.dto.NearbyListingDTO;
 import com.trustify.model.Listing;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -16,6 +20,14 @@ public interface ListingService {
 
     Listing getListingById(String id);
 
+    // buffered in memory, written to viewCount in batches
+    void recordView(String id);
+
+    // strong ETag of GET /listings/{id}; answered from the cache or an _id/updatedAt projection
+    String getListingETag(String id);
+
+    String etagOf(Listing listing);
+
     void deleteListing(String id, Principal principal) throws AccessDeniedException;
 
     List<Listing> getListingsByType(Listing.ListingType type);
@@ -24,19 +36,44 @@ public interface ListingService {
 
     List<Listing> getListingsByUser(Principal principal);
 
-    List<ListingDTO> getAllActiveListings(int page, int size, String sortBy, String sortDir, Principal principal);
+    List<ListingSummaryDTO> getAllActiveListings(int page, int size, String sortBy, String sortDir, Principal principal);
+
+    List<ListingSummaryDTO> getListingsByType(Listing.ListingType type, int page, int size, String sortBy, String sortDir);
+
+    Page<ListingSummaryDTO> searchListings(String query, String category, Listing.ListingType type, Double priceMax, int page, int size, String sortBy, String sortDir);
+
+    // ranked by TrendingService; page/size index into its published ranking
+    List<ListingSummaryDTO> getTrendingListings(int page, int size, Principal principal);
+
+    ListingFacets getFacets(String query, String category, Listing.ListingType type, Double priceMax);
+
+    List<ListingSummaryDTO> getListingsByOwner(Principal principal, int page, int size, String sortBy, String sortDir);
+
+    // ---------- Geo search, ordered by distance ----------
+    CursorPage<NearbyListingDTO> getListingsNear(double latitude, double longitude, Double radiusKm,
+                                                 Listing.ListingType type, String category, Double priceMax,
+                                                 String cursor, int size, Principal principal);
+
+    CursorPage<NearbyListingDTO> getListingsWithin(double minLat, double minLng, double maxLat, double maxLng,
+                                                   Listing.ListingType type, String category, Double priceMax,
+                                                   String cursor, int size, Principal principal);
+
+    // ---------- Cursor (keyset) pagination ----------
+    CursorPage<ListingSummaryDTO> getAllActiveListingsAfter(String cursor, int size, String sortBy, String sortDir, Principal principal);
 
-    List<Listing> getListingsByType(Listing.ListingType type, int page, int size, String sortBy, String sortDir);
+    CursorPage<ListingSummaryDTO> getListingsByTypeAfter(Listing.ListingType type, String cursor, int size, String sortBy, String sortDir);
 
-    Page<Listing> searchListings(String category, Listing.ListingType type, Double priceMax, int page, int size, String sortBy, String sortDir);
+    CursorPage<ListingSummaryDTO> searchListingsAfter(String query, String category, Listing.ListingType type, Double priceMax, String cursor, int size, String sortBy, String sortDir);
 
-    List<Listing> getListingsByOwner(Principal principal, int page, int size, String sortBy, String sortDir);
+    CursorPage<ListingSummaryDTO> getListingsByOwnerAfter(Principal principal, String cursor, int size, String sortBy, String sortDir);
 
 //    void toggleFavorite(String listingId, Principal principal);
 //    List<Listing> getUserFavorites(Principal principal);
 
     boolean toggleFavorite(String listingId, Principal principal);
-    List<ListingDTO> getFavoriteListings(Principal principal);
+    boolean addFavorite(String listingId, Principal principal);
+    boolean removeFavorite(String listingId, Principal principal);
+    List<ListingSummaryDTO> getFavoriteListings(Principal principal);
 
 
 }
@@ -0,0 +1,136 @@
+package com.trustify.service;
+
+import com.trustify.model.Listing;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind view and impression counters. Requests only bump in-memory LongAdders;
+ * a scheduled flush turns the deltas into one unordered bulk of $inc updates.
+ *
+ * Memory is bounded by max-tracked listings: new ids past the cap are dropped (and
+ * counted), and entries that stay idle for a flush are removed. An increment racing
+ * with the removal of an idle entry can be lost; these are analytics counters.
+ */
+@Slf4j
+@Component
+public class ListingStatsCounter {
+
+    private static final int BULK_BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final TrendingService trendingService;
+    private final int maxTracked;
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+
+    public ListingStatsCounter(MongoTemplate mongoTemplate,
+                               TrendingService trendingService,
+                               @Value("${listing.stats.max-tracked:50000}") int maxTracked) {
+        this.mongoTemplate = mongoTemplate;
+        this.trendingService = trendingService;
+        this.maxTracked = maxTracked;
+    }
+
+    public void recordView(String listingId) {
+        Counters c = countersFor(listingId);
+        if (c != null) c.views.increment();
+    }
+
+    public void recordImpressions(Collection<String> listingIds) {
+        for (String id : listingIds) {
+            Counters c = countersFor(id);
+            if (c != null) c.impressions.increment();
+        }
+    }
+
+    private Counters countersFor(String listingId) {
+        if (listingId == null) return null;
+        Counters c = counters.get(listingId);
+        if (c != null) return c;
+        if (counters.size() >= maxTracked) {
+            dropped.increment();
+            return null;
+        }
+        return counters.computeIfAbsent(listingId, k -> new Counters());
+    }
+
+    @Scheduled(fixedDelayString = "${listing.stats.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, Counters> e : counters.entrySet()) {
+            Counters c = e.getValue();
+            // sumThenReset moves each cell to zero atomically, so concurrent increments land in the next flush
+            long views = c.views.sumThenReset();
+            long impressions = c.impressions.sumThenReset();
+            if (views == 0 && impressions == 0) {
+                counters.remove(e.getKey(), c);
+            } else {
+                deltas.add(new Delta(e.getKey(), views, impressions));
+            }
+        }
+
+        // trending takes views once per flush, not once per request
+        for (Delta d : deltas) {
+            if (d.views > 0) trendingService.recordViews(d.listingId, d.views);
+        }
+
+        for (int from = 0; from < deltas.size(); from += BULK_BATCH_SIZE) {
+            List<Delta> batch = deltas.subList(from, Math.min(from + BULK_BATCH_SIZE, deltas.size()));
+            try {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Listing.class);
+                for (Delta d : batch) {
+                    Update inc = new Update();
+                    if (d.views > 0) inc.inc("viewCount", d.views);
+                    if (d.impressions > 0) inc.inc("impressionCount", d.impressions);
+                    bulk.updateOne(new Query(Criteria.where("_id").is(d.listingId)), inc);
+                }
+                bulk.execute();
+            } catch (Exception e) {
+                // put the deltas back so the next flush retries them
+                log.warn("Listing counter flush failed, retrying next time: {}", e.getMessage());
+                batch.forEach(this::restore);
+            }
+        }
+
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            log.warn("Dropped {} listing counter increments: more than {} listings pending", lost, maxTracked);
+        }
+    }
+
+    private void restore(Delta d) {
+        Counters c = counters.computeIfAbsent(d.listingId, k -> new Counters());
+        c.views.add(d.views);
+        c.impressions.add(d.impressions);
+    }
+
+    @PreDestroy
+    public void drain() {
+        flush();
+    }
+
+    private static final class Counters {
+        final LongAdder views = new LongAdder();
+        final LongAdder impressions = new LongAdder();
+    }
+
+    private record Delta(String listingId, long views, long impressions) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.trustify.service;
+
+import com.trustify.model.Listing;
+import com.trustify.util.SuggestTrie;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Typeahead over active listing titles and categories, served from an in-memory
+ * SuggestTrie. Listing create / delete update it incrementally; status changes made
+ * elsewhere (sold, rented, removed) are picked up by the periodic rebuild, which builds
+ * a fresh trie from Mongo and swaps it in.
+ */
+@Slf4j
+@Service
+public class ListingSuggestService {
+
+    public static final String TITLE = "title";
+    public static final String CATEGORY = "category";
+    private static final int TOP_K = 10;
+
+    private final MongoTemplate mongoTemplate;
+    private final int maxNodes;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private SuggestTrie trie;
+
+    public ListingSuggestService(MongoTemplate mongoTemplate,
+                                 @Value("${listing.suggest.max-nodes:500000}") int maxNodes) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxNodes = maxNodes;
+        this.trie = new SuggestTrie(TOP_K, maxNodes);
+    }
+
+    public List<SuggestTrie.Suggestion> suggest(String prefix, int limit) {
+        int n = Math.max(1, Math.min(limit, TOP_K));
+        lock.readLock().lock();
+        try {
+            return trie.complete(prefix, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void added(Listing listing) {
+        if (listing.getStatus() != Listing.ListingStatus.ACTIVE) return;
+        lock.writeLock().lock();
+        try {
+            trie.add(listing.getTitle(), TITLE, 1);
+            trie.add(listing.getCategory(), CATEGORY, 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removed(Listing listing) {
+        if (listing.getStatus() != Listing.ListingStatus.ACTIVE) return;
+        lock.writeLock().lock();
+        try {
+            trie.remove(listing.getTitle(), TITLE, 1);
+            trie.remove(listing.getCategory(), CATEGORY, 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            return Map.of(
+                    "terms", trie.termCount(),
+                    "nodes", trie.nodeCount(),
+                    "maxNodes", maxNodes,
+                    "rejectedTerms", trie.rejected());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Built off the lock; updates that land while it runs are in Mongo and usually in the stream already
+    @PostConstruct
+    @Scheduled(initialDelayString = "${listing.suggest.rebuild-interval-ms:3600000}",
+            fixedDelayString = "${listing.suggest.rebuild-interval-ms:3600000}")
+    public void rebuild() {
+        long started = System.currentTimeMillis();
+        SuggestTrie fresh = new SuggestTrie(TOP_K, maxNodes);
+
+        Query active = new Query(Criteria.where("status").is(Listing.ListingStatus.ACTIVE));
+        active.fields().include("title", "category");
+        try (Stream<Listing> listings = mongoTemplate.stream(active, Listing.class)) {
+            listings.forEach(l -> {
+                fresh.add(l.getTitle(), TITLE, 1);
+                fresh.add(l.getCategory(), CATEGORY, 1);
+            });
+        } catch (Exception e) {
+            log.warn("Suggest index rebuild failed, keeping the current one: {}", e.getMessage());
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            trie = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Suggest index rebuilt in {} ms: {} terms, {} nodes, {} rejected",
+                System.currentTimeMillis() - started, fresh.termCount(), fresh.nodeCount(), fresh.rejected());
+    }
+}
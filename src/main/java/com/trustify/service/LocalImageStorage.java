@@ -0,0 +1,78 @@
+package com.trustify.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Disk-backed stand-in for S3 (image.storage=local). URLs are paths relative to the
+ * server, the same shape ListingServiceImpl.buildFullImageUrls expects.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "image.storage", havingValue = "local")
+public class LocalImageStorage implements ImageStorage {
+
+    private static final String URL_PREFIX = "/uploads/listings/";
+
+    private final Path root;
+
+    public LocalImageStorage(@Value("${file.upload-dir:uploads/listings}") String uploadDir) {
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public String upload(MultipartFile file) throws IOException {
+        String key = UUID.randomUUID() + "_" + Paths.get(String.valueOf(file.getOriginalFilename())).getFileName();
+        Files.createDirectories(root);
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, resolve(key), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return URL_PREFIX + key;
+    }
+
+    @Override
+    public String store(String key, byte[] content, String contentType) {
+        try {
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            Files.write(target, content);
+            return URL_PREFIX + key;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(String url) throws IOException {
+        if (url == null || !url.startsWith(URL_PREFIX)) throw new IOException("Not a local image: " + url);
+        return Files.newInputStream(resolve(url.substring(URL_PREFIX.length())));
+    }
+
+    @Override
+    public void delete(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX)) return;
+        try {
+            Files.deleteIfExists(resolve(url.substring(URL_PREFIX.length())));
+        } catch (IOException ignored) {
+            // nothing to clean up
+        }
+    }
+
+    private Path resolve(String key) throws IOException {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) throw new IOException("Invalid image key: " + key);
+        return path;
+    }
+}
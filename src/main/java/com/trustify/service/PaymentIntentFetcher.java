@@ -0,0 +1,164 @@
+package com.trustify.service;
+
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.StripeCollection;
+import com.stripe.param.PaymentIntentListParams;
+import com.trustify.util.RateLimiter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches many PaymentIntents with few Stripe calls. Ids are grouped by the creation
+ * time of their transaction into windows, and each window is read with the list API
+ * (100 per page, created within the window). Windows run in parallel on the given
+ * executor; every call first takes a permit from the rate limiter. Ids a window did not
+ * turn up within its page budget are retrieved one by one.
+ */
+public class PaymentIntentFetcher {
+
+    private static final long PAGE_SIZE = 100;
+
+    private final StripeGateway stripeGateway;
+    private final ExecutorService executor;
+    private final RateLimiter rateLimiter;
+    private final long slackSeconds;
+
+    private final AtomicLong listCalls = new AtomicLong();
+    private final AtomicLong retrieveCalls = new AtomicLong();
+
+    public PaymentIntentFetcher(StripeGateway stripeGateway, ExecutorService executor,
+                                RateLimiter rateLimiter, long slackSeconds) {
+        this.stripeGateway = stripeGateway;
+        this.executor = executor;
+        this.rateLimiter = rateLimiter;
+        this.slackSeconds = slackSeconds;
+    }
+
+    /**
+     * createdAt: PaymentIntent id -> when our transaction was created (null if unknown).
+     * Returns the PaymentIntents found; ids Stripe does not know are left out.
+     */
+    public Map<String, PaymentIntent> fetch(Map<String, Instant> createdAt) throws StripeException {
+        Map<String, PaymentIntent> found = new ConcurrentHashMap<>();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Window window : windows(createdAt)) {
+            tasks.add(executor.submit(() -> {
+                fetchWindow(window, found);
+                return null;
+            }));
+        }
+
+        StripeException failure = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(t -> t.cancel(true));
+                throw new IllegalStateException("Interrupted while fetching PaymentIntents", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof StripeException se && failure == null) failure = se;
+                else if (e.getCause() instanceof RuntimeException re) throw re;
+            }
+        }
+        if (failure != null) throw failure;
+        return found;
+    }
+
+    public long getListCalls() {
+        return listCalls.get();
+    }
+
+    public long getRetrieveCalls() {
+        return retrieveCalls.get();
+    }
+
+    private void fetchWindow(Window window, Map<String, PaymentIntent> found) throws StripeException, InterruptedException {
+        Set<String> wanted = new HashSet<>(window.ids);
+        if (window.from != null) {
+            // a full window of unrelated PaymentIntents should not turn into an unbounded scan
+            long pageBudget = window.ids.size() / PAGE_SIZE + 2;
+            String startingAfter = null;
+            for (long page = 0; page < pageBudget && !wanted.isEmpty(); page++) {
+                PaymentIntentListParams.Builder params = PaymentIntentListParams.builder()
+                        .setLimit(PAGE_SIZE)
+                        .setCreated(PaymentIntentListParams.Created.builder()
+                                .setGte(window.from.getEpochSecond() - slackSeconds)
+                                .setLte(window.to.getEpochSecond() + slackSeconds)
+                                .build());
+                if (startingAfter != null) params.setStartingAfter(startingAfter);
+
+                rateLimiter.acquire();
+                listCalls.incrementAndGet();
+                StripeCollection<PaymentIntent> result = stripeGateway.listPaymentIntents(params.build());
+                List<PaymentIntent> data = result.getData();
+                for (PaymentIntent pi : data) {
+                    if (wanted.remove(pi.getId())) found.put(pi.getId(), pi);
+                }
+                if (!Boolean.TRUE.equals(result.getHasMore()) || data.isEmpty()) break;
+                startingAfter = data.get(data.size() - 1).getId();
+            }
+        }
+
+        for (String id : wanted) {
+            rateLimiter.acquire();
+            retrieveCalls.incrementAndGet();
+            try {
+                found.put(id, stripeGateway.retrievePaymentIntent(id, null));
+            } catch (InvalidRequestException e) {
+                // no such PaymentIntent: the caller reports it as missing
+                if (e.getStatusCode() == null || e.getStatusCode() != 404) throw e;
+            }
+        }
+    }
+
+    // consecutive creation times closer than twice the slack share a window of at most one page of ids
+    private List<Window> windows(Map<String, Instant> createdAt) {
+        List<Map.Entry<String, Instant>> dated = new ArrayList<>();
+        Window undated = new Window(null);
+        createdAt.forEach((id, at) -> {
+            if (at == null) undated.ids.add(id);
+            else dated.add(Map.entry(id, at));
+        });
+        dated.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+
+        List<Window> windows = new ArrayList<>();
+        Window current = null;
+        for (Map.Entry<String, Instant> e : dated) {
+            if (current == null
+                    || current.ids.size() >= PAGE_SIZE
+                    || e.getValue().getEpochSecond() - current.to.getEpochSecond() > 2 * slackSeconds) {
+                current = new Window(e.getValue());
+                windows.add(current);
+            }
+            current.ids.add(e.getKey());
+            current.to = e.getValue();
+        }
+        if (!undated.ids.isEmpty()) windows.add(undated);
+        return windows;
+    }
+
+    private static final class Window {
+        private final Instant from;
+        private Instant to;
+        private final List<String> ids = new ArrayList<>();
+
+        private Window(Instant from) {
+            this.from = from;
+            this.to = from;
+        }
+    }
+}
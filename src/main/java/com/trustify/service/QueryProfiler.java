@@ -0,0 +1,367 @@
+package com.trustify.service;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.trustify.dto.QueryProfileEntry;
+import com.trustify.util.LatencyHistogram;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mongo driver command listener that keeps per-query-shape latency stats and
+ * samples explain plans in the background to flag collection scans.
+ * Registered on the client in MongoProfilingConfig; report is served at /admin/query-profile.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryProfiler implements CommandListener {
+
+    private static final Set<String> PROFILED_COMMANDS =
+            Set.of("find", "aggregate", "count", "distinct", "findAndModify", "update", "delete", "insert", "getMore");
+    private static final Set<String> EXPLAINABLE_COMMANDS =
+            Set.of("find", "aggregate", "count", "distinct", "findAndModify", "update", "delete");
+    // fields explain does not accept, or that only make sense for the original session
+    private static final Set<String> NON_EXPLAIN_FIELDS =
+            Set.of("lsid", "txnNumber", "autocommit", "startTransaction", "readConcern", "writeConcern",
+                    "apiVersion", "apiStrict", "apiDeprecationErrors");
+    private static final Set<String> RANGE_OPERATORS =
+            Set.of("$gt", "$gte", "$lt", "$lte", "$ne", "$in", "$nin", "$exists", "$regex");
+    private static final BsonString PLACEHOLDER = new BsonString("?");
+    private static final int MAX_IN_FLIGHT = 10_000;
+
+    private final ObjectProvider<MongoTemplate> mongoTemplateProvider;
+
+    @Value("${mongo.profiler.slow-query-ms:100}")
+    private long slowQueryMs;
+
+    @Value("${mongo.profiler.explain-sample-rate:0.01}")
+    private double explainSampleRate;
+
+    @Value("${mongo.profiler.max-shapes:1000}")
+    private int maxShapes;
+
+    private final Map<Integer, StartedCommand> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+    private final LongAdder droppedShapes = new LongAdder();
+
+    // explains are best effort: one worker, small queue, extra samples are dropped
+    private final ThreadPoolExecutor explainExecutor = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64),
+            r -> {
+                Thread t = new Thread(r, "query-profiler-explain");
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String name = event.getCommandName();
+        if (!PROFILED_COMMANDS.contains(name) || inFlight.size() >= MAX_IN_FLIGHT) return;
+
+        BsonDocument command = event.getCommand();
+        String collection = collectionOf(name, command);
+        if (collection == null) return;
+
+        BsonDocument filter = filterOf(name, command);
+        BsonDocument sort = sortOf(name, command);
+        String key = collection + "." + name
+                + (filter != null ? " " + shapeOf(filter).asDocument().toJson() : "")
+                + (sort != null ? " sort " + sort.toJson() : "");
+
+        // the driver releases the command buffer after this callback, so copy only what will be used later
+        ShapeStats known = shapes.get(key);
+        BsonDocument explainTarget = null;
+        if (EXPLAINABLE_COMMANDS.contains(name)) {
+            boolean sample = known == null || known.collectionScan == null
+                    || ThreadLocalRandom.current().nextDouble() < explainSampleRate;
+            if (sample) explainTarget = explainCommand(command);
+        }
+        boolean firstSighting = known == null;
+
+        inFlight.put(event.getRequestId(), new StartedCommand(key, collection, name,
+                firstSighting && filter != null ? filter.clone() : null,
+                firstSighting && sort != null ? sort.clone() : null,
+                event.getDatabaseName(), explainTarget));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        StartedCommand started = inFlight.remove(event.getRequestId());
+        if (started == null) return;
+
+        ShapeStats stats = shapes.get(started.key);
+        if (stats == null) {
+            if (shapes.size() >= maxShapes) {
+                droppedShapes.increment();
+                return;
+            }
+            stats = shapes.computeIfAbsent(started.key, k -> new ShapeStats(started));
+        }
+
+        long micros = event.getElapsedTime(TimeUnit.MICROSECONDS);
+        stats.latency.record(micros);
+        if (micros >= slowQueryMs * 1000) {
+            stats.slowCount.increment();
+            log.debug("Slow Mongo {} on {} took {} ms: {}", started.command, started.collection, micros / 1000.0, started.key);
+        }
+        stats.lastSeenAt = Instant.now();
+
+        if (started.explainTarget != null) {
+            ShapeStats target = stats;
+            explainExecutor.execute(() -> explain(target, started.database, started.explainTarget));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        inFlight.remove(event.getRequestId());
+    }
+
+    public List<QueryProfileEntry> report() {
+        List<QueryProfileEntry> entries = new ArrayList<>();
+        shapes.forEach((key, stats) -> entries.add(QueryProfileEntry.builder()
+                .collection(stats.collection)
+                .command(stats.command)
+                .shape(key)
+                .count(stats.latency.getCount())
+                .slowCount(stats.slowCount.sum())
+                .totalMs(stats.latency.getTotalMillis())
+                .meanMs(stats.latency.getMeanMillis())
+                .p50Ms(stats.latency.percentileMillis(0.50))
+                .p99Ms(stats.latency.percentileMillis(0.99))
+                .maxMs(stats.latency.getMaxMillis())
+                .collectionScan(stats.collectionScan)
+                .winningPlan(stats.winningPlan)
+                .suggestedIndex(Boolean.TRUE.equals(stats.collectionScan) ? stats.suggestedIndex : null)
+                .lastSeenAt(stats.lastSeenAt)
+                .build()));
+
+        entries.sort(Comparator.comparingDouble(QueryProfileEntry::getTotalMs).reversed());
+        return entries;
+    }
+
+    public long getDroppedShapes() {
+        return droppedShapes.sum();
+    }
+
+    public void reset() {
+        shapes.clear();
+        droppedShapes.reset();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explainExecutor.shutdownNow();
+    }
+
+    // ---------- explain sampling ----------
+
+    private void explain(ShapeStats stats, String database, BsonDocument command) {
+        try {
+            BsonDocument explain = new BsonDocument("explain", command)
+                    .append("verbosity", new BsonString("queryPlanner"));
+            Document result = mongoTemplateProvider.getObject()
+                    .getMongoDatabaseFactory()
+                    .getMongoDatabase(database)
+                    .runCommand(explain);
+
+            List<String> stages = new ArrayList<>();
+            collectWinningStages(result, false, stages);
+            if (stages.isEmpty()) return;
+
+            stats.winningPlan = String.join(" > ", stages);
+            stats.collectionScan = stages.stream().anyMatch(stage -> stage.startsWith("COLLSCAN"));
+            if (stats.collectionScan) {
+                log.warn("COLLSCAN plan for {} — consider index {}", stats.key, stats.suggestedIndex);
+            }
+        } catch (Exception e) {
+            log.debug("Explain failed for {}: {}", stats.key, e.getMessage());
+        }
+    }
+
+    // walks the explain output and collects stage names below any winningPlan (rejected plans are ignored)
+    private static void collectWinningStages(Object node, boolean inWinningPlan, List<String> stages) {
+        if (node instanceof Document doc) {
+            if (inWinningPlan && doc.get("stage") instanceof String stage) {
+                stages.add(doc.get("indexName") instanceof String index ? stage + "(" + index + ")" : stage);
+            }
+            doc.forEach((key, value) -> {
+                if ("rejectedPlans".equals(key)) return;
+                collectWinningStages(value, inWinningPlan || "winningPlan".equals(key), stages);
+            });
+        } else if (node instanceof List<?> list) {
+            list.forEach(item -> collectWinningStages(item, inWinningPlan, stages));
+        }
+    }
+
+    private static BsonDocument explainCommand(BsonDocument command) {
+        BsonDocument target = command.clone();
+        target.keySet().removeIf(key -> key.startsWith("$") || NON_EXPLAIN_FIELDS.contains(key));
+        return target;
+    }
+
+    // ---------- command parsing ----------
+
+    private static String collectionOf(String name, BsonDocument command) {
+        BsonValue value = "getMore".equals(name) ? command.get("collection") : command.get(name);
+        return value != null && value.isString() ? value.asString().getValue() : null;
+    }
+
+    private static BsonDocument filterOf(String name, BsonDocument command) {
+        switch (name) {
+            case "find":
+                return documentOrNull(command.get("filter"));
+            case "count":
+            case "distinct":
+            case "findAndModify":
+                return documentOrNull(command.get("query"));
+            case "update":
+                return firstStatementField(command.get("updates"), "q");
+            case "delete":
+                return firstStatementField(command.get("deletes"), "q");
+            case "aggregate": {
+                BsonDocument first = firstPipelineStage(command);
+                if (first == null) return null;
+                if (first.containsKey("$match")) return documentOrNull(first.get("$match"));
+                if (first.containsKey("$geoNear")) return documentOrNull(first.getDocument("$geoNear").get("query"));
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static BsonDocument sortOf(String name, BsonDocument command) {
+        if ("find".equals(name) || "findAndModify".equals(name)) return documentOrNull(command.get("sort"));
+        if ("aggregate".equals(name) && command.get("pipeline") instanceof BsonArray pipeline) {
+            for (BsonValue stage : pipeline) {
+                if (stage.isDocument() && stage.asDocument().containsKey("$sort")) {
+                    return documentOrNull(stage.asDocument().get("$sort"));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static BsonDocument firstPipelineStage(BsonDocument command) {
+        if (command.get("pipeline") instanceof BsonArray pipeline && !pipeline.isEmpty() && pipeline.get(0).isDocument()) {
+            return pipeline.get(0).asDocument();
+        }
+        return null;
+    }
+
+    private static BsonDocument firstStatementField(BsonValue statements, String field) {
+        if (statements instanceof BsonArray array && !array.isEmpty() && array.get(0).isDocument()) {
+            return documentOrNull(array.get(0).asDocument().get(field));
+        }
+        return null;
+    }
+
+    private static BsonDocument documentOrNull(BsonValue value) {
+        return value != null && value.isDocument() ? value.asDocument() : null;
+    }
+
+    // replaces literal values with "?" so queries that differ only in parameters share one entry
+    private static BsonValue shapeOf(BsonValue value) {
+        if (value instanceof BsonDocument doc) {
+            BsonDocument shaped = new BsonDocument();
+            doc.forEach((key, v) -> shaped.put(key, shapeOf(v)));
+            return shaped;
+        }
+        if (value instanceof BsonArray array && !array.isEmpty() && array.get(0).isDocument()) {
+            BsonArray shaped = new BsonArray();
+            array.forEach(v -> shaped.add(shapeOf(v)));
+            return shaped;
+        }
+        return PLACEHOLDER;
+    }
+
+    // Equality, Sort, Range ordering for a compound index that would serve this shape
+    private static String suggestIndex(BsonDocument filter, BsonDocument sort) {
+        Set<String> equality = new LinkedHashSet<>();
+        Set<String> range = new LinkedHashSet<>();
+        if (filter != null) collectPredicateFields(filter, equality, range);
+
+        List<String> keys = new ArrayList<>();
+        equality.forEach(field -> keys.add(field + ": 1"));
+        if (sort != null) {
+            sort.forEach((field, direction) -> {
+                if (!equality.contains(field)) {
+                    keys.add(field + ": " + (direction.isNumber() && direction.asNumber().intValue() < 0 ? -1 : 1));
+                    range.remove(field);
+                }
+            });
+        }
+        range.stream().filter(field -> !equality.contains(field)).forEach(field -> keys.add(field + ": 1"));
+
+        return keys.isEmpty() ? null : "{ " + String.join(", ", keys) + " }";
+    }
+
+    private static void collectPredicateFields(BsonDocument filter, Set<String> equality, Set<String> range) {
+        filter.forEach((field, value) -> {
+            if ("$and".equals(field) && value instanceof BsonArray clauses) {
+                clauses.forEach(clause -> {
+                    if (clause.isDocument()) collectPredicateFields(clause.asDocument(), equality, range);
+                });
+                return;
+            }
+            if (field.startsWith("$")) return; // $or / $text / $expr are not index-prefix friendly
+
+            boolean isRange = value.isDocument()
+                    && value.asDocument().keySet().stream().anyMatch(RANGE_OPERATORS::contains);
+            if (isRange) range.add(field);
+            else equality.add(field);
+        });
+    }
+
+    private record StartedCommand(String key, String collection, String command, BsonDocument filter,
+                                  BsonDocument sort, String database, BsonDocument explainTarget) {
+    }
+
+    private static class ShapeStats {
+        private final String key;
+        private final String collection;
+        private final String command;
+        private final String suggestedIndex;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder slowCount = new LongAdder();
+        private volatile Boolean collectionScan;
+        private volatile String winningPlan;
+        private volatile Instant lastSeenAt;
+
+        ShapeStats(StartedCommand started) {
+            this.key = started.key;
+            this.collection = started.collection;
+            this.command = started.command;
+            this.suggestedIndex = suggestIndex(started.filter, started.sort);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.trustify.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -9,14 +11,17 @@ import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
-public class S3UploadService {
+public class S3UploadService implements ImageStorage {
 
     @Value("${aws.s3.bucket}")
     private String bucketName;
@@ -30,34 +35,30 @@ public class S3UploadService {
     @Value("${AWS_SECRET_ACCESS_KEY}")
     private String secretKey;
 
-    public String uploadFile(MultipartFile file) {
-        try {
-
-            String fileName = UUID.randomUUID() + "_" + file.getOriginalFilename();
-
-            S3Client client = S3Client.builder()
-                    .region(Region.of(region))
-                    .credentialsProvider(
-                            StaticCredentialsProvider.create(
-                                    AwsBasicCredentials.create(accessKey, secretKey)
-                            )
-                    )
-                    .build();
+    // S3Client is thread-safe and owns a connection pool; build it once instead of per upload
+    private S3Client client;
 
-            PutObjectRequest putObject = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(fileName)
-                    .contentType(file.getContentType())
-                    .acl("public-read")
-                    .build();
-
-            client.putObject(
-                    putObject,
-                    RequestBody.fromBytes(file.getBytes())
-            );
+    @PostConstruct
+    void init() {
+        client = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(
+                        StaticCredentialsProvider.create(
+                                AwsBasicCredentials.create(accessKey, secretKey)
+                        )
+                )
+                .build();
+    }
 
-            return "https://" + bucketName + ".s3." + region + ".amazonaws.com/" + fileName;
+    @PreDestroy
+    void close() {
+        if (client != null) client.close();
+    }
 
+    // Returns null on failure (callers that need the error use upload())
+    public String uploadFile(MultipartFile file) {
+        try {
+            return upload(file);
         } catch (Exception e) {
            // throw new RuntimeException("Failed to upload image to S3", e);
             e.printStackTrace();
@@ -65,4 +66,63 @@ public class S3UploadService {
         }
     }
 
+    @Override
+    public String upload(MultipartFile file) throws IOException {
+        String fileName = UUID.randomUUID() + "_" + file.getOriginalFilename();
+
+        PutObjectRequest putObject = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileName)
+                .contentType(file.getContentType())
+                .acl("public-read")
+                .build();
+
+        // streamed from the multipart temp file; the image is never held in memory as a byte[]
+        try (InputStream in = file.getInputStream()) {
+            client.putObject(putObject, RequestBody.fromInputStream(in, file.getSize()));
+        }
+
+        return urlFor(fileName);
+    }
+
+    @Override
+    public String store(String key, byte[] content, String contentType) {
+        PutObjectRequest putObject = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .cacheControl("public, max-age=31536000, immutable")
+                .acl("public-read")
+                .build();
+        client.putObject(putObject, RequestBody.fromBytes(content));
+        return urlFor(key);
+    }
+
+    @Override
+    public InputStream open(String url) throws IOException {
+        String key = keyOf(url);
+        if (key == null) throw new IOException("Not an object of bucket " + bucketName + ": " + url);
+        return client.getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build());
+    }
+
+    @Override
+    public void delete(String url) {
+        String key = keyOf(url);
+        if (key == null) return;
+
+        client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+    }
+
+    private String keyOf(String url) {
+        String prefix = urlFor("");
+        return url != null && url.startsWith(prefix) ? url.substring(prefix.length()) : null;
+    }
+
+    private String urlFor(String key) {
+        return "https://" + bucketName + ".s3." + region + ".amazonaws.com/" + key;
+    }
+
 }
@@ -0,0 +1,227 @@
+package com.trustify.service;
+
+import com.stripe.Stripe;
+import com.stripe.StripeClient;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.StripeCollection;
+import com.stripe.model.Transfer;
+import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeResponseGetterOptions;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentConfirmParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentIntentListParams;
+import com.stripe.param.PaymentIntentRetrieveParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.trustify.exception.StripeUnavailableException;
+import com.trustify.util.CircuitBreaker;
+import com.trustify.util.LatencyHistogram;
+import com.trustify.util.PooledStripeHttpClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StripeGateway on an instance StripeClient, so nothing depends on the global
+ * Stripe.apiKey and networking is configured here rather than per call site.
+ *
+ * Every call goes through, in order:
+ * - a circuit breaker that fails fast while Stripe keeps failing (connection errors,
+ *   timeouts, 429 and 5xx count; declines and invalid requests do not),
+ * - a bulkhead: at most max-concurrent calls in flight, a caller waits bulkhead-wait-ms
+ *   for a slot and is then turned away, so a slow Stripe cannot take every Tomcat thread,
+ * - a deadline: reads time out after read-timeout-ms, money-moving calls after
+ *   write-timeout-ms.
+ * Latency is recorded per operation.
+ */
+@Slf4j
+@Service
+public class StripeApiGateway implements StripeGateway {
+
+    private final StripeClient client;
+    private final Semaphore bulkhead;
+    private final int maxConcurrent;
+    private final long bulkheadWaitMillis;
+    private final CircuitBreaker breaker;
+    private final int readTimeoutMillis;
+    private final int writeTimeoutMillis;
+
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<String, Long> bulkheadRejected = new ConcurrentHashMap<>();
+
+    public StripeApiGateway(@Value("${STRIPE_SECRET_KEY}") String apiKey,
+                            @Value("${stripe.client.api-base:" + Stripe.LIVE_API_BASE + "}") String apiBase,
+                            @Value("${stripe.client.connect-timeout-ms:5000}") int connectTimeoutMillis,
+                            @Value("${stripe.client.read-timeout-ms:10000}") int readTimeoutMillis,
+                            @Value("${stripe.client.write-timeout-ms:30000}") int writeTimeoutMillis,
+                            @Value("${stripe.client.max-network-retries:1}") int maxNetworkRetries,
+                            @Value("${stripe.client.max-concurrent:32}") int maxConcurrent,
+                            @Value("${stripe.client.bulkhead-wait-ms:250}") long bulkheadWaitMillis,
+                            @Value("${stripe.client.breaker.window-size:50}") int windowSize,
+                            @Value("${stripe.client.breaker.minimum-calls:20}") int minimumCalls,
+                            @Value("${stripe.client.breaker.failure-rate:0.5}") double failureRate,
+                            @Value("${stripe.client.breaker.open-ms:30000}") long openMillis,
+                            @Value("${stripe.client.breaker.half-open-calls:3}") int halfOpenCalls) {
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.maxConcurrent = maxConcurrent;
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.bulkheadWaitMillis = bulkheadWaitMillis;
+        this.breaker = new CircuitBreaker(windowSize, minimumCalls, failureRate, openMillis, halfOpenCalls);
+
+        StripeResponseGetterOptions options = new StripeResponseGetterOptions() {
+            @Override public String getApiKey() { return apiKey; }
+            @Override public String getClientId() { return null; }
+            @Override public int getConnectTimeout() { return connectTimeoutMillis; }
+            @Override public int getReadTimeout() { return readTimeoutMillis; }
+            @Override public int getMaxNetworkRetries() { return maxNetworkRetries; }
+            @Override public Proxy getConnectionProxy() { return null; }
+            @Override public PasswordAuthentication getProxyCredential() { return null; }
+            @Override public String getApiBase() { return apiBase; }
+            @Override public String getFilesBase() { return Stripe.UPLOAD_API_BASE; }
+            @Override public String getConnectBase() { return Stripe.CONNECT_API_BASE; }
+        };
+        PooledStripeHttpClient httpClient = new PooledStripeHttpClient(
+                Duration.ofMillis(connectTimeoutMillis), Duration.ofMillis(readTimeoutMillis));
+        this.client = new StripeClient(new LiveStripeResponseGetter(options, httpClient));
+    }
+
+    @Override
+    public PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, String idempotencyKey) throws StripeException {
+        return call("paymentIntents.create",
+                () -> client.paymentIntents().create(params, options(writeTimeoutMillis, idempotencyKey)));
+    }
+
+    @Override
+    public PaymentIntent retrievePaymentIntent(String id, PaymentIntentRetrieveParams params) throws StripeException {
+        return call("paymentIntents.retrieve",
+                () -> client.paymentIntents().retrieve(id, params, options(readTimeoutMillis, null)));
+    }
+
+    @Override
+    public StripeCollection<PaymentIntent> listPaymentIntents(PaymentIntentListParams params) throws StripeException {
+        return call("paymentIntents.list",
+                () -> client.paymentIntents().list(params, options(readTimeoutMillis, null)));
+    }
+
+    @Override
+    public PaymentIntent capturePaymentIntent(String id, PaymentIntentCaptureParams params, String idempotencyKey) throws StripeException {
+        return call("paymentIntents.capture",
+                () -> client.paymentIntents().capture(id, params, options(writeTimeoutMillis, idempotencyKey)));
+    }
+
+    @Override
+    public PaymentIntent confirmPaymentIntent(String id, PaymentIntentConfirmParams params, String idempotencyKey) throws StripeException {
+        return call("paymentIntents.confirm",
+                () -> client.paymentIntents().confirm(id, params, options(writeTimeoutMillis, idempotencyKey)));
+    }
+
+    @Override
+    public Refund createRefund(RefundCreateParams params, String idempotencyKey) throws StripeException {
+        return call("refunds.create",
+                () -> client.refunds().create(params, options(writeTimeoutMillis, idempotencyKey)));
+    }
+
+    @Override
+    public Transfer createTransfer(TransferCreateParams params, String idempotencyKey) throws StripeException {
+        return call("transfers.create",
+                () -> client.transfers().create(params, options(writeTimeoutMillis, idempotencyKey)));
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> operations = new TreeMap<>();
+        latency.forEach((op, histogram) -> operations.put(op, Map.of(
+                "count", histogram.getCount(),
+                "meanMs", histogram.getMeanMillis(),
+                "p50Ms", histogram.percentileMillis(0.50),
+                "p99Ms", histogram.percentileMillis(0.99),
+                "maxMs", histogram.getMaxMillis(),
+                "bulkheadRejected", bulkheadRejected.getOrDefault(op, 0L))));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("circuit", breaker.getState());
+        stats.put("failureRate", breaker.getFailureRate());
+        stats.put("circuitOpened", breaker.getOpened());
+        stats.put("circuitRejected", breaker.getRejected());
+        stats.put("inFlight", maxConcurrent - bulkhead.availablePermits());
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("operations", operations);
+        return stats;
+    }
+
+    private static RequestOptions options(int timeoutMillis, String idempotencyKey) {
+        RequestOptions.RequestOptionsBuilder options = RequestOptions.builder().setReadTimeout(timeoutMillis);
+        if (idempotencyKey != null) options.setIdempotencyKey(idempotencyKey);
+        return options.build();
+    }
+
+    private <T> T call(String operation, StripeCall<T> call) throws StripeException {
+        long generation = breaker.acquire();
+        if (generation < 0) {
+            throw new StripeUnavailableException("Payment provider is unavailable, please retry shortly");
+        }
+
+        boolean permitted;
+        try {
+            permitted = bulkhead.tryAcquire(bulkheadWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        if (!permitted) {
+            breaker.onSkipped(generation);
+            bulkheadRejected.merge(operation, 1L, Long::sum);
+            throw new StripeUnavailableException("Too many payment requests in progress, please retry shortly");
+        }
+
+        long started = System.nanoTime();
+        try {
+            T result = call.run();
+            breaker.onSuccess(generation);
+            return result;
+        } catch (StripeException e) {
+            if (isOutage(e)) {
+                breaker.onFailure(generation);
+                log.warn("Stripe {} failed: {}", operation, e.getMessage());
+            } else {
+                // Stripe answered; a decline or bad request says nothing about its health
+                breaker.onSuccess(generation);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.onFailure(generation);
+            throw e;
+        } finally {
+            bulkhead.release();
+            latency.computeIfAbsent(operation, op -> new LatencyHistogram())
+                    .record((System.nanoTime() - started) / 1_000);
+        }
+    }
+
+    private static boolean isOutage(StripeException e) {
+        if (e instanceof ApiConnectionException || e instanceof RateLimitException) return true;
+        return e.getStatusCode() != null && e.getStatusCode() >= 500;
+    }
+
+    @FunctionalInterface
+    private interface StripeCall<T> {
+        T run() throws StripeException;
+    }
+}
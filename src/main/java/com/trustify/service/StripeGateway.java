@@ -0,0 +1,44 @@
+package com.trustify.service;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.StripeCollection;
+import com.stripe.model.Transfer;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentConfirmParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.PaymentIntentListParams;
+import com.stripe.param.PaymentIntentRetrieveParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+
+import java.util.Map;
+
+/**
+ * The Stripe calls the escrow flow makes. StripeApiGateway is the real one; tests can
+ * put a fake in its place.
+ *
+ * idempotencyKey may be null. When Stripe is unavailable (circuit open, too many calls
+ * in flight) the methods throw StripeUnavailableException instead of waiting.
+ */
+public interface StripeGateway {
+
+    PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, String idempotencyKey) throws StripeException;
+
+    PaymentIntent retrievePaymentIntent(String id, PaymentIntentRetrieveParams params) throws StripeException;
+
+    /** One page; pass the last id as starting_after for the next one. */
+    StripeCollection<PaymentIntent> listPaymentIntents(PaymentIntentListParams params) throws StripeException;
+
+    PaymentIntent capturePaymentIntent(String id, PaymentIntentCaptureParams params, String idempotencyKey) throws StripeException;
+
+    PaymentIntent confirmPaymentIntent(String id, PaymentIntentConfirmParams params, String idempotencyKey) throws StripeException;
+
+    Refund createRefund(RefundCreateParams params, String idempotencyKey) throws StripeException;
+
+    Transfer createTransfer(TransferCreateParams params, String idempotencyKey) throws StripeException;
+
+    /** Circuit state, bulkhead usage and per-operation latency. */
+    Map<String, Object> stats();
+}
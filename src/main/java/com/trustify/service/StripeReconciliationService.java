@@ -0,0 +1,404 @@
+package com.trustify.service;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.PaymentIntent;
+import com.trustify.model.OutboxMessage;
+import com.trustify.model.PaymentEvent;
+import com.trustify.model.ReconciliationCheckpoint;
+import com.trustify.model.ReconciliationIssue;
+import com.trustify.model.TimelineLog;
+import com.trustify.model.Transaction;
+import com.trustify.model.Transaction.TransactionStatus;
+import com.trustify.util.RateLimiter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.trustify.model.Transaction.TransactionStatus.*;
+
+/**
+ * Compares transactions with their Stripe PaymentIntents.
+ *
+ * A run reads transactions in chunks: first those changed since the checkpoint, in
+ * (updatedAt, _id) order, then the still-open ones (PENDING, AUTHORIZED, PENDING_RELEASE)
+ * that did not change, because a missed webhook is exactly a change we never saw. Every
+ * checked transaction gets lastReconciledAt, and an open one is only checked again once
+ * that is older than recheck-open-seconds, so a run does not re-fetch all of them. The
+ * PaymentIntents of a chunk are fetched by PaymentIntentFetcher. Differences a missed
+ * webhook explains are repaired through the same transitions the webhook would have
+ * made; everything else is recorded in reconciliation_issues for a person to look at.
+ * The checkpoint moves after every chunk, so an interrupted run resumes where it stopped.
+ */
+@Slf4j
+@Service
+public class StripeReconciliationService {
+
+    private static final String CHECKPOINT_ID = "stripe-payment-intents";
+    private static final String ACTOR = "RECONCILER";
+
+    // Stripe should still hold the money (authorized, not captured)
+    private static final Set<TransactionStatus> HELD_LOCALLY = EnumSet.of(PENDING, AUTHORIZED, HELD, PENDING_RELEASE, MANUAL_REVIEW);
+    // Stripe should have captured it
+    private static final Set<TransactionStatus> CAPTURED_LOCALLY = EnumSet.of(RELEASED, PARTIALLY_RELEASED, DELIVERED_AUTO);
+    private static final Set<TransactionStatus> OPEN = EnumSet.of(PENDING, AUTHORIZED, PENDING_RELEASE);
+
+    private final MongoTemplate mongoTemplate;
+    private final StripeGateway stripeGateway;
+    private final EscrowStateMachine escrowStateMachine;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService fetchers;
+    private final int chunkSize;
+    private final long slackSeconds;
+    private final long settleSeconds;
+    private final long recheckOpenSeconds;
+    private final boolean repair;
+
+    public StripeReconciliationService(MongoTemplate mongoTemplate,
+                                       StripeGateway stripeGateway,
+                                       EscrowStateMachine escrowStateMachine,
+                                       @Value("${stripe.reconcile.chunk-size:200}") int chunkSize,
+                                       @Value("${stripe.reconcile.parallelism:4}") int parallelism,
+                                       @Value("${stripe.reconcile.requests-per-second:20}") double requestsPerSecond,
+                                       @Value("${stripe.reconcile.window-slack-seconds:600}") long slackSeconds,
+                                       @Value("${stripe.reconcile.settle-seconds:300}") long settleSeconds,
+                                       @Value("${stripe.reconcile.recheck-open-seconds:3600}") long recheckOpenSeconds,
+                                       @Value("${stripe.reconcile.repair:true}") boolean repair) {
+        this.mongoTemplate = mongoTemplate;
+        this.stripeGateway = stripeGateway;
+        this.escrowStateMachine = escrowStateMachine;
+        this.chunkSize = chunkSize;
+        this.slackSeconds = slackSeconds;
+        this.settleSeconds = settleSeconds;
+        this.recheckOpenSeconds = recheckOpenSeconds;
+        this.repair = repair;
+        this.rateLimiter = new RateLimiter(requestsPerSecond, parallelism);
+        AtomicInteger threads = new AtomicInteger();
+        this.fetchers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "stripe-reconcile-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Scheduled(initialDelayString = "${stripe.reconcile.initial-delay-ms:300000}",
+            fixedDelayString = "${stripe.reconcile.interval-ms:900000}")
+    public void scheduledRun() {
+        try {
+            run(false);
+        } catch (Exception e) {
+            // the checkpoint holds the progress made; the next run continues from there
+            log.warn("Stripe reconciliation stopped: {}", e.getMessage());
+        }
+    }
+
+    /** full ignores the checkpoint and checks every transaction that has a PaymentIntent. */
+    public synchronized Map<String, Object> run(boolean full) throws StripeException {
+        Instant started = Instant.now();
+        // later changes may still have their webhooks in flight
+        Instant horizon = started.minusSeconds(settleSeconds);
+        ReconciliationCheckpoint checkpoint = mongoTemplate.findById(CHECKPOINT_ID, ReconciliationCheckpoint.class);
+        Instant checkpointAt = full || checkpoint == null ? null : checkpoint.getLastUpdatedAt();
+        String checkpointId = full || checkpoint == null ? null : checkpoint.getLastTransactionId();
+
+        Report report = new Report(full || checkpointAt == null ? "full" : "incremental");
+        PaymentIntentFetcher fetcher = new PaymentIntentFetcher(stripeGateway, fetchers, rateLimiter, slackSeconds);
+
+        Instant afterUpdatedAt = checkpointAt;
+        String afterId = checkpointId;
+        List<Transaction> chunk;
+        do {
+            chunk = changedAfter(afterUpdatedAt, afterId, horizon);
+            if (chunk.isEmpty()) break;
+            reconcile(chunk, fetcher, report);
+            Transaction last = chunk.get(chunk.size() - 1);
+            afterUpdatedAt = last.getUpdatedAt();
+            afterId = last.getId();
+            saveCheckpoint(afterUpdatedAt, afterId);
+        } while (chunk.size() == chunkSize);
+
+        if (checkpointAt != null) {
+            Instant checkedBefore = started.minusSeconds(recheckOpenSeconds);
+            String afterOpenId = null;
+            do {
+                chunk = openUnchangedSince(checkpointAt, checkedBefore, afterOpenId);
+                if (chunk.isEmpty()) break;
+                reconcile(chunk, fetcher, report);
+                afterOpenId = chunk.get(chunk.size() - 1).getId();
+            } while (chunk.size() == chunkSize);
+        }
+
+        report.listCalls = fetcher.getListCalls();
+        report.retrieveCalls = fetcher.getRetrieveCalls();
+        report.tookMs = Instant.now().toEpochMilli() - started.toEpochMilli();
+        Map<String, Object> result = report.toMap();
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(CHECKPOINT_ID)),
+                new Update().set("lastRunAt", started).set("lastReport", result),
+                ReconciliationCheckpoint.class);
+
+        if (report.flagged > 0 || report.repaired > 0) {
+            log.warn("Stripe reconciliation: {}", result);
+        }
+        return result;
+    }
+
+    public ReconciliationCheckpoint lastRun() {
+        return mongoTemplate.findById(CHECKPOINT_ID, ReconciliationCheckpoint.class);
+    }
+
+    public List<ReconciliationIssue> openIssues(int limit) {
+        Query query = new Query(Criteria.where("repaired").is(false))
+                .with(Sort.by(Sort.Direction.DESC, "detectedAt"))
+                .limit(Math.max(1, Math.min(limit, 500)));
+        return mongoTemplate.find(query, ReconciliationIssue.class);
+    }
+
+    private List<Transaction> changedAfter(Instant updatedAt, String id, Instant horizon) {
+        List<Criteria> criteria = new ArrayList<>();
+        criteria.add(Criteria.where("stripePaymentIntentId").ne(null));
+        criteria.add(Criteria.where("updatedAt").lte(horizon));
+        if (updatedAt != null) {
+            // (updatedAt > v) OR (updatedAt == v AND _id > id)
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("updatedAt").gt(updatedAt),
+                    Criteria.where("updatedAt").is(updatedAt).and("_id").gt(objectId(id))));
+        }
+        Query query = new Query(new Criteria().andOperator(criteria))
+                .with(Sort.by(Sort.Direction.ASC, "updatedAt").and(Sort.by(Sort.Direction.ASC, "_id")))
+                .limit(chunkSize);
+        return mongoTemplate.find(query, Transaction.class);
+    }
+
+    private List<Transaction> openUnchangedSince(Instant checkpointAt, Instant checkedBefore, String afterId) {
+        Criteria criteria = Criteria.where("status").in(OPEN)
+                // never checked, or not since checkedBefore
+                .and("lastReconciledAt").not().gte(checkedBefore)
+                .and("stripePaymentIntentId").ne(null)
+                .and("updatedAt").lte(checkpointAt);
+        if (afterId != null) criteria.and("_id").gt(objectId(afterId));
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(chunkSize);
+        return mongoTemplate.find(query, Transaction.class);
+    }
+
+    private void reconcile(List<Transaction> chunk, PaymentIntentFetcher fetcher, Report report) throws StripeException {
+        Map<String, Instant> createdAt = new LinkedHashMap<>();
+        chunk.forEach(tx -> createdAt.put(tx.getStripePaymentIntentId(), tx.getCreatedAt()));
+        Map<String, PaymentIntent> intents = fetcher.fetch(createdAt);
+        Set<String> captureLogged = captureEventsOf(chunk);
+
+        Instant now = Instant.now();
+        List<ReconciliationIssue> issues = new ArrayList<>();
+        List<String> clean = new ArrayList<>();
+        for (Transaction tx : chunk) {
+            report.checked++;
+            List<ReconciliationIssue> found = compare(tx, intents.get(tx.getStripePaymentIntentId()),
+                    captureLogged.contains(tx.getId()), now);
+            if (found.isEmpty()) {
+                report.matched++;
+                clean.add(tx.getId());
+                continue;
+            }
+            for (ReconciliationIssue issue : found) {
+                if (repair && repair(tx, issue)) {
+                    issue.setRepaired(true);
+                    report.repaired++;
+                } else {
+                    report.flagged++;
+                }
+                report.byKind.merge(issue.getKind(), 1, Integer::sum);
+                issues.add(issue);
+            }
+        }
+
+        if (!issues.isEmpty()) {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ReconciliationIssue.class);
+            issues.forEach(issue -> bulk.replaceOne(new Query(Criteria.where("_id").is(issue.getId())), issue,
+                    FindAndReplaceOptions.options().upsert()));
+            bulk.execute();
+        }
+        if (!clean.isEmpty()) {
+            // those transactions agree with Stripe again
+            mongoTemplate.remove(new Query(Criteria.where("transactionId").in(clean).and("repaired").is(false)),
+                    ReconciliationIssue.class);
+        }
+        // a plain update, so neither updatedAt nor the version moves and the changed sweep does not see it again
+        mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(chunk.stream().map(Transaction::getId).toList())),
+                new Update().set("lastReconciledAt", now), Transaction.class);
+    }
+
+    /**
+     * What differs between a transaction and its PaymentIntent (null when Stripe does not
+     * know it). captureLogged tells whether payment_events has its CAPTURED event.
+     */
+    static List<ReconciliationIssue> compare(Transaction tx, PaymentIntent pi, boolean captureLogged, Instant now) {
+        List<ReconciliationIssue> issues = new ArrayList<>();
+        TransactionStatus local = tx.getStatus();
+        if (pi == null) {
+            issues.add(issue(tx, null, ReconciliationIssue.Kind.MISSING_IN_STRIPE, "No such PaymentIntent", now));
+            return issues;
+        }
+
+        switch (pi.getStatus()) {
+            case "canceled" -> {
+                if (HELD_LOCALLY.contains(local)) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.MISSED_CANCELLATION, "Cancelled in Stripe", now));
+                } else if (CAPTURED_LOCALLY.contains(local)) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.NOT_CAPTURED_IN_STRIPE, "Cancelled in Stripe, released here", now));
+                }
+            }
+            case "succeeded" -> {
+                if (HELD_LOCALLY.contains(local)) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.CAPTURED_ONLY_IN_STRIPE, "Captured in Stripe, still held here", now));
+                } else if (local == CANCELLED) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.NOT_CANCELLED_IN_STRIPE, "Captured in Stripe, cancelled here", now));
+                } else if (CAPTURED_LOCALLY.contains(local)) {
+                    if (!Objects.equals(pi.getAmountReceived(), tx.getAmountCapturedCents())) {
+                        issues.add(issue(tx, pi, ReconciliationIssue.Kind.AMOUNT_MISMATCH, "Captured amounts differ", now));
+                    }
+                    // an event still waiting in the outbox is not missing
+                    boolean relayPending = tx.getOutbox() != null && !tx.getOutbox().isEmpty();
+                    if (!captureLogged && !relayPending) {
+                        issues.add(issue(tx, pi, ReconciliationIssue.Kind.MISSING_PAYMENT_EVENT, "No CAPTURED payment event", now));
+                    }
+                }
+            }
+            default -> {
+                // not captured and not cancelled: authorized, or still waiting on the buyer
+                if ("requires_capture".equals(pi.getStatus()) && local == PENDING) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.MISSED_AUTHORIZATION, "Authorized in Stripe", now));
+                } else if (CAPTURED_LOCALLY.contains(local)) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.NOT_CAPTURED_IN_STRIPE, "Not captured in Stripe, released here", now));
+                } else if (local == CANCELLED) {
+                    issues.add(issue(tx, pi, ReconciliationIssue.Kind.NOT_CANCELLED_IN_STRIPE, "Still open in Stripe, cancelled here", now));
+                }
+            }
+        }
+        return issues;
+    }
+
+    // the transitions the missed webhooks would have made; false when the transaction moved on meanwhile
+    private boolean repair(Transaction tx, ReconciliationIssue issue) {
+        return switch (issue.getKind()) {
+            case MISSED_CANCELLATION -> escrowStateMachine.transition(tx.getId(), EscrowTransition.CANCEL_BY_STRIPE)
+                    .guard(Criteria.where("status").is(tx.getStatus()), "Transaction changed")
+                    .emit(OutboxMessage.paymentEvent("RECONCILED_PI_CANCELLED", ACTOR, tx.getStripePaymentIntentId()),
+                            OutboxMessage.timeline(
+                                    null,
+                                    "SYSTEM",
+                                    "Payment cancellation found in Stripe by reconciliation",
+                                    TimelineLog.ActionType.TRANSACTION_COMPLETED,
+                                    TimelineLog.ActorType.SYSTEM
+                            ))
+                    .applyIfAllowed() != null;
+            case MISSED_AUTHORIZATION -> escrowStateMachine.transition(tx.getId(), EscrowTransition.AUTHORIZE)
+                    .guard(Criteria.where("status").is(tx.getStatus()), "Transaction changed")
+                    .emit(OutboxMessage.paymentEvent("RECONCILED_PI_SUCCEEDED", ACTOR, tx.getStripePaymentIntentId()),
+                            OutboxMessage.timeline(
+                                    null,
+                                    "SYSTEM",
+                                    "Payment authorization found in Stripe by reconciliation",
+                                    TimelineLog.ActionType.PAYMENT_AUTHORIZED,
+                                    TimelineLog.ActorType.SYSTEM
+                            ))
+                    .applyIfAllowed() != null;
+            default -> false;
+        };
+    }
+
+    private Set<String> captureEventsOf(List<Transaction> chunk) {
+        List<String> captured = chunk.stream()
+                .filter(tx -> CAPTURED_LOCALLY.contains(tx.getStatus()))
+                .map(Transaction::getId)
+                .toList();
+        if (captured.isEmpty()) return Set.of();
+        Query query = new Query(Criteria.where("transactionId").in(captured).and("type").is("CAPTURED"));
+        return new HashSet<>(mongoTemplate.findDistinct(query, "transactionId", PaymentEvent.class, String.class));
+    }
+
+    private void saveCheckpoint(Instant updatedAt, String transactionId) {
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(CHECKPOINT_ID)),
+                new Update().set("lastUpdatedAt", updatedAt).set("lastTransactionId", transactionId),
+                ReconciliationCheckpoint.class);
+    }
+
+    private static Object objectId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    private static ReconciliationIssue issue(Transaction tx, PaymentIntent pi, ReconciliationIssue.Kind kind,
+                                             String detail, Instant now) {
+        return ReconciliationIssue.builder()
+                .id(ReconciliationIssue.idFor(tx.getId(), kind))
+                .transactionId(tx.getId())
+                .paymentIntentId(tx.getStripePaymentIntentId())
+                .kind(kind)
+                .localStatus(tx.getStatus())
+                .stripeStatus(pi != null ? pi.getStatus() : null)
+                .localAmountCents(tx.getAmountCapturedCents() != null ? tx.getAmountCapturedCents() : tx.getAmountCents())
+                .stripeAmountCents(pi != null ? (pi.getAmountReceived() != null && pi.getAmountReceived() > 0
+                        ? pi.getAmountReceived() : pi.getAmount()) : null)
+                .detail(detail)
+                .detectedAt(now)
+                .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        fetchers.shutdownNow();
+    }
+
+    private static final class Report {
+        private final String mode;
+        private int checked;
+        private int matched;
+        private int repaired;
+        private int flagged;
+        private final Map<ReconciliationIssue.Kind, Integer> byKind = new EnumMap<>(ReconciliationIssue.Kind.class);
+        private long listCalls;
+        private long retrieveCalls;
+        private long tookMs;
+
+        private Report(String mode) {
+            this.mode = mode;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("mode", mode);
+            map.put("checked", checked);
+            map.put("matched", matched);
+            map.put("repaired", repaired);
+            map.put("flagged", flagged);
+            Map<String, Integer> kinds = new LinkedHashMap<>();
+            byKind.forEach((kind, n) -> kinds.put(kind.name(), n));
+            map.put("byKind", kinds);
+            map.put("stripeListCalls", listCalls);
+            map.put("stripeRetrieveCalls", retrieveCalls);
+            map.put("tookMs", tookMs);
+            return map;
+        }
+    }
+}
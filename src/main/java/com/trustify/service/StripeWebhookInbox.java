@@ -0,0 +1,317 @@
+package com.trustify.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.stripe.model.Event;
+import com.trustify.model.WebhookEvent;
+import com.trustify.repository.WebhookEventRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable inbox for Stripe webhooks.
+ *
+ * The webhook request only appends the verified event to stripe_webhook_events (the
+ * Stripe event id is the _id, so redeliveries are dropped by the unique key) and hands
+ * it to a lane; the HTTP response does not wait for any processing.
+ *
+ * Lanes are single-threaded executors picked by PaymentIntent id, so events of one
+ * PaymentIntent run in order on this instance. Across instances and retries, an event
+ * is held back while an earlier event of the same PaymentIntent is unfinished. Failures
+ * are retried with exponential backoff and end up DEAD after max-attempts; anything a
+ * lane could not take, or a crashed worker left behind, is picked up by the poller.
+ * Finished events are kept for retention-days, then removed by a TTL index.
+ */
+@Slf4j
+@Service
+public class StripeWebhookInbox {
+
+    private static final List<String> HANDLED = List.of(
+            "payment_intent.succeeded",
+            "payment_intent.amount_capturable_updated",
+            "payment_intent.canceled");
+    private static final int POLL_BATCH = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final WebhookEventRepository webhookEventRepository;
+    private final TransactionService transactionService;
+    private final int maxAttempts;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final Duration lease;
+    private final Duration retention;
+
+    private final ThreadPoolExecutor[] lanes;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    public StripeWebhookInbox(MongoTemplate mongoTemplate,
+                              WebhookEventRepository webhookEventRepository,
+                              TransactionService transactionService,
+                              @Value("${stripe.webhooks.lanes:8}") int laneCount,
+                              @Value("${stripe.webhooks.lane-queue-size:1000}") int laneQueueSize,
+                              @Value("${stripe.webhooks.max-attempts:8}") int maxAttempts,
+                              @Value("${stripe.webhooks.backoff-base-ms:2000}") long backoffBaseMillis,
+                              @Value("${stripe.webhooks.backoff-max-ms:600000}") long backoffMaxMillis,
+                              @Value("${stripe.webhooks.lease-seconds:120}") long leaseSeconds,
+                              @Value("${stripe.webhooks.retention-days:30}") long retentionDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.webhookEventRepository = webhookEventRepository;
+        this.transactionService = transactionService;
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.retention = Duration.ofDays(retentionDays);
+
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "stripe-webhook-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(laneQueueSize),
+                    r -> {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    /** Stores a verified event; false when it is a redelivery of one already stored. */
+    public boolean append(Event event, String payload) {
+        String type = event.getType();
+        boolean handled = HANDLED.contains(type);
+        Instant now = Instant.now();
+
+        WebhookEvent inbox = WebhookEvent.builder()
+                .id(event.getId())
+                .type(type)
+                .objectId(handled ? paymentIntentId(event) : event.getId())
+                .stripeCreated(event.getCreated())
+                .payload(payload)
+                .status(handled ? WebhookEvent.Status.RECEIVED : WebhookEvent.Status.IGNORED)
+                // the poller only takes RECEIVED events a lane has not picked up by then
+                .nextAttemptAt(now.plusSeconds(30))
+                .receivedAt(now)
+                .processedAt(handled ? null : now)
+                .expiresAt(handled ? null : now.plus(retention))
+                .build();
+        try {
+            mongoTemplate.insert(inbox);
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+        if (handled) dispatch(inbox.getId(), inbox.getObjectId());
+        return true;
+    }
+
+    // object id from the raw JSON, so an API version the SDK cannot bind still yields it
+    private static String paymentIntentId(Event event) {
+        JsonObject object = JsonParser.parseString(event.getDataObjectDeserializer().getRawJson()).getAsJsonObject();
+        JsonElement id = "payment_intent".equals(string(object, "object")) ? object.get("id") : object.get("payment_intent");
+        return id != null && !id.isJsonNull() ? id.getAsString() : event.getId();
+    }
+
+    private static String string(JsonObject object, String member) {
+        JsonElement e = object.get(member);
+        return e != null && !e.isJsonNull() ? e.getAsString() : null;
+    }
+
+    private void dispatch(String eventId, String objectId) {
+        if (!queued.add(eventId)) return;
+        ThreadPoolExecutor lane = lanes[Math.floorMod(objectId.hashCode(), lanes.length)];
+        try {
+            lane.execute(() -> {
+                try {
+                    process(eventId);
+                } finally {
+                    queued.remove(eventId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(eventId);
+            log.debug("Webhook lane full, event {} left for the poller", eventId);
+        }
+    }
+
+    void process(String eventId) {
+        Instant now = Instant.now();
+        WebhookEvent event = claim(eventId, now);
+        if (event == null) return; // done, not due, or leased by another worker
+
+        WebhookEvent predecessor = unfinishedPredecessor(event);
+        if (predecessor != null) {
+            // not an attempt: wait for the earlier event of this PaymentIntent, and no longer
+            // than it does when it is backing off itself, so the poller does not spin on this one
+            Instant wake = now.plusSeconds(1);
+            if (predecessor.getStatus() == WebhookEvent.Status.RETRY && predecessor.getNextAttemptAt() != null
+                    && predecessor.getNextAttemptAt().plusSeconds(1).isAfter(wake)) {
+                wake = predecessor.getNextAttemptAt().plusSeconds(1);
+            }
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(eventId)),
+                    new Update()
+                            .set("status", WebhookEvent.Status.RETRY)
+                            .set("nextAttemptAt", wake)
+                            .unset("lockedUntil"),
+                    WebhookEvent.class);
+            return;
+        }
+
+        try {
+            handle(event);
+            Instant processedAt = Instant.now();
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(eventId)),
+                    new Update()
+                            .set("status", WebhookEvent.Status.PROCESSED)
+                            .set("processedAt", processedAt)
+                            .set("expiresAt", processedAt.plus(retention))
+                            .inc("attempts", 1)
+                            .unset("lockedUntil")
+                            .unset("lastError"),
+                    WebhookEvent.class);
+        } catch (Exception e) {
+            int attempts = event.getAttempts() + 1;
+            boolean dead = attempts >= maxAttempts;
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(eventId)),
+                    new Update()
+                            .set("status", dead ? WebhookEvent.Status.DEAD : WebhookEvent.Status.RETRY)
+                            .set("attempts", attempts)
+                            .set("nextAttemptAt", Instant.now().plusMillis(backoff(attempts)))
+                            .set("lastError", String.valueOf(e.getMessage()))
+                            .unset("lockedUntil"),
+                    WebhookEvent.class);
+            if (dead) {
+                log.error("Stripe webhook {} ({}) is dead after {} attempts: {}", eventId, event.getType(), attempts, e.getMessage());
+            } else {
+                log.warn("Stripe webhook {} ({}) failed, attempt {}: {}", eventId, event.getType(), attempts, e.getMessage());
+            }
+        }
+    }
+
+    private WebhookEvent claim(String eventId, Instant now) {
+        Query claimable = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(eventId),
+                new Criteria().orOperator(
+                        Criteria.where("status").is(WebhookEvent.Status.RECEIVED),
+                        Criteria.where("status").is(WebhookEvent.Status.RETRY).and("nextAttemptAt").lte(now),
+                        Criteria.where("status").is(WebhookEvent.Status.PROCESSING).and("lockedUntil").lt(now))));
+        return mongoTemplate.findAndModify(claimable,
+                new Update().set("status", WebhookEvent.Status.PROCESSING).set("lockedUntil", now.plus(lease)),
+                FindAndModifyOptions.options().returnNew(true),
+                WebhookEvent.class);
+    }
+
+    // the earliest unfinished event of the same PaymentIntent received before this one, if any
+    private WebhookEvent unfinishedPredecessor(WebhookEvent event) {
+        if (event.getObjectId().equals(event.getId())) return null;
+        Query earlier = new Query(new Criteria().andOperator(
+                Criteria.where("objectId").is(event.getObjectId()),
+                Criteria.where("_id").ne(event.getId()),
+                Criteria.where("status").in(WebhookEvent.Status.RECEIVED, WebhookEvent.Status.RETRY, WebhookEvent.Status.PROCESSING),
+                new Criteria().orOperator(
+                        Criteria.where("stripeCreated").lt(event.getStripeCreated()),
+                        Criteria.where("stripeCreated").is(event.getStripeCreated()).and("receivedAt").lt(event.getReceivedAt()))))
+                .with(Sort.by("stripeCreated", "receivedAt"));
+        earlier.fields().include("status", "nextAttemptAt");
+        return mongoTemplate.findOne(earlier, WebhookEvent.class);
+    }
+
+    private void handle(WebhookEvent event) {
+        switch (event.getType()) {
+            case "payment_intent.succeeded", "payment_intent.amount_capturable_updated" ->
+                    transactionService.handlePaymentIntentSucceeded(event.getObjectId());
+            case "payment_intent.canceled" ->
+                    transactionService.handlePaymentIntentCancelled(event.getObjectId());
+            default -> {
+                // appended as IGNORED; only reached through an explicit replay
+            }
+        }
+    }
+
+    // exponential with jitter, capped
+    private long backoff(int attempts) {
+        long exp = backoffBaseMillis << Math.min(attempts - 1, 20);
+        long capped = Math.min(exp, backoffMaxMillis);
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    @Scheduled(fixedDelayString = "${stripe.webhooks.poll-interval-ms:2000}")
+    public void poll() {
+        Instant now = Instant.now();
+        Query due = new Query(new Criteria().orOperator(
+                Criteria.where("status").in(WebhookEvent.Status.RECEIVED, WebhookEvent.Status.RETRY).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(WebhookEvent.Status.PROCESSING).and("lockedUntil").lt(now)))
+                .with(Sort.by("stripeCreated", "receivedAt"))
+                .limit(POLL_BATCH);
+        due.fields().include("_id", "objectId");
+        mongoTemplate.find(due, WebhookEvent.class).forEach(e -> dispatch(e.getId(), e.getObjectId()));
+    }
+
+    // ---------- admin ----------
+
+    public List<WebhookEvent> list(WebhookEvent.Status status, int page, int size) {
+        return webhookEventRepository.findByStatusOrderByReceivedAtDesc(status, PageRequest.of(page, Math.min(size, 100)));
+    }
+
+    public WebhookEvent get(String eventId) {
+        return webhookEventRepository.findById(eventId)
+                .orElseThrow(() -> new RuntimeException("Webhook event not found"));
+    }
+
+    /** Runs a stored event again, whatever its state; the handlers are idempotent. */
+    public WebhookEvent replay(String eventId) {
+        WebhookEvent event = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(eventId).and("status").ne(WebhookEvent.Status.PROCESSING)),
+                resetForReplay(),
+                FindAndModifyOptions.options().returnNew(true),
+                WebhookEvent.class);
+        if (event == null) throw new RuntimeException("Webhook event not found or being processed");
+        dispatch(event.getId(), event.getObjectId());
+        return event;
+    }
+
+    /** Puts every DEAD event back in the queue; the poller takes them from there. */
+    public long replayDead() {
+        return mongoTemplate.updateMulti(new Query(Criteria.where("status").is(WebhookEvent.Status.DEAD)),
+                resetForReplay(), WebhookEvent.class).getModifiedCount();
+    }
+
+    private static Update resetForReplay() {
+        return new Update()
+                .set("status", WebhookEvent.Status.RETRY)
+                .set("attempts", 0)
+                .set("nextAttemptAt", Instant.now())
+                .unset("lockedUntil")
+                .unset("lastError")
+                .unset("processedAt")
+                .unset("expiresAt");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // unfinished events stay RECEIVED / PROCESSING in Mongo and are picked up after restart
+        for (ThreadPoolExecutor lane : lanes) lane.shutdownNow();
+    }
+}
@@ -17,12 +17,18 @@ public class TimelineLogService {
 
     public void log(String transactionId, String userId, String username,
                     String description, TimelineLog.ActionType actionType, TimelineLog.ActorType actorType) {
+        timelineLogRepository.save(entry(transactionId, userId, username, description, actionType, actorType));
+    }
+
+    // Builds a log entry without saving it (the transaction outbox writes them in batches)
+    public TimelineLog entry(String transactionId, String userId, String username,
+                             String description, TimelineLog.ActionType actionType, TimelineLog.ActorType actorType) {
 
         if(username == null || username.isEmpty()){
             username = resolveFallbackUsername(userId);
         }
 
-        TimelineLog log = TimelineLog.builder()
+        return TimelineLog.builder()
                 .transactionId(transactionId)
                 .userId(userId)
                 .username(username)
@@ -31,8 +37,6 @@ public class TimelineLogService {
                 .actorType(actorType)
                 .createdAt(Instant.now())
                 .build();
-
-        timelineLogRepository.save(log);
     }
 
     private String resolveFallbackUsername(String userId){
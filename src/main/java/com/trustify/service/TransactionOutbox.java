@@ -0,0 +1,289 @@
+package com.trustify.service;
+
+import com.mongodb.client.result.UpdateResult;
+import com.trustify.model.OutboxMessage;
+import com.trustify.model.PaymentEvent;
+import com.trustify.model.TimelineLog;
+import com.trustify.model.Transaction;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transactional outbox for escrow actions.
+ *
+ * commit() writes the transaction's new state and the side effects it implies (payment
+ * events, timeline entries, emails, fraud score updates) as OutboxMessages pushed onto
+ * the same document, in one single-document write: Mongo applies it atomically, so a
+ * state change is never stored without its events or the other way round, and the
+ * request pays one round trip instead of one per side effect.
+ *
+ * The relay then moves the messages out in batches: payment events and timeline logs
+ * with one bulk insert each, emails and fraud updates one by one, and finally one bulk
+ * $pull of the relayed messages. It runs right after a commit and on a poll for
+ * anything left behind. Delivery is at least once: a relay interrupted before the $pull
+ * runs again, payment events and timeline logs are deduplicated by their _id (the
+ * message id), an email or fraud update may be repeated.
+ */
+@Slf4j
+@Service
+public class TransactionOutbox {
+
+    private static final Set<String> NOT_SET = Set.of("_id", "_class", "outbox", "version");
+    private static final String CLAIM = "outboxClaim";
+    private static final String CLAIMED_UNTIL = "outboxClaimedUntil";
+
+    private final MongoTemplate mongoTemplate;
+    private final TimelineLogService timelineLogService;
+    private final EmailService emailService;
+    private final FraudService fraudService;
+    private final int batchSize;
+    private final Duration claimTimeout;
+
+    private final ExecutorService relayExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "transaction-outbox");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean relayRequested = new AtomicBoolean();
+    private final AtomicBoolean relayQueued = new AtomicBoolean();
+
+    public TransactionOutbox(MongoTemplate mongoTemplate,
+                             TimelineLogService timelineLogService,
+                             EmailService emailService,
+                             FraudService fraudService,
+                             @Value("${outbox.batch-size:200}") int batchSize,
+                             @Value("${outbox.claim-timeout-seconds:60}") long claimTimeoutSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.timelineLogService = timelineLogService;
+        this.emailService = emailService;
+        this.fraudService = fraudService;
+        this.batchSize = batchSize;
+        this.claimTimeout = Duration.ofSeconds(claimTimeoutSeconds);
+    }
+
+    /**
+     * Stores the transaction (insert when it has no id yet) together with its messages.
+     * An existing transaction is written with $set / $unset of its fields rather than a
+     * full replace, so messages still waiting in its outbox are kept, and only if its
+     * version is still the one it was read with. Status changes go through
+     * EscrowStateMachine instead, which writes only the changed fields.
+     */
+    public Transaction commit(Transaction tx, OutboxMessage... messages) {
+        Instant now = Instant.now();
+        tx.setUpdatedAt(now);
+
+        if (tx.getId() == null) {
+            if (tx.getCreatedAt() == null) tx.setCreatedAt(now);
+            tx.setOutbox(new ArrayList<>(List.of(messages)));
+            mongoTemplate.insert(tx);
+        } else {
+            Document fields = new Document();
+            mongoTemplate.getConverter().write(tx, fields);
+
+            Update update = new Update();
+            fields.forEach((name, value) -> {
+                if (!NOT_SET.contains(name)) update.set(name, value);
+            });
+            // null in memory means absent in the document, as a save would leave it
+            MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                    .getRequiredPersistentEntity(Transaction.class);
+            for (MongoPersistentProperty property : entity) {
+                String name = property.getFieldName();
+                if (!fields.containsKey(name) && !NOT_SET.contains(name)) update.unset(name);
+            }
+            if (messages.length > 0) update.push("outbox").each((Object[]) messages);
+            update.inc("version", 1);
+
+            UpdateResult result = mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(tx.getId()).and("version").is(tx.getVersion())),
+                    update, Transaction.class);
+            if (result.getMatchedCount() == 0) {
+                if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(tx.getId())), Transaction.class)) {
+                    throw new RuntimeException("Transaction not found");
+                }
+                throw new OptimisticLockingFailureException("Transaction " + tx.getId() + " was changed concurrently, please retry");
+            }
+            tx.setVersion(tx.getVersion() == null ? 1 : tx.getVersion() + 1);
+        }
+
+        if (messages.length > 0) relaySoon();
+        return tx;
+    }
+
+    // Coalesces: commits that land while a relay is queued or running cost one more pass at most
+    public void relaySoon() {
+        relayRequested.set(true);
+        if (relayQueued.compareAndSet(false, true)) {
+            relayExecutor.execute(() -> {
+                try {
+                    while (relayRequested.getAndSet(false)) relay();
+                } catch (Exception e) {
+                    log.warn("Outbox relay failed, the poll will retry: {}", e.getMessage());
+                } finally {
+                    relayQueued.set(false);
+                    // a commit that saw the task still queued right before it ended
+                    if (relayRequested.get()) relaySoon();
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:5000}")
+    public void poll() {
+        try {
+            relay();
+        } catch (Exception e) {
+            log.warn("Outbox relay failed: {}", e.getMessage());
+        }
+    }
+
+    /** Relays pending messages until a batch comes back short. */
+    public synchronized void relay() {
+        while (true) {
+            List<Transaction> batch = claim();
+            if (batch.isEmpty()) return;
+            deliver(batch);
+            if (batch.size() < batchSize) return;
+        }
+    }
+
+    // claim a batch so two instances do not send the same emails; the claim expires if this one dies
+    private List<Transaction> claim() {
+        Instant now = Instant.now();
+        Criteria claimable = new Criteria().orOperator(
+                Criteria.where(CLAIMED_UNTIL).exists(false),
+                Criteria.where(CLAIMED_UNTIL).lt(now));
+
+        Query pending = new Query(new Criteria().andOperator(Criteria.where("outbox.createdAt").lte(now), claimable))
+                .limit(batchSize);
+        pending.fields().include("_id");
+        List<String> ids = mongoTemplate.find(pending, Transaction.class).stream().map(Transaction::getId).toList();
+        if (ids.isEmpty()) return List.of();
+
+        String token = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), claimable)),
+                new Update().set(CLAIM, token).set(CLAIMED_UNTIL, now.plus(claimTimeout)),
+                Transaction.class);
+
+        Query claimed = new Query(Criteria.where(CLAIM).is(token));
+        claimed.fields().include("_id", "buyerId", "sellerId", "outbox");
+        return mongoTemplate.find(claimed, Transaction.class);
+    }
+
+    private void deliver(List<Transaction> batch) {
+        List<PaymentEvent> events = new ArrayList<>();
+        List<TimelineLog> logs = new ArrayList<>();
+        for (Transaction tx : batch) {
+            for (OutboxMessage m : tx.getOutbox()) {
+                switch (m.getKind()) {
+                    case PAYMENT_EVENT -> events.add(PaymentEvent.builder()
+                            .id(m.getMessageId())
+                            .transactionId(tx.getId())
+                            .stripeObjectId(m.getStripeObjectId())
+                            .type(m.getType())
+                            .actor(m.getActor())
+                            .createdAt(m.getCreatedAt())
+                            .build());
+                    case TIMELINE -> {
+                        TimelineLog entry = timelineLogService.entry(tx.getId(), m.getUserId(), m.getUsername(),
+                                m.getDescription(), m.getActionType(), m.getActorType());
+                        entry.setId(m.getMessageId());
+                        entry.setCreatedAt(m.getCreatedAt());
+                        logs.add(entry);
+                    }
+                    default -> { }
+                }
+            }
+        }
+
+        // if these fail nothing is removed, and the next pass starts over
+        insertIgnoringDuplicates(events, PaymentEvent.class);
+        insertIgnoringDuplicates(logs, TimelineLog.class);
+
+        BulkOperations pulls = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Transaction.class);
+        int relayed = 0;
+        for (Transaction tx : batch) {
+            List<String> done = new ArrayList<>();
+            for (OutboxMessage m : tx.getOutbox()) {
+                sendDirect(tx, m);
+                done.add(m.getMessageId());
+            }
+            pulls.updateOne(new Query(Criteria.where("_id").is(tx.getId())),
+                    new Update()
+                            .pull("outbox", new Document("messageId", new Document("$in", done)))
+                            .unset(CLAIM)
+                            .unset(CLAIMED_UNTIL));
+            relayed += done.size();
+        }
+        pulls.execute();
+        log.debug("Outbox relayed {} messages of {} transactions", relayed, batch.size());
+    }
+
+    // emails and fraud updates are not retried: a failure is logged and the message dropped, as before
+    private void sendDirect(Transaction tx, OutboxMessage m) {
+        try {
+            switch (m.getKind()) {
+                case EMAIL -> {
+                    if (m.getTemplate() == OutboxMessage.EmailTemplate.REFUND) {
+                        emailService.sendRefundEmail(m.getTo(), tx.getId());
+                    } else if (m.getTemplate() == OutboxMessage.EmailTemplate.ESCROW_RELEASED) {
+                        emailService.sendEscrowReleasedEmail(m.getTo(), tx.getId());
+                    } else {
+                        emailService.sendEmail(m.getTo(), m.getSubject(), m.getBody());
+                    }
+                }
+                case FRAUD_REWARD -> fraudService.rewardUser(partyOf(tx, m));
+                case FRAUD_PENALTY -> fraudService.penalizeUser(partyOf(tx, m));
+                default -> { }
+            }
+        } catch (Exception e) {
+            log.warn("Outbox {} for transaction {} failed: {}", m.getKind(), tx.getId(), e.getMessage());
+        }
+    }
+
+    private static String partyOf(Transaction tx, OutboxMessage m) {
+        if (m.getParty() == OutboxMessage.Party.BUYER) return tx.getBuyerId();
+        if (m.getParty() == OutboxMessage.Party.SELLER) return tx.getSellerId();
+        return m.getUserId();
+    }
+
+    private <T> void insertIgnoringDuplicates(List<T> documents, Class<T> type) {
+        if (documents.isEmpty()) return;
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, type).insert(documents).execute();
+        } catch (BulkOperationException e) {
+            // duplicates are messages a previous, interrupted relay already wrote
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(err -> err.getCode() == 11000);
+            if (!onlyDuplicates) throw e;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        relayExecutor.shutdown();
+    }
+}
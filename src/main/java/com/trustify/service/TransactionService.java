@@ -2,17 +2,24 @@ package com.trustify.service;
 
 import com.trustify.dto.*;
 import com.trustify.model.Transaction;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 
 
 public interface TransactionService {
     // create transaction and create PaymentIntent with capture_method=manual
     // ---------- Create & authorize ----------
-    CreateTransactionResult createAndAuthorize(CreateTransactionRequest req);
+    // stripeIdempotencyKey (nullable) is sent to Stripe so a retried request cannot create a second PaymentIntent
+    CreateTransactionResult createAndAuthorize(CreateTransactionRequest req, String stripeIdempotencyKey);
+
+    default CreateTransactionResult createAndAuthorize(CreateTransactionRequest req) {
+        return createAndAuthorize(req, null);
+    }
 
     // capture / release escrow
-    CaptureResponse capture(String transactionId,  String actorUserId, Long amountToCaptureCents);
+    CaptureResponse capture(String transactionId, String actorUserId, Long amountToCaptureCents, String stripeIdempotencyKey);
+
+    default CaptureResponse capture(String transactionId, String actorUserId, Long amountToCaptureCents) {
+        return capture(transactionId, actorUserId, amountToCaptureCents, null);
+    }
 
     // refund or cancel
     void refund(String transactionId, Long amountCents); // amountCents null => full
@@ -30,7 +37,12 @@ public interface TransactionService {
 
     // ---------- Transaction queries ----------
     Transaction getTransaction(String id);
-    Page<Transaction> listForUser(String userId, Pageable pageable);
+    // strong ETag of GET /transactions/{id} from an _id/updatedAt projection
+    String getTransactionETag(String id);
+    String etagOf(Transaction tx);
+    // the user's purchases and sales, newest first; status and type are optional filters
+    CursorPage<Transaction> listForUser(String userEmail, Transaction.TransactionStatus status,
+                                        Transaction.TransactionType type, String cursor, int size);
 
     // --------- Rental specific ---------
     void startRental(String transactionId, String userEmail);
@@ -0,0 +1,191 @@
+package com.trustify.service;
+
+import com.trustify.model.TrendingSnapshot;
+import com.trustify.repository.TrendingSnapshotRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Trending listings as an incrementally maintained top-K.
+ *
+ * Scores decay exponentially with a configurable half-life. Instead of decaying every
+ * entry over time, each event is weighted by e^(λ·(t - landmark)), which keeps the
+ * relative order of all scores correct with O(log K) work per event. The landmark is
+ * moved forward (all scores rescaled once) before the exponent can overflow.
+ *
+ * Only the top capacity listings are kept; the lowest is evicted when a new one comes in.
+ * The ranking is published every few seconds as an immutable list, so reads are a
+ * subList of it, and snapshotted to Mongo so a restart resumes where it left off.
+ */
+@Slf4j
+@Service
+public class TrendingService {
+
+    private static final String SNAPSHOT_ID = "listings";
+    private static final double MAX_EXPONENT = 50;
+    private static final Comparator<Ranked> HIGHEST_FIRST =
+            Comparator.comparingDouble(Ranked::score).reversed().thenComparing(Ranked::listingId);
+
+    private final TrendingSnapshotRepository snapshotRepository;
+    private final int capacity;
+    private final double lambdaPerMilli;
+    private final double viewWeight;
+    private final double favoriteWeight;
+    private final double transactionWeight;
+
+    // guarded by this
+    private final Map<String, Double> scores = new HashMap<>();
+    private final NavigableSet<Ranked> ranking = new TreeSet<>(HIGHEST_FIRST);
+    private long landmark = System.currentTimeMillis();
+
+    private volatile List<String> published = List.of();
+
+    public TrendingService(TrendingSnapshotRepository snapshotRepository,
+                           @Value("${listing.trending.capacity:5000}") int capacity,
+                           @Value("${listing.trending.half-life-hours:24}") double halfLifeHours,
+                           @Value("${listing.trending.weights.view:1}") double viewWeight,
+                           @Value("${listing.trending.weights.favorite:5}") double favoriteWeight,
+                           @Value("${listing.trending.weights.transaction:20}") double transactionWeight) {
+        this.snapshotRepository = snapshotRepository;
+        this.capacity = capacity;
+        this.lambdaPerMilli = Math.log(2) / (halfLifeHours * 3_600_000);
+        this.viewWeight = viewWeight;
+        this.favoriteWeight = favoriteWeight;
+        this.transactionWeight = transactionWeight;
+    }
+
+    public void recordViews(String listingId, long views) {
+        add(listingId, viewWeight * views);
+    }
+
+    public void recordFavorite(String listingId) {
+        add(listingId, favoriteWeight);
+    }
+
+    public void recordTransactionStarted(String listingId) {
+        add(listingId, transactionWeight);
+    }
+
+    public synchronized void remove(String listingId) {
+        Double score = scores.remove(listingId);
+        if (score != null) ranking.remove(new Ranked(listingId, score));
+    }
+
+    // O(page): a view over the last published ranking
+    public List<String> page(int page, int size) {
+        List<String> current = published;
+        // in long: page * size overflows int for large pages, and anything past the top-K is empty
+        long offset = (long) page * size;
+        if (page < 0 || size <= 0 || offset >= current.size()) return List.of();
+        int from = (int) offset;
+        int to = (int) Math.min(offset + size, current.size());
+        return current.subList(from, to);
+    }
+
+    private synchronized void add(String listingId, double weight) {
+        if (listingId == null || weight <= 0) return;
+
+        long now = System.currentTimeMillis();
+        if (lambdaPerMilli * (now - landmark) > MAX_EXPONENT) rebase(now);
+
+        double delta = weight * Math.exp(lambdaPerMilli * (now - landmark));
+        Double old = scores.get(listingId);
+        if (old != null) ranking.remove(new Ranked(listingId, old));
+        double updated = (old == null ? 0 : old) + delta;
+        scores.put(listingId, updated);
+        ranking.add(new Ranked(listingId, updated));
+
+        if (scores.size() > capacity) {
+            Ranked lowest = ranking.pollLast();
+            scores.remove(lowest.listingId());
+        }
+    }
+
+    // rescale every score to a new landmark; the order does not change
+    private void rebase(long newLandmark) {
+        double factor = Math.exp(-lambdaPerMilli * (newLandmark - landmark));
+        List<Ranked> rescaled = new ArrayList<>(ranking.size());
+        for (Ranked r : ranking) {
+            rescaled.add(new Ranked(r.listingId(), r.score() * factor));
+        }
+        ranking.clear();
+        ranking.addAll(rescaled);
+        rescaled.forEach(r -> scores.put(r.listingId(), r.score()));
+        landmark = newLandmark;
+    }
+
+    @Scheduled(fixedDelayString = "${listing.trending.publish-interval-ms:10000}")
+    public void publish() {
+        List<String> top;
+        synchronized (this) {
+            top = new ArrayList<>(ranking.size());
+            for (Ranked r : ranking) top.add(r.listingId());
+        }
+        published = List.copyOf(top);
+    }
+
+    @Scheduled(fixedDelayString = "${listing.trending.snapshot-interval-ms:60000}")
+    public void snapshot() {
+        Instant takenAt = Instant.now();
+        List<TrendingSnapshot.Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            // stored as real decayed scores, so the snapshot does not depend on this instance's landmark
+            double factor = Math.exp(-lambdaPerMilli * (takenAt.toEpochMilli() - landmark));
+            for (Ranked r : ranking) {
+                entries.add(new TrendingSnapshot.Entry(r.listingId(), r.score() * factor));
+            }
+        }
+        snapshotRepository.save(TrendingSnapshot.builder()
+                .id(SNAPSHOT_ID)
+                .takenAt(takenAt)
+                .entries(entries)
+                .build());
+    }
+
+    @PostConstruct
+    void restore() {
+        try {
+            snapshotRepository.findById(SNAPSHOT_ID).ifPresent(snapshot -> {
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    landmark = now;
+                    // decay for the time the service was down
+                    double factor = Math.exp(-lambdaPerMilli * (now - snapshot.getTakenAt().toEpochMilli()));
+                    for (TrendingSnapshot.Entry e : snapshot.getEntries()) {
+                        double score = e.getScore() * factor;
+                        scores.put(e.getListingId(), score);
+                        ranking.add(new Ranked(e.getListingId(), score));
+                    }
+                    while (scores.size() > capacity) {
+                        scores.remove(ranking.pollLast().listingId());
+                    }
+                }
+                log.info("Restored {} trending listings from snapshot of {}", snapshot.getEntries().size(), snapshot.getTakenAt());
+            });
+        } catch (Exception e) {
+            log.warn("Could not restore trending snapshot, starting empty: {}", e.getMessage());
+        }
+        publish();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        snapshot();
+    }
+
+    private record Ranked(String listingId, double score) {
+    }
+}
@@ -1,32 +1,83 @@
 package com.trustify.service.impl;
 
+import com.trustify.dto.CursorPage;
 import com.trustify.dto.ListingDTO;
+import com.trustify.dto.ListingFacets;
+import com.trustify.dto.ListingFilter;
+import com.trustify.dto.ListingSummaryDTO;
+import com.trustify.dto.NearbyListingDTO;
+import com.trustify.model.Favorite;
 import com.trustify.model.Listing;
+import com.trustify.model.ListingImage;
 import com.trustify.model.User;
+import com.trustify.repository.FavoriteRepository;
 import com.trustify.repository.ListingRepository;
 import com.trustify.repository.UserRepository;
+import com.trustify.repository.projection.ListingCardView;
+import com.trustify.repository.projection.OwnerListingCardView;
+import com.trustify.repository.projection.UserIdView;
+import com.trustify.repository.projection.VersionView;
+import com.trustify.service.DuplicateDetectionService;
+import com.trustify.service.ImageDerivativeService;
+import com.trustify.service.ListingCache;
+import com.trustify.service.ListingFacetCache;
 import com.trustify.service.ListingService;
+import com.trustify.service.ListingStatsCounter;
+import com.trustify.service.ListingSuggestService;
+import com.trustify.service.TrendingService;
+import com.trustify.util.ETags;
+import com.trustify.util.KeysetCursor;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.geo.Point;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.geo.GeoJsonPolygon;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.AccessDeniedException;
 import java.security.Principal;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ListingServiceImpl implements ListingService {
 
+    private static final int MAX_CURSOR_PAGE_SIZE = 100;
+    private static final String RELEVANCE = "relevance";
+    private static final int MAX_FACET_CATEGORIES = 50;
+    private static final String DISTANCE = "distance";
+    private static final double DEFAULT_NEAR_RADIUS_KM = 10;
+    private static final double MAX_NEAR_RADIUS_KM = 100;
+
     private final ListingRepository listingRepository;
     private final UserRepository userRepository;
+    private final ListingCache listingCache;
+    private final FavoriteRepository favoriteRepository;
+    private final ListingFacetCache listingFacetCache;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ListingStatsCounter listingStatsCounter;
+    private final TrendingService trendingService;
+    private final DuplicateDetectionService duplicateDetectionService;
+    private final ListingSuggestService listingSuggestService;
+
+    // lower bounds of the price histogram buckets, ascending; the last bucket is open-ended
+    @Value("${listing.facets.price-boundaries:0,1000,5000,10000,25000,50000,100000,250000,500000,1000000}")
+    private double[] priceBoundaries;
 
     @Override
     public Listing createListing(ListingDTO dto, Principal principal) {
@@ -39,13 +90,22 @@ public class ListingServiceImpl implements ListingService {
                 .price(dto.getPrice())
                 .type(dto.getType())
                 .category(dto.getCategory())
+                .categoryKey(Listing.categoryKey(dto.getCategory()))
                 .imageUrls(dto.getImageUrls())
+                .derivativesPending(dto.getImageUrls() != null && !dto.getImageUrls().isEmpty() ? true : null)
                 .ownerId(user.getId())
+                .location(toPoint(dto.getLatitude(), dto.getLongitude()))
                 .createdAt(Instant.now())
                 .updatedAt(Instant.now())
                 .build();
 
-        return listingRepository.save(listing);
+        Listing saved = listingRepository.save(listing);
+        listingCache.invalidate(saved.getId());
+        // text is checked now (an in-memory LSH lookup); images once their hashes are built
+        duplicateDetectionService.checkText(saved);
+        listingSuggestService.added(saved);
+        imageDerivativeService.submit(saved.getId());
+        return saved;
     }
 
     @Override
@@ -55,8 +115,29 @@ public class ListingServiceImpl implements ListingService {
 
     @Override
     public Listing getListingById(String id) {
-        return listingRepository.findById(id)
+        // single-flight: concurrent misses for a hot listing share one Mongo read
+        return listingCache.get(id, key -> listingRepository.findById(key)
+                .orElseThrow(() -> new RuntimeException("Listing not found")));
+    }
+
+    @Override
+    public void recordView(String id) {
+        listingStatsCounter.recordView(id);
+    }
+
+    @Override
+    public String getListingETag(String id) {
+        Listing cached = listingCache.getIfPresent(id);
+        if (cached != null) return etagOf(cached);
+
+        VersionView version = listingRepository.findVersionById(id)
                 .orElseThrow(() -> new RuntimeException("Listing not found"));
+        return ETags.of(version.getId(), version.getUpdatedAt());
+    }
+
+    @Override
+    public String etagOf(Listing listing) {
+        return ETags.of(listing.getId(), listing.getUpdatedAt());
     }
 
     @Override
@@ -73,9 +154,16 @@ public class ListingServiceImpl implements ListingService {
         }
 
         listingRepository.delete(listing);
+        // a favorite added meanwhile fails its $inc on the missing listing and is rolled back
+        favoriteRepository.deleteByListingId(id);
+        listingCache.invalidate(id);
+        trendingService.remove(id);
+        duplicateDetectionService.remove(id);
+        listingSuggestService.removed(listing);
     }
 
     public List<String> buildFullImageUrls(List<String> imagePaths, HttpServletRequest request) {
+        if (imagePaths == null) return List.of();
         String baseUrl = request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort();
         return imagePaths.stream()
                 .map(path -> baseUrl + path)
@@ -88,13 +176,68 @@ public class ListingServiceImpl implements ListingService {
     }
 
     @Override
-    public Page<Listing> searchListings(String category, Listing.ListingType type, Double priceMax, int page, int size, String sortBy, String sortDir) {
-        Sort sort = sortDir.equalsIgnoreCase("asc") ?
-                Sort.by(sortBy).ascending() :
-                Sort.by(sortBy).descending();
+    public Page<ListingSummaryDTO> searchListings(String query, String category, Listing.ListingType type, Double priceMax, int page, int size, String sortBy, String sortDir) {
+        ListingFilter filter = ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .text(query)
+                .category(category)
+                .type(type)
+                .priceMax(priceMax)
+                .build();
+
+        // relevance ordering only makes sense with search terms; otherwise newest first
+        boolean hasTerms = query != null && !query.isBlank();
+        Sort sort;
+        if (RELEVANCE.equals(sortBy)) {
+            sort = hasTerms ? Sort.unsorted() : Sort.by("createdAt").descending();
+        } else {
+            sort = sortDir.equalsIgnoreCase("asc") ?
+                    Sort.by(sortBy).ascending() :
+                    Sort.by(sortBy).descending();
+        }
 
         Pageable pageable = PageRequest.of(page, size, sort);
-        return listingRepository.searchListings(category, type, priceMax, pageable);
+        Page<ListingCardView> result = listingRepository.search(filter, pageable, ListingCardView.class);
+        listingStatsCounter.recordImpressions(result.getContent().stream().map(ListingCardView::getId).toList());
+        // public and shared-cacheable, so there is no user to mark favorites for
+        return result.map(card -> mapToSummary(card, Set.of()));
+    }
+
+    @Override
+    public List<ListingSummaryDTO> getTrendingListings(int page, int size, Principal principal) {
+        List<String> ids = trendingService.page(Math.max(0, page), Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE)));
+        if (ids.isEmpty()) return List.of();
+
+        Map<String, ListingCardView> byId = new HashMap<>();
+        listingRepository.findByIdInAndStatus(ids, Listing.ListingStatus.ACTIVE, ListingCardView.class)
+                .forEach(card -> byId.put(card.getId(), card));
+        // keep the ranking order; listings that are no longer active just drop out of the page
+        List<ListingCardView> cards = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+        List<String> shown = cards.stream().map(ListingCardView::getId).toList();
+        listingStatsCounter.recordImpressions(shown);
+
+        Set<String> userFavorites = favoritesAmong(shown, principal);
+        return cards.stream()
+                .map(card -> mapToSummary(card, userFavorites))
+                .toList();
+    }
+
+    @Override
+    public ListingFacets getFacets(String query, String category, Listing.ListingType type, Double priceMax) {
+        // normalized so "iPhone  13" and "iphone 13" share a cache entry
+        ListingFilter filter = ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .text(normalize(query))
+                .category(normalize(category))
+                .type(type)
+                .priceMax(priceMax)
+                .build();
+        return listingFacetCache.get(filter, f -> listingRepository.facets(f, priceBoundaries, MAX_FACET_CATEGORIES));
+    }
+
+    private static String normalize(String value) {
+        if (value == null || value.isBlank()) return null;
+        return value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
     }
 
     @Override
@@ -111,44 +254,35 @@ public class ListingServiceImpl implements ListingService {
 //    }
 
     @Override
-    public List<ListingDTO> getAllActiveListings(int page, int size, String sortBy, String sortDir, Principal principal) {
+    public List<ListingSummaryDTO> getAllActiveListings(int page, int size, String sortBy, String sortDir, Principal principal) {
         Sort sort = sortDir.equalsIgnoreCase("asc") ?
                 Sort.by(sortBy).ascending() :
                 Sort.by(sortBy).descending();
 
         Pageable pageable = PageRequest.of(page, size, sort);
-        Page<Listing> listingsPage = listingRepository.findByStatus(Listing.ListingStatus.ACTIVE, pageable);
-
-//        User user = userRepository.findByEmail(principal.getName())
-//                .orElseThrow(() -> new RuntimeException("User not found"));
-//        Set<String> userFavorites = user.getFavoriteListingIds();
-        Set<String> userFavorites; // empty by default
-
-        if (principal != null) {
-            userFavorites = userRepository.findByEmail(principal.getName())
-                    .map(User::getFavoriteListingIds)
-                    .orElse(Set.of());
-        } else {
-            userFavorites = Set.of();
-        }
-        // ✅ Convert listings to DTOs and set `isFavorite`
-        return listingsPage.getContent().stream()
-                .map(listing -> mapToDTO(listing, userFavorites))
+        // card fields only; the description never leaves Mongo for a feed
+        List<ListingCardView> cards = listingRepository.findByStatus(Listing.ListingStatus.ACTIVE, pageable, ListingCardView.class);
+        List<String> ids = cards.stream().map(ListingCardView::getId).toList();
+        listingStatsCounter.recordImpressions(ids);
+
+        Set<String> userFavorites = favoritesAmong(ids, principal);
+        return cards.stream()
+                .map(card -> mapToSummary(card, userFavorites))
                 .toList();
 
     }
 
 
     @Override
-    public List<Listing> getListingsByType(Listing.ListingType type, int page, int size, String sortBy, String sortDir) {
+    public List<ListingSummaryDTO> getListingsByType(Listing.ListingType type, int page, int size, String sortBy, String sortDir) {
         Sort sort = sortDir.equalsIgnoreCase("asc") ?
                 Sort.by(sortBy).ascending() :
                 Sort.by(sortBy).descending();
 
         Pageable pageable = PageRequest.of(page, size, sort);
-        Page<Listing> listingsPage = listingRepository.findByStatusAndType(Listing.ListingStatus.ACTIVE, type, pageable);
-
-        return listingsPage.getContent();
+        // card fields only, and a list rather than a page: no count query
+        List<ListingCardView> cards = listingRepository.findByStatusAndType(Listing.ListingStatus.ACTIVE, type, pageable, ListingCardView.class);
+        return publicCards(cards);
     }
 
 
@@ -163,15 +297,161 @@ public class ListingServiceImpl implements ListingService {
 //    }
 
     @Override
-    public List<Listing> getListingsByOwner(Principal principal, int page, int size, String sortBy, String sortDir) {
-        User user = userRepository.findByEmail(principal.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+    public List<ListingSummaryDTO> getListingsByOwner(Principal principal, int page, int size, String sortBy, String sortDir) {
+        String userId = currentUserId(principal);
 
         Sort sort = sortDir.equalsIgnoreCase("asc") ? Sort.by(sortBy).ascending() : Sort.by(sortBy).descending();
         Pageable pageable = PageRequest.of(page, size, sort);
 
-        Page<Listing> pageResult = listingRepository.findByOwnerId(user.getId(), pageable);
-        return pageResult.getContent();
+        List<OwnerListingCardView> cards = listingRepository.findByOwnerId(userId, pageable, OwnerListingCardView.class);
+        return ownerCards(cards, principal);
+    }
+
+    // ---------- Geo search ----------
+    // Both go through $geoNear on the 2dsphere index and page by (distance, _id).
+
+    @Override
+    public CursorPage<NearbyListingDTO> getListingsNear(double latitude, double longitude, Double radiusKm,
+                                                        Listing.ListingType type, String category, Double priceMax,
+                                                        String cursor, int size, Principal principal) {
+        double radius = radiusKm == null ? DEFAULT_NEAR_RADIUS_KM : radiusKm;
+        if (radius <= 0 || radius > MAX_NEAR_RADIUS_KM) {
+            throw new RuntimeException("radiusKm must be between 0 and " + MAX_NEAR_RADIUS_KM);
+        }
+        return geoPage(toPoint(latitude, longitude), radius * 1000, null,
+                geoFilter(type, category, priceMax), cursor, size, principal);
+    }
+
+    @Override
+    public CursorPage<NearbyListingDTO> getListingsWithin(double minLat, double minLng, double maxLat, double maxLng,
+                                                          Listing.ListingType type, String category, Double priceMax,
+                                                          String cursor, int size, Principal principal) {
+        // range checks only
+        toPoint(minLat, minLng);
+        toPoint(maxLat, maxLng);
+        if (minLat >= maxLat || minLng >= maxLng) {
+            throw new RuntimeException("Bounding box must have minLat < maxLat and minLng < maxLng");
+        }
+        GeoJsonPolygon box = new GeoJsonPolygon(
+                new Point(minLng, minLat), new Point(maxLng, minLat),
+                new Point(maxLng, maxLat), new Point(minLng, maxLat),
+                new Point(minLng, minLat));
+        // distances are measured from the centre of the box
+        GeoJsonPoint centre = new GeoJsonPoint((minLng + maxLng) / 2, (minLat + maxLat) / 2);
+        return geoPage(centre, null, box, geoFilter(type, category, priceMax), cursor, size, principal);
+    }
+
+    private CursorPage<NearbyListingDTO> geoPage(GeoJsonPoint origin, Double maxDistanceMeters, GeoJsonPolygon within,
+                                                 ListingFilter filter, String cursor, int size, Principal principal) {
+        int limit = Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+
+        KeysetCursor after = null;
+        if (cursor != null && !cursor.isBlank()) {
+            after = KeysetCursor.decode(cursor);
+            if (!after.matches(DISTANCE, false)) {
+                throw new RuntimeException("Cursor does not belong to a distance-ordered search");
+            }
+        }
+
+        List<NearbyListingDTO> rows = listingRepository.findNear(origin, maxDistanceMeters, within, filter, after, limit + 1);
+        boolean hasMore = rows.size() > limit;
+        List<NearbyListingDTO> items = hasMore ? rows.subList(0, limit) : rows;
+
+        String nextCursor = null;
+        if (hasMore) {
+            NearbyListingDTO last = items.get(items.size() - 1);
+            nextCursor = new KeysetCursor(DISTANCE, false, last.getDistance(), last.getId()).encode();
+        }
+
+        List<String> ids = items.stream().map(NearbyListingDTO::getId).toList();
+        listingStatsCounter.recordImpressions(ids);
+
+        Set<String> userFavorites = favoritesAmong(ids, principal);
+        items.forEach(item -> {
+            item.setFavorite(userFavorites.contains(item.getId()));
+            setThumbnail(item, item.getImageUrls(), item.getImageVariants());
+        });
+        return new CursorPage<>(items, nextCursor, hasMore);
+    }
+
+    private static ListingFilter geoFilter(Listing.ListingType type, String category, Double priceMax) {
+        return ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .type(type)
+                .category(category)
+                .priceMax(priceMax)
+                .build();
+    }
+
+    // GeoJSON order is [longitude, latitude]
+    private static GeoJsonPoint toPoint(Double latitude, Double longitude) {
+        if (latitude == null && longitude == null) {
+            return null;
+        }
+        if (latitude == null || longitude == null) {
+            throw new RuntimeException("Both latitude and longitude are required");
+        }
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new RuntimeException("Invalid coordinates");
+        }
+        return new GeoJsonPoint(longitude, latitude);
+    }
+
+    // ---------- Cursor (keyset) pagination ----------
+    // Same cost for the first and the 5000th page: a range scan on (sortField, _id), no skip and no count.
+
+    @Override
+    public CursorPage<ListingSummaryDTO> getAllActiveListingsAfter(String cursor, int size, String sortBy, String sortDir, Principal principal) {
+        ListingFilter filter = ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .build();
+        CursorPage<ListingCardView> page = cardPage(filter, cursor, size, sortBy, sortDir, ListingCardView.class);
+
+        List<String> ids = page.getItems().stream().map(ListingCardView::getId).toList();
+        listingStatsCounter.recordImpressions(ids);
+
+        Set<String> userFavorites = favoritesAmong(ids, principal);
+        List<ListingSummaryDTO> items = page.getItems().stream()
+                .map(card -> mapToSummary(card, userFavorites))
+                .toList();
+        return new CursorPage<>(items, page.getNextCursor(), page.isHasMore());
+    }
+
+    @Override
+    public CursorPage<ListingSummaryDTO> getListingsByTypeAfter(Listing.ListingType type, String cursor, int size, String sortBy, String sortDir) {
+        ListingFilter filter = ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .type(type)
+                .build();
+        CursorPage<ListingCardView> page = cardPage(filter, cursor, size, sortBy, sortDir, ListingCardView.class);
+        return new CursorPage<>(publicCards(page.getItems()), page.getNextCursor(), page.isHasMore());
+    }
+
+    @Override
+    public CursorPage<ListingSummaryDTO> searchListingsAfter(String query, String category, Listing.ListingType type, Double priceMax, String cursor, int size, String sortBy, String sortDir) {
+        ListingFilter filter = ListingFilter.builder()
+                .status(Listing.ListingStatus.ACTIVE)
+                .text(query)
+                .category(category)
+                .type(type)
+                .priceMax(priceMax)
+                .build();
+        // a relevance score has no stable keyset, so cursor mode falls back to newest first
+        if (RELEVANCE.equals(sortBy)) {
+            sortBy = "createdAt";
+            sortDir = "desc";
+        }
+        CursorPage<ListingCardView> page = cardPage(filter, cursor, size, sortBy, sortDir, ListingCardView.class);
+        return new CursorPage<>(publicCards(page.getItems()), page.getNextCursor(), page.isHasMore());
+    }
+
+    @Override
+    public CursorPage<ListingSummaryDTO> getListingsByOwnerAfter(Principal principal, String cursor, int size, String sortBy, String sortDir) {
+        ListingFilter filter = ListingFilter.builder()
+                .ownerId(currentUserId(principal))
+                .build();
+        CursorPage<OwnerListingCardView> page = cardPage(filter, cursor, size, sortBy, sortDir, OwnerListingCardView.class);
+        return new CursorPage<>(ownerCards(page.getItems(), principal), page.getNextCursor(), page.isHasMore());
     }
 
 //    @Override
@@ -204,52 +484,165 @@ public class ListingServiceImpl implements ListingService {
 //
 @Override
 public boolean toggleFavorite(String listingId, Principal principal) {
-    User user = userRepository.findByEmail(principal.getName())
-            .orElseThrow(() -> new RuntimeException("User not found"));
-
-    Listing listing = listingRepository.findById(listingId)
-            .orElseThrow(() -> new RuntimeException("Listing not found"));
+    // Each branch is a single atomic write on the favorites collection, so two
+    // concurrent toggles can no longer overwrite each other's whole set.
+    // Removing is tried first: one write when it was a favorite, a second (the
+    // upsert) when it was not. The favoriteCount $inc that follows is another
+    // document, so it cannot share the write; FavoriteCountRepair fixes drift.
+    String userId = currentUserId(principal);
+    if (favoriteRepository.remove(userId, listingId)) {
+        listingRepository.incrementFavoriteCount(listingId, -1);
+        return false;
+    }
+    return addFavorite(userId, listingId);
+}
 
-    Set<String> favorites = user.getFavoriteListingIds();
+    @Override
+    public boolean addFavorite(String listingId, Principal principal) {
+        return addFavorite(currentUserId(principal), listingId);
+    }
 
-    boolean added;
-    if (favorites.contains(listingId)) {
-        favorites.remove(listingId);
-        added = false;
-    } else {
-        favorites.add(listingId);
-        added = true;
+    @Override
+    public boolean removeFavorite(String listingId, Principal principal) {
+        String userId = currentUserId(principal);
+        if (!favoriteRepository.remove(userId, listingId)) {
+            return false;
+        }
+        listingRepository.incrementFavoriteCount(listingId, -1);
+        return true;
     }
 
-    user.setFavoriteListingIds(favorites);
-    userRepository.save(user);
+    @Override
+    public List<ListingSummaryDTO> getFavoriteListings(Principal principal) {
+        String userId = currentUserId(principal);
 
-    return added;
-}
+        // Most recently favorited first
+        List<String> favoriteIds = favoriteRepository.findByUserIdOrderByCreatedAtDesc(userId).stream()
+                .map(Favorite::getListingId)
+                .toList();
+        Map<String, ListingCardView> byId = new HashMap<>();
+        listingRepository.findByIdIn(favoriteIds, ListingCardView.class).forEach(card -> byId.put(card.getId(), card));
+
+        Set<String> favoriteSet = new HashSet<>(favoriteIds);
+        return favoriteIds.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .map(card -> mapToSummary(card, favoriteSet))
+                .toList();
+    }
 
-    @Override
-    public List<ListingDTO> getFavoriteListings(Principal principal) {
-        User user = userRepository.findByEmail(principal.getName())
+    private boolean addFavorite(String userId, String listingId) {
+        if (!favoriteRepository.add(userId, listingId)) {
+            return false; // already a favorite
+        }
+        if (!listingRepository.incrementFavoriteCount(listingId, 1)) {
+            favoriteRepository.remove(userId, listingId);
+            throw new RuntimeException("Listing not found");
+        }
+        trendingService.recordFavorite(listingId);
+        return true;
+    }
+
+    // Only the id is read; the full user document is not needed to touch favorites
+    private String currentUserId(Principal principal) {
+        return userRepository.findIdByEmail(principal.getName())
+                .map(UserIdView::getId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
+    // Favorite flags for one page: an _id $in over "<userId>:<listingId>" keys, never the user's full list
+    private Set<String> favoritesAmong(List<String> listingIds, Principal principal) {
+        if (principal == null || listingIds.isEmpty()) {
+            return Set.of();
+        }
+        return userRepository.findIdByEmail(principal.getName())
+                .map(user -> {
+                    List<String> keys = listingIds.stream()
+                            .map(listingId -> Favorite.idFor(user.getId(), listingId))
+                            .toList();
+                    return favoriteRepository.findAllById(keys).stream()
+                            .map(Favorite::getListingId)
+                            .collect(Collectors.toSet());
+                })
+                .orElse(Set.of());
+    }
 
-        Set<String> favoriteIds = user.getFavoriteListingIds();
-        List<Listing> listings = listingRepository.findAllById(favoriteIds);
 
-        return listings.stream()
-                .map(listing -> mapToDTO(listing, favoriteIds))
-                .toList();
+    private <T> CursorPage<T> keysetPage(ListingFilter filter, String cursor, int size, String sortBy, String sortDir,
+                                         Class<T> type, Function<T, Object> sortValue, Function<T, String> idOf) {
+        // Keyset order needs a unique, indexed tie-breaker; only createdAt and price are supported
+        if (!"createdAt".equals(sortBy) && !"price".equals(sortBy)) {
+            throw new RuntimeException("Cursor pagination supports sortBy=createdAt or sortBy=price");
+        }
+        boolean descending = !sortDir.equalsIgnoreCase("asc");
+        int limit = Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+
+        KeysetCursor after = null;
+        if (cursor != null && !cursor.isBlank()) {
+            after = KeysetCursor.decode(cursor);
+            if (!after.matches(sortBy, descending)) {
+                throw new RuntimeException("Cursor does not match the requested sort order");
+            }
+        }
+
+        // fetch one extra row to know whether another page exists
+        List<T> rows = listingRepository.findPageAfter(filter, sortBy, descending, after, limit + 1, type);
+        boolean hasMore = rows.size() > limit;
+        List<T> items = hasMore ? rows.subList(0, limit) : rows;
+
+        String nextCursor = null;
+        if (hasMore) {
+            T last = items.get(items.size() - 1);
+            nextCursor = new KeysetCursor(sortBy, descending, sortValue.apply(last), idOf.apply(last)).encode();
+        }
+        return new CursorPage<>(items, nextCursor, hasMore);
     }
 
+    private static void setThumbnail(ListingSummaryDTO dto, List<String> imageUrls, List<ListingImage> variants) {
+        if (variants != null && !variants.isEmpty()) {
+            dto.setThumbnailUrl(ImageDerivativeService.pick(variants.get(0), ImageDerivativeService.CARD_WIDTH));
+            dto.setBlurHash(variants.get(0).getBlurHash());
+        } else if (imageUrls != null && !imageUrls.isEmpty()) {
+            dto.setThumbnailUrl(imageUrls.get(0));
+        }
+    }
+
+    private <T extends ListingCardView> CursorPage<T> cardPage(ListingFilter filter, String cursor, int size,
+                                                               String sortBy, String sortDir, Class<T> type) {
+        return keysetPage(filter, cursor, size, sortBy, sortDir, type,
+                card -> "price".equals(sortBy) ? card.getPrice() : card.getCreatedAt(), ListingCardView::getId);
+    }
+
+    // feeds without a user (shared-cacheable): impressions counted, no favorite marks
+    private List<ListingSummaryDTO> publicCards(List<? extends ListingCardView> cards) {
+        listingStatsCounter.recordImpressions(cards.stream().map(ListingCardView::getId).toList());
+        return cards.stream().map(card -> mapToSummary(card, Set.of())).toList();
+    }
+
+    // the owner's own listings: no impressions, status included
+    private List<ListingSummaryDTO> ownerCards(List<OwnerListingCardView> cards, Principal principal) {
+        Set<String> userFavorites = favoritesAmong(cards.stream().map(ListingCardView::getId).toList(), principal);
+        return cards.stream().map(card -> {
+            ListingSummaryDTO dto = mapToSummary(card, userFavorites);
+            dto.setStatus(card.getStatus());
+            dto.setViewCount(card.getViewCount());
+            dto.setImpressionCount(card.getImpressionCount());
+            return dto;
+        }).toList();
+    }
 
-    private ListingDTO mapToDTO(Listing listing, Set<String> userFavorites) {
-        ListingDTO dto = new ListingDTO();
-        dto.setTitle(listing.getTitle());
-        dto.setDescription(listing.getDescription());
-        dto.setPrice(listing.getPrice());
-        dto.setType(listing.getType());
-        dto.setCategory(listing.getCategory());
-        dto.setImageUrls(listing.getImageUrls());
-        dto.setFavorite(userFavorites.contains(listing.getId()));
+    private ListingSummaryDTO mapToSummary(ListingCardView card, Set<String> userFavorites) {
+        ListingSummaryDTO dto = new ListingSummaryDTO();
+        dto.setId(card.getId());
+        dto.setTitle(card.getTitle());
+        dto.setPrice(card.getPrice());
+        dto.setType(card.getType());
+        dto.setCategory(card.getCategory());
+        dto.setImageUrls(card.getImageUrls());
+        setThumbnail(dto, card.getImageUrls(), card.getImageVariants());
+        dto.setFavoriteCount(card.getFavoriteCount());
+        dto.setCreatedAt(card.getCreatedAt());
+        dto.setFavorite(userFavorites.contains(card.getId()));
         return dto;
     }
 
@@ -1,6 +1,5 @@
 package com.trustify.service.impl;
 
-import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.PaymentIntent;
 import com.stripe.model.Refund;
@@ -9,43 +8,51 @@ import com.stripe.param.*;
 import com.trustify.dto.*;
 import com.trustify.model.*;
 import com.trustify.repository.DisputeRepository;
-import com.trustify.repository.PaymentEventRepository;
 import com.trustify.repository.TransactionRepository;
 import com.trustify.repository.UserRepository;
-import com.trustify.service.FraudService;
-import com.trustify.service.TimelineLogService;
+import com.trustify.repository.projection.VersionView;
+import com.trustify.service.EscrowStateMachine;
+import com.trustify.service.EscrowSummaryService;
+import com.trustify.service.EscrowTransition;
+import com.trustify.service.StripeGateway;
+import com.trustify.service.TransactionOutbox;
 import com.trustify.service.TransactionService;
+import com.trustify.service.TrendingService;
+import com.trustify.util.ETags;
+import com.trustify.util.KeysetCursor;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 @Service
 @RequiredArgsConstructor
 public class TransactionServiceImpl implements TransactionService {
 
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+    // newest first, _id breaks ties; the order both history indexes are read in
+    private static final Comparator<Transaction> HISTORY_ORDER = Comparator
+            .comparing(Transaction::getCreatedAt, Comparator.reverseOrder())
+            .thenComparing(Transaction::getId, Comparator.reverseOrder());
+
     private final TransactionRepository transactionRepository;
-    private final PaymentEventRepository eventRepository;
     private final DisputeRepository disputeRepository;
-    private final TimelineLogService timelineLogService;
-    private final FraudService fraudService;
+    private final TransactionOutbox transactionOutbox;
     private final UserRepository userRepository;
-
-    @Value("${STRIPE_SECRET_KEY}")
-    private String stripeSecret;
+    private final TrendingService trendingService;
+    private final StripeGateway stripeGateway;
+    private final EscrowStateMachine escrowStateMachine;
+    private final EscrowSummaryService escrowSummaryService;
 
 
     // ---------- create & authorize ----------
     @Override
-    public CreateTransactionResult createAndAuthorize(CreateTransactionRequest req) {
-
-        Stripe.apiKey = stripeSecret;
+    public CreateTransactionResult createAndAuthorize(CreateTransactionRequest req, String stripeIdempotencyKey) {
 
         // FRAUD SCORE + RATING SYSTEM - simple checks based on buyer/seller history and attributes; in a real system.
         User buyer = userRepository.findById(req.getBuyerId()).orElseThrow();
@@ -68,25 +75,17 @@ public class TransactionServiceImpl implements TransactionService {
                     .updatedAt(Instant.now())
                     .build();
 
-            transactionRepository.save(tx);
-
-            PaymentEvent ev = PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .type("MANUAL_REVIEW")
-                    .actor("SYSTEM")
-                    .createdAt(Instant.now())
-                    .build();
-            eventRepository.save(ev);
-
-            // Timeline Log for manual review
-            timelineLogService.log(
-                    tx.getId(),
-                    req.getBuyerId(),
-                    null,
-                    "Transaction moved to manual review due to risk",
-                    TimelineLog.ActionType.ADMIN_OVERRIDE,
-                    TimelineLog.ActorType.SYSTEM
-            );
+            transactionOutbox.commit(tx,
+                    OutboxMessage.paymentEvent("MANUAL_REVIEW", "SYSTEM", null),
+                    // Timeline Log for manual review
+                    OutboxMessage.timeline(
+                            req.getBuyerId(),
+                            null,
+                            "Transaction moved to manual review due to risk",
+                            TimelineLog.ActionType.ADMIN_OVERRIDE,
+                            TimelineLog.ActorType.SYSTEM
+                    ));
+            escrowSummaryService.onCreated(tx);
 
             throw new RuntimeException("Transaction placed on manual review");
         }
@@ -104,7 +103,7 @@ public class TransactionServiceImpl implements TransactionService {
                             .putMetadata("sellerId", req.getSellerId())
                             .build();
 
-            PaymentIntent pi = PaymentIntent.create(params);
+            PaymentIntent pi = stripeGateway.createPaymentIntent(params, stripeKey(stripeIdempotencyKey, "create"));
 
             Transaction tx = Transaction.builder()
                     .listingId(req.getListingId())
@@ -121,37 +120,25 @@ public class TransactionServiceImpl implements TransactionService {
                     .updatedAt(Instant.now())
                     .build();
 
-            transactionRepository.save(tx);
-
-            eventRepository.save(
-                    PaymentEvent.builder()
-                            .transactionId(tx.getId())
-                            .stripeObjectId(pi.getId())
-                            .type("PAYMENT_INTENT_CREATED")
-                            .actor("SYSTEM")
-                            .createdAt(Instant.now())
-                            .build()
-            );
-
-
-            // TIMELINELOG SERVICE: log transaction creation and payment initiation
-            timelineLogService.log(
-                    tx.getId(),
-                    null,
-                    "SYSTEM",
-                    "Stripe PaymentIntent created",
-                    TimelineLog.ActionType.PAYMENT_INITIATED,
-                    TimelineLog.ActorType.SYSTEM
-            );
-
-            timelineLogService.log(
-                    tx.getId(),
-                    req.getBuyerId(),
-                    null,
-                    "Transaction created and payment initiated",
-                    TimelineLog.ActionType.TRANSACTION_CREATED,
-                    TimelineLog.ActorType.USER
-            );
+            transactionOutbox.commit(tx,
+                    OutboxMessage.paymentEvent("PAYMENT_INTENT_CREATED", "SYSTEM", pi.getId()),
+                    // TIMELINELOG SERVICE: log transaction creation and payment initiation
+                    OutboxMessage.timeline(
+                            null,
+                            "SYSTEM",
+                            "Stripe PaymentIntent created",
+                            TimelineLog.ActionType.PAYMENT_INITIATED,
+                            TimelineLog.ActorType.SYSTEM
+                    ),
+                    OutboxMessage.timeline(
+                            req.getBuyerId(),
+                            null,
+                            "Transaction created and payment initiated",
+                            TimelineLog.ActionType.TRANSACTION_CREATED,
+                            TimelineLog.ActorType.USER
+                    ));
+            escrowSummaryService.onCreated(tx);
+            trendingService.recordTransactionStarted(tx.getListingId());
 
             // ✅ Return wrapper (Transaction + clientSecret)
             return new CreateTransactionResult(
@@ -166,42 +153,27 @@ public class TransactionServiceImpl implements TransactionService {
     // ---------------- Request Release (Step 1) ----------------
     @Override
     public void requestRelease(String id, String userId, String note) {
-        Transaction tx = getTransaction(id);
-        if (!tx.getBuyerId().equals(userId)) throw new RuntimeException("Only buyer can request release");
-        if (!tx.getStatus().equals(Transaction.TransactionStatus.AUTHORIZED)) {
-            throw new RuntimeException("Transaction not in authorized state");
-        }
-
-        tx.setStatus(Transaction.TransactionStatus.PENDING_RELEASE);
-        tx.setReleaseRequestedAt(Instant.now());
-        tx.setReleaseRequestedBy(userId);
-        tx.setReleaseRequestedNote(note);
-        transactionRepository.save(tx);
-
-        eventRepository.save(PaymentEvent.builder()
-                .transactionId(tx.getId())
-                .type("RELEASE_REQUESTED")
-                .actor(userId)
-                .createdAt(Instant.now())
-                .build()
-        );
-
-        // Timeline Log for release request
-        timelineLogService.log(
-                tx.getId(),
-                userId,
-                null,
-                "Buyer requested payment release",
-                TimelineLog.ActionType.PAYMENT_HELD,
-                TimelineLog.ActorType.USER
-        );
+        escrowStateMachine.transition(id, EscrowTransition.REQUEST_RELEASE)
+                .guard(Criteria.where("buyerId").is(userId), "Only buyer can request release")
+                .set("releaseRequestedAt", Instant.now())
+                .set("releaseRequestedBy", userId)
+                .set("releaseRequestedNote", note)
+                .emit(OutboxMessage.paymentEvent("RELEASE_REQUESTED", userId, null),
+                        // Timeline Log for release request
+                        OutboxMessage.timeline(
+                                userId,
+                                null,
+                                "Buyer requested payment release",
+                                TimelineLog.ActionType.PAYMENT_HELD,
+                                TimelineLog.ActorType.USER
+                        ))
+                .apply();
         // TODO: enqueue email notification to seller
     }
 
     // ---------------- Confirm Release (Step 2) ----------------
     @Override
-    public CaptureResponse capture(String transactionId, String actorUserId, Long amountToCaptureCents) {
-        Stripe.apiKey = stripeSecret;
+    public CaptureResponse capture(String transactionId, String actorUserId, Long amountToCaptureCents, String stripeIdempotencyKey) {
         Transaction tx = transactionRepository.findById(transactionId)
                 .orElseThrow(() -> new RuntimeException("Transaction not found"));
 
@@ -215,11 +187,7 @@ public class TransactionServiceImpl implements TransactionService {
             throw new RuntimeException("Buyer has not accepted conditions yet");
         }
 
-        if (!tx.getStatus().equals(Transaction.TransactionStatus.PENDING_RELEASE) &&
-                !tx.getStatus().equals(Transaction.TransactionStatus.AUTHORIZED) &&
-                !tx.getStatus().equals(Transaction.TransactionStatus.PARTIALLY_RELEASED)) {
-            throw new RuntimeException("Transaction not in releasable state");
-        }
+        EscrowTransition.CAPTURE.check(tx.getStatus());
 
         if (tx.getStripePaymentIntentId() == null) {
             throw new RuntimeException("No payment intent present");
@@ -230,7 +198,7 @@ public class TransactionServiceImpl implements TransactionService {
                     .addExpand("charges")
                     .build();
 
-            PaymentIntent pi = PaymentIntent.retrieve(tx.getStripePaymentIntentId(), retrieveParams, null);
+            PaymentIntent pi = stripeGateway.retrievePaymentIntent(tx.getStripePaymentIntentId(), retrieveParams);
 
             PaymentIntent captured;
             if ("requires_capture".equals(pi.getStatus())) {
@@ -245,13 +213,13 @@ public class TransactionServiceImpl implements TransactionService {
                     capBuilder.setAmountToCapture(amountToCaptureCents);
                 }
 
-                captured = pi.capture(capBuilder.build());
+                captured = stripeGateway.capturePaymentIntent(pi.getId(), capBuilder.build(), stripeKey(stripeIdempotencyKey, "capture"));
             } else {
                 if ("requires_confirmation".equals(pi.getStatus())) {
                     PaymentIntentConfirmParams confirmParams = PaymentIntentConfirmParams.builder()
                             .setPaymentMethod(pi.getPaymentMethod())
                             .build();
-                    pi = pi.confirm(confirmParams);
+                    pi = stripeGateway.confirmPaymentIntent(pi.getId(), confirmParams, stripeKey(stripeIdempotencyKey, "confirm"));
                 }
                 captured = pi;
             }
@@ -262,51 +230,50 @@ public class TransactionServiceImpl implements TransactionService {
                     (captured.getLatestChargeObject() != null ? captured.getLatestChargeObject().getId() : null);
             if (chargeId == null) throw new RuntimeException("Stripe did not return a charge ID after capture");
 
-            // Save captured details
-            tx.setStripeChargeId(chargeId);
-            tx.setAmountCapturedCents(capturedAmount);
-            tx.setStatus(capturedAmount < tx.getAuthorizedAmountCents() ? Transaction.TransactionStatus.PARTIALLY_RELEASED : Transaction.TransactionStatus.RELEASED);
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
+            // Save captured details, unless the transaction left a releasable state meanwhile (e.g. a dispute)
+            Transaction.TransactionStatus released = capturedAmount < tx.getAuthorizedAmountCents()
+                    ? Transaction.TransactionStatus.PARTIALLY_RELEASED : Transaction.TransactionStatus.RELEASED;
+            Transaction updated = escrowStateMachine.transition(tx.getId(), EscrowTransition.CAPTURE)
+                    .to(released)
+                    .set("stripeChargeId", chargeId)
+                    .set("amountCapturedCents", capturedAmount)
+                    .emit(// fraud score + rating
+                            OutboxMessage.fraudReward(OutboxMessage.Party.SELLER),
+                            OutboxMessage.fraudReward(OutboxMessage.Party.BUYER),
+                            OutboxMessage.paymentEvent("CAPTURED", actorUserId, captured.getId()),
+                            // TIMELINE LOG FOR CAPTURE
+                            OutboxMessage.timeline(
+                                    actorUserId,
+                                    null,
+                                    "Payment captured and released to seller",
+                                    TimelineLog.ActionType.PAYMENT_RELEASED,
+                                    TimelineLog.ActorType.USER
+                            ))
+                    .applyIfAllowed();
+            if (updated == null) {
+                // the money has moved: keep the charge on record and leave the status to whoever changed it
+                escrowStateMachine.update(tx.getId(), null, new Update()
+                        .set("stripeChargeId", chargeId)
+                        .set("amountCapturedCents", capturedAmount)
+                        .set("reviewReason", "Captured after the status changed"));
+                throw new RuntimeException("Payment captured, but the transaction changed meanwhile; it needs review");
+            }
+            tx = updated;
 
             // Handle Transfer minus platform fees
             long platformFeeCents = tx.getPlatformFeeCents() != null ? tx.getPlatformFeeCents() : 0;
             long amountToTransfer = capturedAmount - platformFeeCents;
 
             if (tx.getSellerStripeAccountId() != null && amountToTransfer > 0) {
-                Map<String, Object> transferParams = new HashMap<>();
-                transferParams.put("amount", amountToTransfer);
-                transferParams.put("currency", tx.getCurrency());
-                transferParams.put("destination", tx.getSellerStripeAccountId());
-                Transfer transfer = Transfer.create(transferParams);
-                // Optional: tx.setStripeTransferId(transfer.getId());
-                transactionRepository.save(tx);
+                TransferCreateParams transferParams = TransferCreateParams.builder()
+                        .setAmount(amountToTransfer)
+                        .setCurrency(tx.getCurrency())
+                        .setDestination(tx.getSellerStripeAccountId())
+                        .build();
+                Transfer transfer = stripeGateway.createTransfer(transferParams, stripeKey(stripeIdempotencyKey, "transfer"));
+                // Optional: tx.setStripeTransferId(transfer.getId()); transactionOutbox.commit(tx);
             }
 
-
-            // fraud score + rating
-            fraudService.rewardUser(tx.getSellerId());
-            fraudService.rewardUser(tx.getBuyerId());
-
-            eventRepository.save(PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .stripeObjectId(captured.getId())
-                    .type("CAPTURED")
-                    .actor(actorUserId)
-                    .createdAt(Instant.now())
-                    .build()
-            );
-
-            // TIMELINE LOG FOR CAPTURE
-            timelineLogService.log(
-                    tx.getId(),
-                    actorUserId,
-                    null,
-                    "Payment captured and released to seller",
-                    TimelineLog.ActionType.PAYMENT_RELEASED,
-                    TimelineLog.ActorType.USER
-            );
-
             return new CaptureResponse(tx.getId(), captured.getId(), chargeId, tx.getStatus().name());
 
         } catch (StripeException e) {
@@ -314,43 +281,50 @@ public class TransactionServiceImpl implements TransactionService {
         }
     }
 
+    // one Stripe key per call of a request, so capture and transfer of the same request do not collide
+    private static String stripeKey(String idempotencyKey, String call) {
+        return idempotencyKey != null ? idempotencyKey + "-" + call : null;
+    }
+
     // ---------- refund ----------
     @Override
     public void refund(String transactionId, Long amountCents) {
-        Stripe.apiKey = stripeSecret;
         Transaction tx = transactionRepository.findById(transactionId)
                 .orElseThrow(() -> new RuntimeException("Transaction not found"));
 
         if (tx.getStripeChargeId() == null) throw new RuntimeException("No charge to refund");
+        EscrowTransition.REFUND.check(tx.getStatus());
 
         try {
             RefundCreateParamsBuilder builder = new RefundCreateParamsBuilder(tx.getStripeChargeId());
             if (amountCents != null) builder.setAmount(amountCents);
 
-            Refund refund = Refund.create(builder.build());
-
-            tx.setStatus(Transaction.TransactionStatus.REFUNDED);
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
-
-            PaymentEvent ev = PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .stripeObjectId(refund.getId())
-                    .type("REFUND")
-                    .actor("ADMIN")
-                    .createdAt(Instant.now())
-                    .build();
-            eventRepository.save(ev);
-
-            // TIMELINE LOG FOR REFUND
-            timelineLogService.log(
-                    tx.getId(),
-                    "ADMIN",
-                    "ADMIN",
-                    "Refund issued to buyer",
-                    TimelineLog.ActionType.REFUND_ISSUED,
-                    TimelineLog.ActorType.ADMIN
-            );
+            // a transaction is refunded once; the amount is in the key so a retry with another
+            // amount is a new refund rather than a replay of the first one
+            String refundKey = "refund-" + tx.getId() + "-" + (amountCents != null ? amountCents : "full");
+            Refund refund = stripeGateway.createRefund(builder.build(), stripeKey(refundKey, "refund"));
+
+            Transaction updated = escrowStateMachine.transition(tx.getId(), EscrowTransition.REFUND)
+                    .set("stripeRefundId", refund.getId())
+                    .set("amountRefundedCents", refund.getAmount())
+                    .emit(OutboxMessage.paymentEvent("REFUND", "ADMIN", refund.getId()),
+                            // TIMELINE LOG FOR REFUND
+                            OutboxMessage.timeline(
+                                    "ADMIN",
+                                    "ADMIN",
+                                    "Refund issued to buyer",
+                                    TimelineLog.ActionType.REFUND_ISSUED,
+                                    TimelineLog.ActorType.ADMIN
+                            ))
+                    .applyIfAllowed();
+            if (updated == null) {
+                // the money is back with the buyer: keep the refund on record and leave the status to whoever changed it
+                escrowStateMachine.update(tx.getId(), null, new Update()
+                        .set("stripeRefundId", refund.getId())
+                        .set("amountRefundedCents", refund.getAmount())
+                        .set("reviewReason", "Refunded after the status changed"));
+                throw new RuntimeException("Refund issued, but the transaction changed meanwhile; it needs review");
+            }
 
         } catch (StripeException e) {
             throw new RuntimeException("Stripe refund failed: " + e.getMessage(), e);
@@ -362,16 +336,32 @@ public class TransactionServiceImpl implements TransactionService {
     // =====================================================
     @Override
     public void openDispute(String txId, String userId, DisputeRequest req) {
-        Transaction tx = getTransaction(txId);
-        if (!tx.getBuyerId().equals(userId)) throw new RuntimeException("Only buyer can open dispute");
         // ADMIN OVERRIDE + DISPUTE
         if (disputeRepository.findByTransactionId(txId).isPresent()) {
             throw new RuntimeException("Dispute already exists");
         }
 
+        // ✅ Update transaction status first: it locks the transaction against capture
+        escrowStateMachine.transition(txId, EscrowTransition.OPEN_DISPUTE)
+                .guard(Criteria.where("buyerId").is(userId), "Only buyer can open dispute")
+                .emit(// Fraud Score + Rating
+                        OutboxMessage.fraudPenalty(OutboxMessage.Party.SELLER),
+                        // notify admin
+                        // ✅ Optional: notify admin (can be email or dashboard flag)
+                        OutboxMessage.paymentEvent("DISPUTE_OPENED", userId, null),
+                        // TIMELINE LOG FOR DISPUTE OPENED
+                        OutboxMessage.timeline(
+                                userId,
+                                null,
+                                "Buyer opened a dispute",
+                                TimelineLog.ActionType.DISPUTE_RAISED,
+                                TimelineLog.ActorType.USER
+                        ))
+                .apply();
+
         // ✅ Save dispute to DB
         Dispute dispute = Dispute.builder()
-                .transactionId(tx.getId())
+                .transactionId(txId)
                 .openedBy(userId)
                 .reason(req.getReason())
                 .evidence(req.getEvidence())
@@ -379,188 +369,152 @@ public class TransactionServiceImpl implements TransactionService {
                 .createdAt(Instant.now())
                 .build();
         disputeRepository.save(dispute);
-
-        // Fraud Score + Rating
-        fraudService.penalizeUser(tx.getSellerId());
-
-        // ✅ Update transaction status
-        tx.setStatus(Transaction.TransactionStatus.PENDING_DISPUTE);
-        transactionRepository.save(tx);
-
-        // notify admin
-        // ✅ Optional: notify admin (can be email or dashboard flag)
-        eventRepository.save(PaymentEvent.builder()
-                .transactionId(tx.getId())
-                .type("DISPUTE_OPENED")
-                .actor(userId)
-                .createdAt(Instant.now())
-                .build()
-        );
-
-        // TIMELINE LOG FOR DISPUTE OPENED
-        timelineLogService.log(
-                tx.getId(),
-                userId,
-                null,
-                "Buyer opened a dispute",
-                TimelineLog.ActionType.DISPUTE_RAISED,
-                TimelineLog.ActorType.USER
-        );
     }
 
     @Override
     public void adminResolveDispute(String transactionId, String adminUserId, ResolveDisputeRequest req) {
         Transaction tx = getTransaction(transactionId);
 
-        if (!tx.getStatus().equals(Transaction.TransactionStatus.PENDING_DISPUTE)) {
-            throw new RuntimeException("Transaction not in dispute state");
-        }
+        EscrowTransition.RESOLVE_DISPUTE.check(tx.getStatus());
 
         Dispute dispute = disputeRepository.findByTransactionId(transactionId)
                 .orElseThrow(() -> new RuntimeException("Dispute not found for transaction"));
 
         Long deductionCents = req.getDeductionCents() != null ? req.getDeductionCents() : 0L;
         Long platformFeeCents = tx.getPlatformFeeCents() != null ? tx.getPlatformFeeCents() : 0L;
+        long capturedCents = tx.getAmountCapturedCents() != null ? tx.getAmountCapturedCents() : 0L;
+
+        Transaction.TransactionStatus resolved = switch (req.getDecision() == null ? "" : req.getDecision()) {
+            case "REFUND_BUYER" -> Transaction.TransactionStatus.REFUNDED;
+            case "RELEASE_SELLER" -> Transaction.TransactionStatus.COMPLETED;
+            case "PARTIAL" -> Transaction.TransactionStatus.PARTIALLY_RELEASED;
+            default -> throw new RuntimeException("Invalid decision");
+        };
+
+        List<OutboxMessage> messages = new ArrayList<>();
+
+        // Fraud score + Rating
+        if(req.getDecision().equals("REFUND_BUYER")){
+            messages.add(OutboxMessage.fraudPenalty(OutboxMessage.Party.SELLER));
+        }else if(req.getDecision().equals("RELEASE_SELLER")){
+            messages.add(OutboxMessage.fraudReward(OutboxMessage.Party.SELLER));
+        }
 
+        // Log event
+        messages.add(OutboxMessage.paymentEvent("DISPUTE_RESOLVED" + req.getDecision(), adminUserId, null));
+
+        // TIMELINE LOG FOR DISPUTE RESOLVED
+        messages.add(OutboxMessage.timeline(
+                adminUserId,
+                null,
+                "Admin resolved dispute" + req.getDecision(),
+                TimelineLog.ActionType.DISPUTE_RESOLVED,
+                TimelineLog.ActorType.ADMIN
+        ));
+
+        // claim the resolution before any money moves: of two concurrent resolutions only one
+        // still finds PENDING_DISPUTE, the other is rejected here without touching Stripe
+        escrowStateMachine.transition(tx.getId(), EscrowTransition.RESOLVE_DISPUTE)
+                .to(resolved)
+                .emit(messages.toArray(new OutboxMessage[0]))
+                .apply();
+
+        // one key per payout, so a retried Stripe call cannot pay twice
+        String stripeKey = "dispute-" + tx.getId();
         try {
-            switch(req.getDecision()){
+            switch(resolved){
 
                 // 🔴 CASE 1: FULL REFUND TO BUYER
-                case "REFUND_BUYER":
+                case REFUNDED:
 
                     if (tx.getStripeChargeId() != null) {
                         RefundCreateParams params = RefundCreateParams.builder()
                                 .setCharge(tx.getStripeChargeId())
-                                .setAmount(tx.getAmountCapturedCents())
+                                .setAmount(capturedCents)
                                 .build();
-                        Refund.create(params);
+                        stripeGateway.createRefund(params, stripeKey(stripeKey, "refund"));
                     }
-
-                    tx.setStatus(Transaction.TransactionStatus.REFUNDED);
                     break;
 
 
                 // 🟢 CASE 2: RELEASE FULL TO SELLER
-                case "RELEASE_SELLER":
+                case COMPLETED:
 
-                    long fullAmount = tx.getAmountCapturedCents() - platformFeeCents;
+                    long fullAmount = capturedCents - platformFeeCents;
 
                     if (tx.getSellerStripeAccountId() != null && fullAmount > 0) {
-                        Transfer.create(Map.of(
-                                "amount", fullAmount,
-                                "currency", tx.getCurrency(),
-                                "destination", tx.getSellerStripeAccountId()
-                        ));
+                        stripeGateway.createTransfer(TransferCreateParams.builder()
+                                .setAmount(fullAmount)
+                                .setCurrency(tx.getCurrency())
+                                .setDestination(tx.getSellerStripeAccountId())
+                                .build(), stripeKey(stripeKey, "transfer"));
                     }
-
-                    tx.setStatus(Transaction.TransactionStatus.COMPLETED);
                     break;
 
                 // 🟡 CASE 3: PARTIAL SPLIT
-                case "PARTIAL":
+                default:
 
-                    long refundAmount = tx.getAmountCapturedCents() - deductionCents;
+                    long refundAmount = capturedCents - deductionCents;
 
                     // refund buyer
                     if (refundAmount > 0 && tx.getStripeChargeId() != null) {
-                        Refund.create(RefundCreateParams.builder()
+                        stripeGateway.createRefund(RefundCreateParams.builder()
                                 .setCharge(tx.getStripeChargeId())
                                 .setAmount(refundAmount)
-                                .build());
+                                .build(), stripeKey(stripeKey, "refund"));
                     }
 
                     // pay seller
                     long sellerAmount = deductionCents - platformFeeCents;
 
                     if (tx.getSellerStripeAccountId() != null && sellerAmount > 0) {
-                        Transfer.create(Map.of(
-                                "amount", sellerAmount,
-                                "currency", tx.getCurrency(),
-                                "destination", tx.getSellerStripeAccountId()
-                        ));
+                        stripeGateway.createTransfer(TransferCreateParams.builder()
+                                .setAmount(sellerAmount)
+                                .setCurrency(tx.getCurrency())
+                                .setDestination(tx.getSellerStripeAccountId())
+                                .build(), stripeKey(stripeKey, "transfer"));
                     }
-
-                    tx.setStatus(Transaction.TransactionStatus.PARTIALLY_RELEASED);
                     break;
-
-                default:
-                    throw (new RuntimeException("Invalid decision"));
             }
-
-            // 3️⃣ Update transaction and save
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
-
-            // Fraud score + Rating
-            if(req.getDecision().equals("REFUND_BUYER")){
-                fraudService.penalizeUser(tx.getSellerId());
-            }else if(req.getDecision().equals("RELEASE_SELLER")){
-                fraudService.rewardUser(tx.getSellerId());
-            }
-
-            // ADMIN OVERRIDE + DISPUTE
-            // ✅ Update dispute (THIS WAS MISSING 🔥)
-            dispute.setStatus("RESOLVED");
+        } catch (StripeException | RuntimeException e) {
+            // the resolution is recorded but the payout is not complete: keep that on the dispute for review;
+            // an open breaker or full bulkhead (StripeUnavailableException) leaves it just as unpaid
+            dispute.setStatus("PAYOUT_FAILED");
             dispute.setResolvedAt(Instant.now());
             dispute.setResolvedBy(adminUserId);
             dispute.setResolutionNote(req.getAdminNote());
             dispute.setDecision(req.getDecision());
-            dispute.setRefundAmountCents(tx.getAmountCapturedCents());
             disputeRepository.save(dispute);
-
-            // 4️⃣ Log event
-            eventRepository.save(PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .type("DISPUTE_RESOLVED" + req.getDecision())
-                    .actor(adminUserId)
-                    .createdAt(Instant.now())
-                    .build()
-            );
-
-            // TIMELINE LOG FOR DISPUTE RESOLVED
-            timelineLogService.log(
-                    tx.getId(),
-                    adminUserId,
-                    null,
-                    "Admin resolved dispute" + req.getDecision(),
-                    TimelineLog.ActionType.DISPUTE_RESOLVED,
-                    TimelineLog.ActorType.ADMIN
-            );
-
-        } catch (StripeException e) {
-            throw new RuntimeException("Stripe operation failed: " + e.getMessage(), e);
+            throw new RuntimeException("Dispute resolved, but the Stripe payout failed; it needs review: " + e.getMessage(), e);
         }
+
+        // ADMIN OVERRIDE + DISPUTE
+        // ✅ Update dispute (THIS WAS MISSING 🔥)
+        dispute.setStatus("RESOLVED");
+        dispute.setResolvedAt(Instant.now());
+        dispute.setResolvedBy(adminUserId);
+        dispute.setResolutionNote(req.getAdminNote());
+        dispute.setDecision(req.getDecision());
+        dispute.setRefundAmountCents(tx.getAmountCapturedCents());
+        disputeRepository.save(dispute);
     }
 
 
     // ---------- webhook handlers ----------
     @Override
     public void handlePaymentIntentSucceeded(String paymentIntentId) {
-        Optional<Transaction> opt = transactionRepository.findByStripePaymentIntentId(paymentIntentId);
-        opt.ifPresent(tx -> {
-            tx.setStatus(Transaction.TransactionStatus.AUTHORIZED);
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
-
-            PaymentEvent ev = PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .stripeObjectId(paymentIntentId)
-                    .type("PI_SUCCEEDED")
-                    .actor("SYSTEM")
-                    .createdAt(Instant.now())
-                    .build();
-            eventRepository.save(ev);
-
-            // TIMELINE LOG FOR PAYMENT SUCCESS
-            timelineLogService.log(
-                    tx.getId(),
-                    null,
-                    "SYSTEM",
-                    "Payment authorized by Stripe",
-                    TimelineLog.ActionType.PAYMENT_AUTHORIZED,
-                    TimelineLog.ActorType.SYSTEM
-            );
-        });
+        // webhooks can be replayed from the inbox: the transition table never moves a transaction back
+        escrowStateMachine.transitionByPaymentIntent(paymentIntentId, EscrowTransition.AUTHORIZE)
+                .emit(OutboxMessage.paymentEvent("PI_SUCCEEDED", "SYSTEM", paymentIntentId),
+                        // TIMELINE LOG FOR PAYMENT SUCCESS
+                        OutboxMessage.timeline(
+                                null,
+                                "SYSTEM",
+                                "Payment authorized by Stripe",
+                                TimelineLog.ActionType.PAYMENT_AUTHORIZED,
+                                TimelineLog.ActorType.SYSTEM
+                        ))
+                .applyIfAllowed();
 
         // Note: actual capture happens in our manual flow, not automatically on PI success, so we don't change to RELEASED here.
 
@@ -568,79 +522,51 @@ public class TransactionServiceImpl implements TransactionService {
 
     @Override
     public void handlePaymentIntentCancelled(String paymentIntentId) {
-        Optional<Transaction> opt = transactionRepository.findByStripePaymentIntentId(paymentIntentId);
-        opt.ifPresent(tx -> {
-            tx.setStatus(Transaction.TransactionStatus.CANCELLED);
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
-
-            PaymentEvent ev = PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .stripeObjectId(paymentIntentId)
-                    .type("PI_CANCELLED")
-                    .actor("SYSTEM")
-                    .createdAt(Instant.now())
-                    .build();
-            eventRepository.save(ev);
-
-            // TIMELINE LOG FOR PAYMENT CANCELLED
-            timelineLogService.log(
-                    tx.getId(),
-                    null,
-                    "SYSTEM",
-                    "Payment cancelled",
-                    TimelineLog.ActionType.TRANSACTION_COMPLETED,
-                    TimelineLog.ActorType.SYSTEM
-            );
-        });
+        // only while the money is still held; a replay must not cancel a released or refunded transaction
+        escrowStateMachine.transitionByPaymentIntent(paymentIntentId, EscrowTransition.CANCEL_BY_STRIPE)
+                .emit(OutboxMessage.paymentEvent("PI_CANCELLED", "SYSTEM", paymentIntentId),
+                        // TIMELINE LOG FOR PAYMENT CANCELLED
+                        OutboxMessage.timeline(
+                                null,
+                                "SYSTEM",
+                                "Payment cancelled",
+                                TimelineLog.ActionType.TRANSACTION_COMPLETED,
+                                TimelineLog.ActorType.SYSTEM
+                        ))
+                .applyIfAllowed();
     }
 
     // -------------------- Rental-specific methods --------------------
 
     public void startRental(String transactionId, String userEmail) {
-        Transaction tx = getTransaction(transactionId);
-
-        if (!tx.getBuyerAcceptedCondition()) {
-            throw new RuntimeException("Accept condition first");
-        }
-
-        if (!tx.getBuyerId().equals(userEmail)) {
-            throw new RuntimeException("Only renter can start rental");
-        }
-        tx.setRenterPickedUp(true);
-        tx.setStatus(Transaction.TransactionStatus.RENTAL_IN_PROGRESS);
-        transactionRepository.save(tx);
-
-        // TIMELINE LOG FOR RENTAL STARTED
-        timelineLogService.log(
-                tx.getId(),
-                userEmail,
-                userEmail,
-                "Item picked up by renter",
-                TimelineLog.ActionType.RENTAL_STARTED,
-                TimelineLog.ActorType.USER
-        );
+        escrowStateMachine.transition(transactionId, EscrowTransition.START_RENTAL)
+                .guard(Criteria.where("buyerAcceptedCondition").is(true), "Accept condition first")
+                .guard(Criteria.where("buyerId").is(userEmail), "Only renter can start rental")
+                .set("renterPickedUp", true)
+                .emit(// TIMELINE LOG FOR RENTAL STARTED
+                        OutboxMessage.timeline(
+                                userEmail,
+                                userEmail,
+                                "Item picked up by renter",
+                                TimelineLog.ActionType.RENTAL_STARTED,
+                                TimelineLog.ActorType.USER
+                        ))
+                .apply();
     }
 
     public void completeRental(String transactionId, String userEmail) {
-        Transaction tx = getTransaction(transactionId);
-        if (!tx.getBuyerId().equals(userEmail)) {
-            throw new RuntimeException("Only renter can complete rental");
-        }
-        tx.setRenterReturned(true);
-        tx.setStatus(Transaction.TransactionStatus.RENTAL_RETURNED);
-        transactionRepository.save(tx);
-
-        // TIMELINE LOG FOR RENTAL COMPLETED
-        timelineLogService.log(
-                tx.getId(),
-                userEmail,
-                userEmail,
-                "Item returned by renter",
-                TimelineLog.ActionType.RENTAL_RETURNED,
-                TimelineLog.ActorType.USER
-
-        );
+        escrowStateMachine.transition(transactionId, EscrowTransition.COMPLETE_RENTAL)
+                .guard(Criteria.where("buyerId").is(userEmail), "Only renter can complete rental")
+                .set("renterReturned", true)
+                .emit(// TIMELINE LOG FOR RENTAL COMPLETED
+                        OutboxMessage.timeline(
+                                userEmail,
+                                userEmail,
+                                "Item returned by renter",
+                                TimelineLog.ActionType.RENTAL_RETURNED,
+                                TimelineLog.ActorType.USER
+                        ))
+                .apply();
     }
 
     /**
@@ -667,8 +593,7 @@ public class TransactionServiceImpl implements TransactionService {
                 // capture the damage amount from the AUTHORIZED PI
                 this.capture(transactionId, "SYSTEM", damageAmountCents);
 
-                // after capture, tx in DB will have stripeChargeId and amountCapturedCents
-                tx = getTransaction(transactionId); // refresh
+                // after capture, tx in DB has stripeChargeId and amountCapturedCents; refund reads it from there
             } else {
                 // If charge already exists and you need to take money from the charge,
                 // you should create a refund of the remaining amount to buyer and/or transfer as needed.
@@ -683,27 +608,17 @@ public class TransactionServiceImpl implements TransactionService {
                 this.refund(transactionId, refundAmount);
             }
 
-            tx.setStatus(Transaction.TransactionStatus.DAMAGE_RESOLVED);
-            tx.setUpdatedAt(Instant.now());
-            transactionRepository.save(tx);
-
-            eventRepository.save(PaymentEvent.builder()
-                    .transactionId(tx.getId())
-                    .type("DAMAGE_DEDUCTED")
-                    .actor("SYSTEM")
-                    .createdAt(Instant.now())
-                    .build()
-            );
-
-            // TIMELINE LOG FOR DAMAGE DEDUCTED
-            timelineLogService.log(
-                    tx.getId(),
-                    null,
-                    "SYSTEM",
-                    "Damage reported and amount deducted",
-                    TimelineLog.ActionType.DAMAGE_REPORTED,
-                    TimelineLog.ActorType.SYSTEM
-            );
+            escrowStateMachine.transition(transactionId, EscrowTransition.RESOLVE_DAMAGE)
+                    .emit(OutboxMessage.paymentEvent("DAMAGE_DEDUCTED", "SYSTEM", null),
+                            // TIMELINE LOG FOR DAMAGE DEDUCTED
+                            OutboxMessage.timeline(
+                                    null,
+                                    "SYSTEM",
+                                    "Damage reported and amount deducted",
+                                    TimelineLog.ActionType.DAMAGE_REPORTED,
+                                    TimelineLog.ActorType.SYSTEM
+                            ))
+                    .apply();
 
         } catch (RuntimeException e) {
             throw e; // bubble up
@@ -713,44 +628,24 @@ public class TransactionServiceImpl implements TransactionService {
     //  ======= CONDITION ACCEPTANCE =============
     @Override
     public void acceptedConditions(String transactionId, String buyerId) {
-        Transaction tx = getTransaction(transactionId);
-
-        // only buyer can accept conditions; in a real implementation, you would also check that the conditions being accepted are valid for this transaction
-        if(!tx.getBuyerId().equals(buyerId)){
-            throw new RuntimeException("Only buyer can accept conditions");
-        }
-
-        // Prevent double acceptance
-        if(Boolean.TRUE.equals(tx.getBuyerAcceptedCondition())){
-            throw new RuntimeException("Conditions already accepted");
-        }
-
-        // Must be in correct state to accept conditions (e.g. PENDING)
-        if(!tx.getStatus().equals(Transaction.TransactionStatus.AUTHORIZED)){
-            throw new RuntimeException("Transaction not in a state to accept conditions");
-        }
-
-        tx.setBuyerAcceptedCondition(true);
-        tx.setConditionAcceptedAt(Instant.now());
-        transactionRepository.save(tx);
-
-        eventRepository.save(PaymentEvent.builder()
-                .transactionId(tx.getId())
-                .type("CONDITION_ACCEPTED")
-                .actor(buyerId)
-                .createdAt(Instant.now())
-                .build()
-        );
-
-        // Timeline log service
-        timelineLogService.log(
-                tx.getId(),
-                buyerId,
-                null,
-                "Buyer accepted conditions",
-                TimelineLog.ActionType.CONDITION_ACCEPTED,
-                TimelineLog.ActorType.USER
-        );
+        // Must be in correct state to accept conditions (AUTHORIZED, checked by the transition)
+        escrowStateMachine.transition(transactionId, EscrowTransition.ACCEPT_CONDITIONS)
+                // only buyer can accept conditions; in a real implementation, you would also check that the conditions being accepted are valid for this transaction
+                .guard(Criteria.where("buyerId").is(buyerId), "Only buyer can accept conditions")
+                // Prevent double acceptance
+                .guard(Criteria.where("buyerAcceptedCondition").ne(true), "Conditions already accepted")
+                .set("buyerAcceptedCondition", true)
+                .set("conditionAcceptedAt", Instant.now())
+                .emit(OutboxMessage.paymentEvent("CONDITION_ACCEPTED", buyerId, null),
+                        // Timeline log service
+                        OutboxMessage.timeline(
+                                buyerId,
+                                null,
+                                "Buyer accepted conditions",
+                                TimelineLog.ActionType.CONDITION_ACCEPTED,
+                                TimelineLog.ActorType.USER
+                        ))
+                .apply();
     }
 
     /**
@@ -771,27 +666,17 @@ public class TransactionServiceImpl implements TransactionService {
             this.refund(transactionId, deposit);
         }
 
-        tx.setStatus(Transaction.TransactionStatus.COMPLETED);
-        tx.setUpdatedAt(Instant.now());
-        transactionRepository.save(tx);
-
-        eventRepository.save(PaymentEvent.builder()
-                .transactionId(tx.getId())
-                .type("DEPOSIT_REFUNDED")
-                .actor("SYSTEM")
-                .createdAt(Instant.now())
-                .build()
-        );
-
-        // TIMELINE LOG FOR DEPOSIT REFUNDED
-        timelineLogService.log(
-                tx.getId(),
-                null,
-                "SYSTEM",
-                "Deposit fully refunded, transaction completed",
-                TimelineLog.ActionType.TRANSACTION_COMPLETED,
-                TimelineLog.ActorType.SYSTEM
-        );
+        escrowStateMachine.transition(transactionId, EscrowTransition.FINALIZE_REFUND)
+                .emit(OutboxMessage.paymentEvent("DEPOSIT_REFUNDED", "SYSTEM", null),
+                        // TIMELINE LOG FOR DEPOSIT REFUNDED
+                        OutboxMessage.timeline(
+                                null,
+                                "SYSTEM",
+                                "Deposit fully refunded, transaction completed",
+                                TimelineLog.ActionType.TRANSACTION_COMPLETED,
+                                TimelineLog.ActorType.SYSTEM
+                        ))
+                .apply();
     }
 
 
@@ -802,9 +687,66 @@ public class TransactionServiceImpl implements TransactionService {
     }
 
     @Override
-    public Page<Transaction> listForUser(String userId, Pageable pageable) {
-        // list both buyer and seller transactions
-        return transactionRepository.findAll(pageable);
+    public String getTransactionETag(String id) {
+        VersionView version = transactionRepository.findVersionById(id)
+                .orElseThrow(() -> new RuntimeException("Transaction not found"));
+        return ETags.of(version.getId(), version.getUpdatedAt());
+    }
+
+    @Override
+    public String etagOf(Transaction tx) {
+        return ETags.of(tx.getId(), tx.getUpdatedAt());
+    }
+
+    /**
+     * Merges two keyset streams, the buyer side and the seller side, each read from its own
+     * (party, [status,] createdAt, _id) index. Both use the same (createdAt, _id) order, so one
+     * cursor positions both and a page reads at most 2 * (size + 1) documents.
+     */
+    @Override
+    public CursorPage<Transaction> listForUser(String userEmail, Transaction.TransactionStatus status,
+                                               Transaction.TransactionType type, String cursor, int size) {
+        User user = userRepository.findByEmail(userEmail)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        // buyerId / sellerId hold either the user id or the email
+        List<String> partyIds = List.of(user.getId(), userEmail);
+        int limit = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+
+        KeysetCursor after = null;
+        if (cursor != null && !cursor.isBlank()) {
+            after = KeysetCursor.decode(cursor);
+            if (!after.matches("createdAt", true)) {
+                throw new RuntimeException("Cursor does not match the transaction history order");
+            }
+        }
+
+        // one extra row per side tells whether another page exists
+        List<Transaction> bought = transactionRepository.findPartyPageAfter("buyerId", partyIds, status, type, after, limit + 1);
+        List<Transaction> sold = transactionRepository.findPartyPageAfter("sellerId", partyIds, status, type, after, limit + 1);
+
+        List<Transaction> merged = new ArrayList<>(limit + 1);
+        int b = 0, s = 0;
+        while (merged.size() <= limit && (b < bought.size() || s < sold.size())) {
+            Transaction next;
+            if (s >= sold.size() || (b < bought.size() && HISTORY_ORDER.compare(bought.get(b), sold.get(s)) <= 0)) {
+                next = bought.get(b++);
+            } else {
+                next = sold.get(s++);
+            }
+            // a user who is on both sides of a transaction sees it once
+            if (merged.isEmpty() || !merged.get(merged.size() - 1).getId().equals(next.getId())) {
+                merged.add(next);
+            }
+        }
+
+        boolean hasMore = merged.size() > limit;
+        List<Transaction> items = hasMore ? merged.subList(0, limit) : merged;
+        String nextCursor = null;
+        if (hasMore) {
+            Transaction last = items.get(items.size() - 1);
+            nextCursor = new KeysetCursor("createdAt", true, last.getCreatedAt(), last.getId()).encode();
+        }
+        return new CursorPage<>(items, nextCursor, hasMore);
     }
 
     // ---- placeholder anti-fraud / verification methods ----
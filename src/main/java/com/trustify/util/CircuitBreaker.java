@@ -0,0 +1,133 @@
+package com.trustify.util;
+
+/**
+ * Count-based circuit breaker. Closed, it records the outcome of the last windowSize
+ * calls and opens once at least minimumCalls were recorded and the failure rate reaches
+ * the threshold. Open, it rejects every call until openMillis have passed, then lets
+ * halfOpenCalls trial calls through: all of them succeeding closes it, any failure
+ * opens it again.
+ *
+ * acquire() hands out the generation the call belongs to; outcomes reported for an older
+ * generation (calls started before the last state change) are ignored.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private final boolean[] window;
+    private int position;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    private long rejected;
+    private long opened;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openMillis, int halfOpenCalls) {
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.window = new boolean[windowSize];
+    }
+
+    /** The call's generation, or -1 when the breaker rejects it. */
+    public synchronized long acquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected++;
+                return -1;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= halfOpenCalls) {
+                rejected++;
+                return -1;
+            }
+            trialsStarted++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long callGeneration) {
+        if (callGeneration != generation) return;
+        if (state == State.HALF_OPEN) {
+            if (++trialsSucceeded >= halfOpenCalls) transition(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long callGeneration) {
+        if (callGeneration != generation) return;
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) transition(State.OPEN);
+        }
+    }
+
+    // the call never ran (e.g. the bulkhead turned it away): give a trial slot back
+    public synchronized void onSkipped(long callGeneration) {
+        if (callGeneration == generation && state == State.HALF_OPEN) trialsStarted--;
+    }
+
+    public synchronized State getState() {
+        // report an expired open state as half-open without consuming a trial
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) return State.HALF_OPEN;
+        return state;
+    }
+
+    public synchronized double getFailureRate() {
+        return recorded == 0 ? 0 : (double) failures / recorded;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == windowSize) {
+            if (window[position]) failures--;
+        } else {
+            recorded++;
+        }
+        window[position] = failure;
+        if (failure) failures++;
+        position = (position + 1) % windowSize;
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+        trialsStarted = 0;
+        trialsSucceeded = 0;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+            opened++;
+        }
+        if (next == State.CLOSED) {
+            recorded = 0;
+            failures = 0;
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.trustify.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for keyset (seek) pagination.
+ * Holds the sort key and the _id of the last item of a page, so the next page
+ * is fetched with a range query on an index instead of skip/limit.
+ */
+@Getter
+@AllArgsConstructor
+public class KeysetCursor {
+
+    private final String sortField;
+    private final boolean descending;
+    private final Object value; // Instant or Double
+    private final String id;
+
+    public String encode() {
+        String encodedValue;
+        if (value instanceof Instant instant) {
+            encodedValue = "t:" + instant.toEpochMilli();
+        } else if (value instanceof Number number) {
+            encodedValue = "n:" + number.doubleValue();
+        } else {
+            throw new IllegalStateException("Unsupported cursor value: " + value);
+        }
+
+        String raw = sortField + "|" + (descending ? "d" : "a") + "|" + encodedValue + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static KeysetCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+            if (parts.length != 4) throw new IllegalArgumentException();
+
+            String encodedValue = parts[2];
+            Object value;
+            if (encodedValue.startsWith("t:")) {
+                value = Instant.ofEpochMilli(Long.parseLong(encodedValue.substring(2)));
+            } else if (encodedValue.startsWith("n:")) {
+                value = Double.parseDouble(encodedValue.substring(2));
+            } else {
+                throw new IllegalArgumentException();
+            }
+
+            return new KeysetCursor(parts[0], "d".equals(parts[1]), value, parts[3]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    // Cursors are only valid for the ordering they were issued for
+    public boolean matches(String sortField, boolean descending) {
+        return this.sortField.equals(sortField) && this.descending == descending;
+    }
+}
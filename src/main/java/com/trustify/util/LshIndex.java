@@ -0,0 +1,72 @@
+package com.trustify.util;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locality-sensitive hashing buckets: each item is filed under a handful of band keys,
+ * and a lookup only looks at the items sharing at least one key with the query. The
+ * caller decides how signatures are banded and verifies the candidates it gets back.
+ */
+public class LshIndex {
+
+    private final Map<Long, Set<String>> buckets = new ConcurrentHashMap<>();
+
+    public void add(String id, long[] bandKeys) {
+        for (long key : bandKeys) {
+            buckets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    public void remove(String id, long[] bandKeys) {
+        for (long key : bandKeys) {
+            buckets.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    public Set<String> candidates(long[] bandKeys) {
+        Set<String> candidates = new HashSet<>();
+        for (long key : bandKeys) {
+            Set<String> ids = buckets.get(key);
+            if (ids != null) candidates.addAll(ids);
+        }
+        return candidates;
+    }
+
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /** Band keys of a MinHash signature: bands of rows consecutive positions, hashed together with the band number. */
+    public static long[] minHashBands(int[] signature, int bands) {
+        int rows = signature.length / bands;
+        long[] keys = new long[bands];
+        for (int b = 0; b < bands; b++) {
+            long h = b;
+            for (int r = 0; r < rows; r++) {
+                h = MinHash.mix(h * 31 + signature[b * rows + r]);
+            }
+            keys[b] = h;
+        }
+        return keys;
+    }
+
+    /**
+     * Band keys of 64-bit perceptual hashes: four 16-bit bands each. Two hashes within
+     * Hamming distance 3 always share a band; larger distances usually still do.
+     */
+    public static long[] bitBands(long[] hashes) {
+        long[] keys = new long[hashes.length * 4];
+        for (int i = 0; i < hashes.length; i++) {
+            for (int b = 0; b < 4; b++) {
+                keys[i * 4 + b] = ((long) b << 16) | ((hashes[i] >>> (16 * b)) & 0xFFFF);
+            }
+        }
+        return keys;
+    }
+}
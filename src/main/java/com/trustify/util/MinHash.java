@@ -0,0 +1,88 @@
+package com.trustify.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * MinHash signatures over word shingles. The fraction of equal positions in two
+ * signatures estimates the Jaccard similarity of the shingle sets.
+ *
+ * The seeds are fixed, so signatures stored in Mongo stay comparable across restarts;
+ * changing SIZE or SEED means recomputing every stored signature.
+ */
+public final class MinHash {
+
+    public static final int SIZE = 64;
+    private static final int SHINGLE_WORDS = 3;
+    private static final long SEED = 0x7f4a7c159e3779b9L;
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < SIZE; i++) SEEDS[i] = random.nextLong();
+    }
+
+    private MinHash() {
+    }
+
+    /** Signature of the text, or null when it has no words at all. */
+    public static int[] signature(String text) {
+        Set<Long> shingles = shingles(text);
+        if (shingles.isEmpty()) return null;
+
+        int[] signature = new int[SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < SIZE; i++) {
+                int h = (int) mix(shingle ^ SEEDS[i]);
+                if (h < signature[i]) signature[i] = h;
+            }
+        }
+        return signature;
+    }
+
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / SIZE;
+    }
+
+    // hashed word n-grams of the normalized text; texts shorter than n words fall back to single words
+    static Set<Long> shingles(String text) {
+        String[] words = text == null ? new String[0]
+                : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        int start = words.length > 0 && words[0].isEmpty() ? 1 : 0;
+        int count = words.length - start;
+
+        Set<Long> shingles = new HashSet<>();
+        int n = Math.min(SHINGLE_WORDS, count);
+        for (int i = start; i + n <= words.length && n > 0; i++) {
+            long h = 0xcbf29ce484222325L;
+            for (int j = i; j < i + n; j++) {
+                h = fnv(h, words[j]);
+                h = (h ^ ' ') * 0x100000001b3L;
+            }
+            shingles.add(h);
+        }
+        return shingles;
+    }
+
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // SplitMix64 finalizer
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
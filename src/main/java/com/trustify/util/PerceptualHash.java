@@ -0,0 +1,42 @@
+package com.trustify.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Difference hash (dHash): 64 bits, one per horizontally adjacent pixel pair of a 9x8
+ * grayscale thumbnail. Re-encoded, resized or lightly edited copies of a photo land within
+ * a few bits of each other. Feed it a small image; downscaling a large one straight to
+ * 9x8 aliases.
+ */
+public final class PerceptualHash {
+
+    private PerceptualHash() {
+    }
+
+    public static long dHash(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        } finally {
+            g.dispose();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = gray.getRaster().getSample(x, y, 0);
+                int right = gray.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -0,0 +1,74 @@
+package com.trustify.util;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpContent;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Stripe transport on java.net.http.HttpClient instead of the SDK's HttpURLConnection
+ * one: a single client keeps its connections (HTTP/2 where Stripe offers it) open and
+ * shared between threads, and every request carries its own deadline, taken from the
+ * read timeout of its RequestOptions.
+ *
+ * Retries stay with the SDK (HttpClient.requestWithRetries calls request() again).
+ */
+public class PooledStripeHttpClient extends HttpClient {
+
+    private final java.net.http.HttpClient client;
+    private final Duration defaultTimeout;
+
+    public PooledStripeHttpClient(Duration connectTimeout, Duration defaultTimeout) {
+        this.client = java.net.http.HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(java.net.http.HttpClient.Redirect.NEVER)
+                .build();
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws StripeException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(request.url().toURI());
+        } catch (URISyntaxException e) {
+            throw new ApiConnectionException("Invalid Stripe URL " + request.url(), e);
+        }
+
+        Integer readTimeout = request.options() != null ? request.options().getReadTimeout() : null;
+        builder.timeout(readTimeout != null && readTimeout > 0 ? Duration.ofMillis(readTimeout) : defaultTimeout);
+
+        request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        builder.header("User-Agent", buildUserAgentString());
+        builder.header("X-Stripe-Client-User-Agent", buildXStripeClientUserAgentString());
+
+        HttpContent content = request.content();
+        if (content != null) {
+            builder.header("Content-Type", content.contentType());
+            builder.method(request.method().name(), HttpRequest.BodyPublishers.ofByteArray(content.byteArrayContent()));
+        } else {
+            builder.method(request.method().name(), HttpRequest.BodyPublishers.noBody());
+        }
+
+        try {
+            HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            return new StripeResponse(response.statusCode(), HttpHeaders.of(response.headers().map()), response.body());
+        } catch (IOException e) {
+            // includes HttpTimeoutException; the SDK retries connection errors up to maxNetworkRetries
+            throw new ApiConnectionException("IOException during API request to Stripe (" + request.url() + "): "
+                    + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted during API request to Stripe", e);
+        }
+    }
+}
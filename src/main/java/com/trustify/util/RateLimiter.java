@@ -0,0 +1,39 @@
+package com.trustify.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by concurrent callers: permitsPerSecond on average, bursts of up
+ * to burst permits. acquire() blocks until a permit is available.
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double available;
+    private long refilledAt = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.available = this.burst;
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            // take the permit now, possibly going negative: later callers queue up behind it
+            available -= 1;
+            waitNanos = available >= 0 ? 0 : (long) (-available / permitsPerNano);
+        }
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(burst, available + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+    }
+}
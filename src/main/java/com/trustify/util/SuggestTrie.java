@@ -0,0 +1,328 @@
+package com.trustify.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prefix index for typeahead. Every node keeps the ids of the best k terms below it,
+ * so a completion is a walk down the prefix plus a copy of that list, independent of
+ * how many terms share the prefix.
+ *
+ * A term is reachable from its normalized text and from the suffixes starting at its
+ * next few words, so "civic" completes "Honda Civic 2018". Weights are listing counts
+ * and change incrementally; after a change only the top lists on the affected paths
+ * are recomputed, bottom-up. Node count is capped: terms that would need more nodes
+ * are rejected (and counted) rather than growing the heap.
+ *
+ * Not thread-safe; ListingSuggestService guards it with a read/write lock.
+ */
+public class SuggestTrie {
+
+    public static final int MAX_TERM_LENGTH = 64;
+    private static final int SUFFIX_WORDS = 3;
+    private static final int[] NONE = new int[0];
+
+    private final int k;
+    private final int maxNodes;
+
+    private final Node root = new Node();
+    private int nodeCount = 1;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<Term> terms = new ArrayList<>();
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private long rejected;
+
+    public SuggestTrie(int k, int maxNodes) {
+        this.k = k;
+        this.maxNodes = maxNodes;
+    }
+
+    public record Suggestion(String text, String type, int count) {
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int termCount() {
+        return ids.size();
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    /** Adds delta listings to the term; false when the term is new and the node budget is spent. */
+    public boolean add(String text, String type, int delta) {
+        String normalized = normalize(text);
+        if (normalized.isEmpty() || delta <= 0) return true;
+
+        String termKey = type + ':' + normalized;
+        Integer id = ids.get(termKey);
+        if (id == null) {
+            String[] keys = keysOf(normalized);
+            if (nodeCount + newNodesFor(keys) > maxNodes) {
+                rejected++;
+                return false;
+            }
+            id = freeIds.isEmpty() ? terms.size() : freeIds.pop();
+            Term term = new Term(text.trim(), type, keys);
+            if (id == terms.size()) terms.add(term); else terms.set(id, term);
+            ids.put(termKey, id);
+            for (String key : keys) {
+                Node node = insertPath(key);
+                node.terminals = append(node.terminals, id);
+            }
+        }
+
+        Term term = terms.get(id);
+        term.weight += delta;
+        for (String key : term.keys) refresh(key);
+        return true;
+    }
+
+    public void remove(String text, String type, int delta) {
+        String termKey = type + ':' + normalize(text);
+        Integer id = ids.get(termKey);
+        if (id == null) return;
+
+        Term term = terms.get(id);
+        term.weight -= delta;
+        if (term.weight > 0) {
+            for (String key : term.keys) refresh(key);
+            return;
+        }
+
+        ids.remove(termKey);
+        terms.set(id, null);
+        freeIds.push(id);
+        for (String key : term.keys) {
+            List<Node> path = path(key);
+            if (path == null) continue;
+            Node last = path.get(path.size() - 1);
+            last.terminals = without(last.terminals, id);
+            prune(path, key);
+        }
+        // after all terminals are gone; until then other paths may still list the id (merge skips it)
+        for (String key : term.keys) refresh(key);
+    }
+
+    public List<Suggestion> complete(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty()) return List.of();
+
+        Node node = root;
+        for (int i = 0; i < normalized.length() && node != null; i++) {
+            node = node.child(normalized.charAt(i));
+        }
+        if (node == null) return List.of();
+
+        int n = Math.min(limit, node.top.length);
+        List<Suggestion> suggestions = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Term term = terms.get(node.top[i]);
+            suggestions.add(new Suggestion(term.display, term.type, term.weight));
+        }
+        return suggestions;
+    }
+
+    // lower case, punctuation to single spaces, capped length
+    public static String normalize(String text) {
+        if (text == null) return "";
+        String s = text.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+        return s.length() > MAX_TERM_LENGTH ? s.substring(0, MAX_TERM_LENGTH).trim() : s;
+    }
+
+    private static String[] keysOf(String normalized) {
+        List<String> keys = new ArrayList<>();
+        keys.add(normalized);
+        int from = 0;
+        for (int w = 0; w < SUFFIX_WORDS; w++) {
+            int space = normalized.indexOf(' ', from);
+            if (space < 0) break;
+            from = space + 1;
+            keys.add(normalized.substring(from));
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    private int newNodesFor(String[] keys) {
+        int needed = 0;
+        for (String key : keys) {
+            Node node = root;
+            int i = 0;
+            while (i < key.length() && node != null) {
+                node = node.child(key.charAt(i));
+                if (node != null) i++;
+            }
+            // suffixes of one term rarely share new nodes; overcounting only makes the cap stricter
+            needed += key.length() - i;
+        }
+        return needed;
+    }
+
+    private Node insertPath(String key) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            Node next = node.child(c);
+            if (next == null) {
+                next = new Node();
+                node.put(c, next);
+                nodeCount++;
+            }
+            node = next;
+        }
+        return node;
+    }
+
+    private List<Node> path(String key) {
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i));
+            if (node == null) return null;
+            path.add(node);
+        }
+        return path;
+    }
+
+    // drop the now empty tail of the path
+    private void prune(List<Node> path, String key) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            if (node.terminals.length > 0 || node.labels.length > 0) return;
+            path.get(i - 1).removeChild(key.charAt(i - 1));
+            nodeCount--;
+        }
+    }
+
+    // recompute the top lists along the key's path, deepest first
+    private void refresh(String key) {
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i));
+            if (node == null) break;
+            path.add(node);
+        }
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node n = path.get(i);
+            n.top = best(n);
+        }
+    }
+
+    private int[] best(Node node) {
+        int[] best = new int[k];
+        int size = 0;
+        size = merge(best, size, node.terminals);
+        for (Node child : node.children) {
+            size = merge(best, size, child.top);
+        }
+        return size == k ? best : Arrays.copyOf(best, size);
+    }
+
+    // insertion into a small sorted array, skipping ids already present
+    private int merge(int[] best, int size, int[] candidates) {
+        outer:
+        for (int id : candidates) {
+            if (terms.get(id) == null) continue;
+            for (int i = 0; i < size; i++) {
+                if (best[i] == id) continue outer;
+            }
+            int pos = size;
+            while (pos > 0 && ranksAbove(id, best[pos - 1])) pos--;
+            if (pos >= k) continue;
+            int end = Math.min(size, k - 1);
+            System.arraycopy(best, pos, best, pos + 1, end - pos);
+            best[pos] = id;
+            size = Math.min(size + 1, k);
+        }
+        return size;
+    }
+
+    private boolean ranksAbove(int a, int b) {
+        Term ta = terms.get(a);
+        Term tb = terms.get(b);
+        if (ta.weight != tb.weight) return ta.weight > tb.weight;
+        return ta.display.compareToIgnoreCase(tb.display) < 0;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] without(int[] values, int value) {
+        int[] result = new int[values.length];
+        int n = 0;
+        for (int v : values) {
+            if (v != value) result[n++] = v;
+        }
+        return n == 0 ? NONE : Arrays.copyOf(result, n);
+    }
+
+    private static final class Term {
+        final String display;
+        final String type;
+        final String[] keys;
+        int weight;
+
+        Term(String display, String type, String[] keys) {
+            this.display = display;
+            this.type = type;
+            this.keys = keys;
+        }
+    }
+
+    // children in parallel arrays sorted by label: a few bytes per edge instead of a HashMap per node
+    private static final class Node {
+        private static final Node[] LEAF = new Node[0];
+
+        char[] labels = new char[0];
+        Node[] children = LEAF;
+        int[] terminals = NONE;
+        int[] top = NONE;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        void put(char c, Node child) {
+            int i = -(Arrays.binarySearch(labels, c) + 1);
+            char[] l = new char[labels.length + 1];
+            Node[] ch = new Node[children.length + 1];
+            System.arraycopy(labels, 0, l, 0, i);
+            System.arraycopy(children, 0, ch, 0, i);
+            l[i] = c;
+            ch[i] = child;
+            System.arraycopy(labels, i, l, i + 1, labels.length - i);
+            System.arraycopy(children, i, ch, i + 1, children.length - i);
+            labels = l;
+            children = ch;
+        }
+
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i < 0) return;
+            char[] l = new char[labels.length - 1];
+            Node[] ch = new Node[children.length - 1];
+            System.arraycopy(labels, 0, l, 0, i);
+            System.arraycopy(children, 0, ch, 0, i);
+            System.arraycopy(labels, i + 1, l, i, labels.length - i - 1);
+            System.arraycopy(children, i + 1, ch, i, children.length - i - 1);
+            labels = l;
+            children = ch;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.trustify.loadtest;
+
+import com.trustify.dto.CreateTransactionRequest;
+import com.trustify.dto.CreateTransactionResult;
+import com.trustify.model.Transaction;
+import com.trustify.model.User;
+import com.trustify.model.WebhookEvent;
+import com.trustify.repository.UserRepository;
+import com.trustify.service.TransactionService;
+import com.trustify.stripe.FakeStripeServer;
+import com.trustify.util.LatencyHistogram;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end escrow load test: the whole app against FakeStripeServer and a local MongoDB.
+ * Every flow runs create -> authorize (signed webhook through the inbox) -> request release
+ * -> capture -> refund, and the report gives throughput plus count, errors, p50, p99 and max
+ * per step.
+ *
+ * Skipped unless -Dloadtest=true, e.g.
+ *
+ *   mvn test -Dtest=EscrowLoadTest -Dloadtest=true -Dloadtest.flows=2000 -Dloadtest.concurrency=32 \
+ *       -Dloadtest.stripe.latency-ms=80 -Dloadtest.stripe.jitter-ms=40 -Dloadtest.stripe.rate-limit-rate=0.01
+ *
+ * Data goes to -Dloadtest.mongodb.uri (default mongodb://localhost:27017/trustify_loadtest),
+ * never to the database in application.yml; mail goes nowhere.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class EscrowLoadTest {
+
+    private static final String WEBHOOK_SECRET = "whsec_loadtest";
+    private static final String[] STEPS = {"create", "authorize", "requestRelease", "capture", "refund"};
+
+    private static final int FLOWS = Integer.getInteger("loadtest.flows", 500);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 16);
+    private static final long AMOUNT_CENTS = 2_500;
+    private static final long WEBHOOK_WAIT_MS = 10_000;
+
+    // started with the application context, so a skipped run starts nothing
+    private static FakeStripeServer stripe;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @LocalServerPort
+    private int port;
+
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final Map<String, String> firstError = new ConcurrentHashMap<>();
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        stripe = startStripe();
+        String mongoUri = System.getProperty("loadtest.mongodb.uri", "mongodb://localhost:27017/trustify_loadtest");
+        registry.add("spring.data.mongodb.uri", () -> mongoUri);
+        registry.add("spring.data.mongodb.database", () -> "trustify_loadtest");
+
+        registry.add("stripe.client.api-base", stripe::baseUrl);
+        registry.add("STRIPE_SECRET_KEY", () -> "sk_test_loadtest");
+        registry.add("STRIPE_PUBLISHABLE_KEY", () -> "pk_test_loadtest");
+        registry.add("STRIPE_WEBHOOK_SECRET", () -> WEBHOOK_SECRET);
+
+        // nothing here may reach a real service
+        registry.add("spring.mail.host", () -> "127.0.0.1");
+        registry.add("spring.mail.port", () -> "1");
+        registry.add("spring.mail.properties.mail.smtp.ssl.enable", () -> "false");
+        registry.add("spring.mail.properties.mail.smtp.connectiontimeout", () -> "200");
+        registry.add("GOOGLE_CLIENT_ID", () -> "loadtest");
+        registry.add("GOOGLE_CLIENT_SECRET", () -> "loadtest");
+        registry.add("AWS_ACCESS_KEY_ID", () -> "loadtest");
+        registry.add("AWS_SECRET_ACCESS_KEY", () -> "loadtest");
+    }
+
+    @AfterAll
+    static void stopStripe() {
+        if (stripe != null) stripe.close();
+    }
+
+    @Test
+    void escrowFlowsUnderLoad() throws Exception {
+        stripe.webhooks("http://localhost:" + port + "/api/stripe/webhook", WEBHOOK_SECRET);
+
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        User buyer = userRepository.save(User.builder()
+                .username("loadtest-buyer-" + run).email("loadtest-buyer-" + run + "@example.com").fraudScore(0).build());
+        User seller = userRepository.save(User.builder()
+                .username("loadtest-seller-" + run).email("loadtest-seller-" + run + "@example.com").fraudScore(0).build());
+
+        ExecutorService workers = Executors.newFixedThreadPool(CONCURRENCY);
+        AtomicLong completed = new AtomicLong();
+        long started = System.nanoTime();
+        for (int i = 0; i < FLOWS; i++) {
+            String key = "loadtest-" + run + "-" + i;
+            workers.execute(() -> {
+                if (flow(buyer, seller, key)) completed.incrementAndGet();
+            });
+        }
+        workers.shutdown();
+        assertThat(workers.awaitTermination(30, TimeUnit.MINUTES)).isTrue();
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        report(completed.get(), seconds);
+        if (faultsInjected()) {
+            assertThat(completed.get()).isPositive();
+        } else {
+            assertThat(errors).as("step errors, first of each: %s", firstError).isEmpty();
+            assertThat(completed.get()).isEqualTo(FLOWS);
+        }
+    }
+
+    // one escrow from payment to refund; false as soon as a step fails
+    private boolean flow(User buyer, User seller, String key) {
+        CreateTransactionRequest req = new CreateTransactionRequest();
+        req.setListingId("loadtest-listing");
+        req.setBuyerId(buyer.getId());
+        req.setSellerId(seller.getId());
+        req.setType(Transaction.TransactionType.SALE);
+        req.setAmountCents(AMOUNT_CENTS);
+        req.setCurrency("usd");
+
+        CreateTransactionResult created = step("create", () -> transactionService.createAndAuthorize(req, key));
+        if (created == null) return false;
+        Transaction tx = created.getTransaction();
+
+        if (step("authorize", () -> awaitWebhook(stripe.authorize(tx.getStripePaymentIntentId()))) == null) return false;
+        if (step("requestRelease", () -> {
+            transactionService.requestRelease(tx.getId(), buyer.getId(), "load test");
+            return tx.getId();
+        }) == null) return false;
+        if (step("capture", () -> transactionService.capture(tx.getId(), seller.getId(), null, key)) == null) return false;
+        return step("refund", () -> {
+            transactionService.refund(tx.getId(), AMOUNT_CENTS);
+            return tx.getId();
+        }) != null;
+    }
+
+    // the webhook is answered once stored; the step ends when the inbox has applied it
+    private WebhookEvent awaitWebhook(String eventId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WEBHOOK_WAIT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            WebhookEvent event = mongoTemplate.findById(eventId, WebhookEvent.class);
+            if (event != null && event.getStatus() == WebhookEvent.Status.PROCESSED) return event;
+            if (event != null && event.getStatus() == WebhookEvent.Status.DEAD) {
+                throw new IllegalStateException("Webhook " + eventId + " dead: " + event.getLastError());
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("Webhook " + eventId + " not processed within " + WEBHOOK_WAIT_MS + " ms");
+    }
+
+    private <T> T step(String name, Step<T> step) {
+        long started = System.nanoTime();
+        try {
+            T result = step.run();
+            latency.computeIfAbsent(name, k -> new LatencyHistogram()).record((System.nanoTime() - started) / 1_000);
+            return result;
+        } catch (Exception e) {
+            errors.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+            firstError.putIfAbsent(name, e.toString());
+            return null;
+        }
+    }
+
+    private void report(long completed, double seconds) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%nEscrow load test: %d flows, concurrency %d, %d completed in %.1f s, %.1f flows/s%n",
+                FLOWS, CONCURRENCY, completed, seconds, completed / seconds));
+        out.append(String.format("Stripe fake: latency %d+%d ms, error rate %.3f, rate-limit rate %.3f, "
+                        + "injected 500s %d, injected 429s %d, webhooks %d delivered / %d failed%n",
+                Long.getLong("loadtest.stripe.latency-ms", 0), Long.getLong("loadtest.stripe.jitter-ms", 0),
+                doubleProperty("loadtest.stripe.error-rate"), doubleProperty("loadtest.stripe.rate-limit-rate"),
+                stripe.requests("injected 500"), stripe.requests("injected 429"),
+                stripe.getWebhooksDelivered(), stripe.getWebhooksFailed()));
+        out.append(String.format("%-16s %8s %8s %10s %10s %10s%n", "step", "ok", "errors", "p50 ms", "p99 ms", "max ms"));
+        for (String name : STEPS) {
+            LatencyHistogram histogram = latency.getOrDefault(name, new LatencyHistogram());
+            AtomicLong failed = errors.get(name);
+            out.append(String.format("%-16s %8d %8d %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+                    failed == null ? 0 : failed.get(), histogram.percentileMillis(0.50),
+                    histogram.percentileMillis(0.99), histogram.getMaxMillis()));
+        }
+        Map<String, String> failures = new LinkedHashMap<>(firstError);
+        failures.forEach((name, error) -> out.append(String.format("first %s error: %s%n", name, error)));
+        System.out.print(out);
+    }
+
+    private static FakeStripeServer startStripe() {
+        try {
+            return new FakeStripeServer()
+                    .latency(Long.getLong("loadtest.stripe.latency-ms", 0), Long.getLong("loadtest.stripe.jitter-ms", 0))
+                    .errorRate(doubleProperty("loadtest.stripe.error-rate"))
+                    .rateLimitRate(doubleProperty("loadtest.stripe.rate-limit-rate"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean faultsInjected() {
+        return doubleProperty("loadtest.stripe.error-rate") > 0 || doubleProperty("loadtest.stripe.rate-limit-rate") > 0;
+    }
+
+    private static double doubleProperty(String name) {
+        return Double.parseDouble(System.getProperty(name, "0"));
+    }
+
+    @FunctionalInterface
+    private interface Step<T> {
+        T run() throws Exception;
+    }
+}
@@ -0,0 +1,92 @@
+package com.trustify.service;
+
+import com.stripe.exception.StripeException;
+import com.stripe.param.PaymentIntentRetrieveParams;
+import com.trustify.exception.StripeUnavailableException;
+import com.trustify.stripe.FakeStripeServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Bulkhead and circuit breaker of the gateway against FakeStripeServer
+class StripeApiGatewayTest {
+
+    private FakeStripeServer stripe;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stripe = new FakeStripeServer();
+        stripe.putPaymentIntent("pi_1", "requires_capture", 1000, 0, 1_700_000_000L);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        stripe.close();
+    }
+
+    @Test
+    void bulkheadTurnsAwayCallsBeyondMaxConcurrent() throws Exception {
+        stripe.latency(500, 0);
+        // one slot, 50 ms wait for it
+        StripeApiGateway gateway = gateway(1, 50, 0.5);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> slow = executor.submit(() -> {
+            started.countDown();
+            return gateway.retrievePaymentIntent("pi_1", PaymentIntentRetrieveParams.builder().build());
+        });
+        started.await();
+        Thread.sleep(100);
+
+        assertThatThrownBy(() -> gateway.retrievePaymentIntent("pi_1", PaymentIntentRetrieveParams.builder().build()))
+                .isInstanceOf(StripeUnavailableException.class)
+                .hasMessageContaining("Too many payment requests");
+        slow.get();
+
+        Map<String, Object> stats = gateway.stats();
+        assertThat(stats.get("circuit").toString()).isEqualTo("CLOSED");
+        assertThat(operation(stats, "paymentIntents.retrieve").get("bulkheadRejected")).isEqualTo(1L);
+        assertThat(stats.get("inFlight")).isEqualTo(0);
+        assertThat(stripe.requests("retrieve payment_intent")).isEqualTo(1);
+    }
+
+    @Test
+    void openCircuitFailsFastWithoutCallingStripe() {
+        stripe.errorRate(1.0);
+        StripeApiGateway gateway = gateway(4, 50, 0.5);
+
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> gateway.retrievePaymentIntent("pi_1", PaymentIntentRetrieveParams.builder().build()))
+                    .isInstanceOf(StripeException.class);
+        }
+        long served = stripe.requests("retrieve payment_intent");
+
+        assertThatThrownBy(() -> gateway.retrievePaymentIntent("pi_1", PaymentIntentRetrieveParams.builder().build()))
+                .isInstanceOf(StripeUnavailableException.class);
+        assertThat(stripe.requests("retrieve payment_intent")).isEqualTo(served);
+        assertThat(gateway.stats().get("circuit").toString()).isEqualTo("OPEN");
+    }
+
+    // no network retries; breaker window 4, opening after 4 calls at the given failure rate
+    private StripeApiGateway gateway(int maxConcurrent, long bulkheadWaitMillis, double failureRate) {
+        return new StripeApiGateway("sk_test_fake", stripe.baseUrl(),
+                1000, 5000, 5000, 0, maxConcurrent, bulkheadWaitMillis, 4, 4, failureRate, 30000, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> operation(Map<String, Object> stats, String name) {
+        return (Map<String, Object>) ((Map<String, Object>) stats.get("operations")).get(name);
+    }
+}
@@ -0,0 +1,114 @@
+package com.trustify.service;
+
+import com.stripe.model.PaymentIntent;
+import com.trustify.model.ReconciliationIssue;
+import com.trustify.model.Transaction;
+import com.trustify.stripe.FakeStripeServer;
+import com.trustify.util.RateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs the PaymentIntent fetch against FakeStripeServer; no Mongo or Stripe account needed
+class StripeReconciliationTest {
+
+    private FakeStripeServer stripe;
+    private ExecutorService executor;
+    private StripeApiGateway gateway;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stripe = new FakeStripeServer();
+        executor = Executors.newFixedThreadPool(4);
+        gateway = new StripeApiGateway("sk_test_fake", stripe.baseUrl(),
+                1000, 5000, 5000, 0, 8, 1000, 50, 20, 0.5, 30000, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        stripe.close();
+    }
+
+    @Test
+    void fetchesPaymentIntentsThroughListWindows() throws Exception {
+        long base = Instant.parse("2026-01-01T00:00:00Z").getEpochSecond();
+        Map<String, Instant> createdAt = new LinkedHashMap<>();
+        // three bursts of traffic a day apart, with unrelated PaymentIntents in between
+        for (int burst = 0; burst < 3; burst++) {
+            for (int i = 0; i < 150; i++) {
+                long created = base + burst * 86_400L + i * 10L;
+                String id = "pi_" + burst + "_" + i;
+                stripe.putPaymentIntent(id, "requires_capture", 1000, 0, created);
+                createdAt.put(id, Instant.ofEpochSecond(created + 1));
+            }
+            stripe.putPaymentIntent("pi_other_" + burst, "succeeded", 500, 500, base + burst * 86_400L + 5);
+        }
+        createdAt.put("pi_unknown", Instant.ofEpochSecond(base));
+
+        PaymentIntentFetcher fetcher = new PaymentIntentFetcher(gateway, executor, new RateLimiter(1000, 10), 600);
+        Map<String, PaymentIntent> found = fetcher.fetch(createdAt);
+
+        assertThat(found).hasSize(450).doesNotContainKey("pi_unknown");
+        assertThat(found.get("pi_1_7").getStatus()).isEqualTo("requires_capture");
+        // list pages instead of 451 retrieves; only the unknown id is retrieved on its own
+        assertThat(fetcher.getListCalls()).isLessThanOrEqualTo(18);
+        assertThat(fetcher.getRetrieveCalls()).isEqualTo(1);
+        assertThat(stripe.requests("retrieve payment_intent")).isEqualTo(1);
+    }
+
+    @Test
+    void comparesTransactionsWithTheirPaymentIntents() {
+        Instant now = Instant.now();
+
+        List<ReconciliationIssue> cancelled = StripeReconciliationService.compare(
+                tx(Transaction.TransactionStatus.AUTHORIZED, null), pi("canceled", 0), false, now);
+        assertThat(cancelled).extracting(ReconciliationIssue::getKind)
+                .containsExactly(ReconciliationIssue.Kind.MISSED_CANCELLATION);
+
+        List<ReconciliationIssue> amount = StripeReconciliationService.compare(
+                tx(Transaction.TransactionStatus.RELEASED, 900L), pi("succeeded", 1000), true, now);
+        assertThat(amount).extracting(ReconciliationIssue::getKind)
+                .containsExactly(ReconciliationIssue.Kind.AMOUNT_MISMATCH);
+
+        List<ReconciliationIssue> capturedElsewhere = StripeReconciliationService.compare(
+                tx(Transaction.TransactionStatus.PENDING_RELEASE, null), pi("succeeded", 1000), false, now);
+        assertThat(capturedElsewhere).extracting(ReconciliationIssue::getKind)
+                .containsExactly(ReconciliationIssue.Kind.CAPTURED_ONLY_IN_STRIPE);
+
+        assertThat(StripeReconciliationService.compare(
+                tx(Transaction.TransactionStatus.RELEASED, 1000L), pi("succeeded", 1000), true, now)).isEmpty();
+        assertThat(StripeReconciliationService.compare(
+                tx(Transaction.TransactionStatus.AUTHORIZED, null), null, false, now))
+                .extracting(ReconciliationIssue::getKind)
+                .containsExactly(ReconciliationIssue.Kind.MISSING_IN_STRIPE);
+    }
+
+    private static Transaction tx(Transaction.TransactionStatus status, Long captured) {
+        return Transaction.builder()
+                .id("tx_1")
+                .stripePaymentIntentId("pi_1")
+                .status(status)
+                .amountCents(1000)
+                .amountCapturedCents(captured)
+                .build();
+    }
+
+    private static PaymentIntent pi(String status, long received) {
+        PaymentIntent pi = new PaymentIntent();
+        pi.setId("pi_1");
+        pi.setStatus(status);
+        pi.setAmount(1000L);
+        pi.setAmountReceived(received);
+        return pi;
+    }
+}
@@ -0,0 +1,496 @@
+package com.trustify.stripe;
+
+import com.google.gson.Gson;
+import com.stripe.Stripe;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Stripe endpoints the app calls: PaymentIntent create,
+ * retrieve, list, confirm and capture, Refund and Transfer. Point stripe.client.api-base
+ * (or StripeApiGateway's apiBase) at baseUrl().
+ *
+ * Faults are injected per request: latency (base + random jitter), a share of 500
+ * api_errors and a share of 429 rate_limit_errors. With webhooks(url, secret) set,
+ * confirm and capture post signed payment_intent events to the app, the way Stripe would;
+ * authorize(id) stands in for the buyer confirming in the browser.
+ * Requests with an Idempotency-Key get the first response again.
+ */
+public class FakeStripeServer implements AutoCloseable {
+
+    private static final Gson GSON = new Gson();
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final HttpClient webhookClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private final Map<String, Map<String, Object>> paymentIntents = new ConcurrentHashMap<>();
+    private final Map<String, String> paymentIntentByCharge = new ConcurrentHashMap<>();
+    private final Map<String, Response> idempotent = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong webhooksDelivered = new AtomicLong();
+    private final AtomicLong webhooksFailed = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorRate;
+    private volatile double rateLimitRate;
+    private volatile String webhookUrl;
+    private volatile String webhookSecret;
+
+    public FakeStripeServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/payment_intents", exchange -> serve(exchange, this::paymentIntents));
+        server.createContext("/v1/refunds", exchange -> serve(exchange, this::refunds));
+        server.createContext("/v1/transfers", exchange -> serve(exchange, this::transfers));
+        // one thread per request, so injected latency does not serialize callers
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public FakeStripeServer latency(long baseMillis, long jitterMillis) {
+        this.latencyMillis = baseMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** Share of requests (0..1) answered with 500 api_error. */
+    public FakeStripeServer errorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /** Share of requests (0..1) answered with 429 rate_limit_error. */
+    public FakeStripeServer rateLimitRate(double rate) {
+        this.rateLimitRate = rate;
+        return this;
+    }
+
+    /** Where to post signed events; secret is the endpoint's whsec_ signing secret. */
+    public FakeStripeServer webhooks(String url, String secret) {
+        this.webhookUrl = url;
+        this.webhookSecret = secret;
+        return this;
+    }
+
+    /** Adds or replaces a PaymentIntent; created is in epoch seconds. */
+    public void putPaymentIntent(String id, String status, long amount, long amountReceived, long created) {
+        Map<String, Object> pi = paymentIntent(id, amount, "usd", created);
+        pi.put("status", status);
+        pi.put("amount_received", amountReceived);
+        paymentIntents.put(id, pi);
+    }
+
+    /**
+     * What the buyer's browser does with Stripe.js: confirms the PaymentIntent with a test
+     * card. The money is then held (requires_capture) and payment_intent.amount_capturable_updated
+     * is delivered. Returns the event id, or null when the PaymentIntent is unknown.
+     */
+    public String authorize(String paymentIntentId) {
+        Map<String, Object> pi = paymentIntents.get(paymentIntentId);
+        if (pi == null) return null;
+        synchronized (pi) {
+            pi.put("status", "requires_capture");
+            pi.put("amount_capturable", pi.get("amount"));
+            pi.put("payment_method", "pm_card_visa");
+        }
+        return deliver("payment_intent.amount_capturable_updated", pi);
+    }
+
+    /** Requests served per operation, e.g. "list payment_intents" or "create refund". */
+    public long requests(String operation) {
+        AtomicLong n = requests.get(operation);
+        return n == null ? 0 : n.get();
+    }
+
+    public long getWebhooksDelivered() {
+        return webhooksDelivered.get();
+    }
+
+    public long getWebhooksFailed() {
+        return webhooksFailed.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    // ---- endpoints ----
+
+    private Response paymentIntents(String method, String path, Map<String, String> params) {
+        String rest = path.substring("/v1/payment_intents".length());
+        if (rest.isEmpty() || rest.equals("/")) {
+            if ("POST".equals(method)) return createPaymentIntent(params);
+            count("list payment_intents");
+            return new Response(200, list(params));
+        }
+
+        String[] parts = rest.substring(1).split("/");
+        if (parts.length == 1) count("retrieve payment_intent");
+        Map<String, Object> pi = paymentIntents.get(parts[0]);
+        if (pi == null) return missing("payment_intent", parts[0]);
+        if (parts.length == 1) return new Response(200, snapshot(pi));
+        return switch (parts[1]) {
+            case "confirm" -> confirm(pi);
+            case "capture" -> capture(pi, params);
+            default -> invalid("Unrecognized request URL (" + method + ": " + path + ")");
+        };
+    }
+
+    private Response createPaymentIntent(Map<String, String> params) {
+        count("create payment_intent");
+        if (!params.containsKey("amount") || !params.containsKey("currency")) {
+            return invalid("Missing required param: amount or currency.");
+        }
+        String id = "pi_fake_" + ids.incrementAndGet();
+        Map<String, Object> pi = paymentIntent(id, Long.parseLong(params.get("amount")), params.get("currency"),
+                System.currentTimeMillis() / 1000);
+        pi.put("capture_method", params.getOrDefault("capture_method", "automatic"));
+        pi.put("client_secret", id + "_secret_fake");
+        Map<String, String> metadata = new LinkedHashMap<>();
+        params.forEach((key, value) -> {
+            if (key.startsWith("metadata[")) metadata.put(key.substring(9, key.length() - 1), value);
+        });
+        pi.put("metadata", metadata);
+        paymentIntents.put(id, pi);
+        return new Response(200, snapshot(pi));
+    }
+
+    private Response confirm(Map<String, Object> pi) {
+        count("confirm payment_intent");
+        synchronized (pi) {
+            String status = (String) pi.get("status");
+            if (!"requires_payment_method".equals(status) && !"requires_confirmation".equals(status)) {
+                return invalid("This PaymentIntent's status is " + status + " and cannot be confirmed.");
+            }
+            pi.put("status", "requires_capture");
+            pi.put("amount_capturable", pi.get("amount"));
+        }
+        deliverLater("payment_intent.amount_capturable_updated", pi);
+        return new Response(200, snapshot(pi));
+    }
+
+    private Response capture(Map<String, Object> pi, Map<String, String> params) {
+        count("capture payment_intent");
+        synchronized (pi) {
+            if (!"requires_capture".equals(pi.get("status"))) {
+                return invalid("This PaymentIntent could not be captured because it has a status of " + pi.get("status") + ".");
+            }
+            long amount = ((Number) pi.get("amount")).longValue();
+            long toCapture = params.containsKey("amount_to_capture") ? Long.parseLong(params.get("amount_to_capture")) : amount;
+            if (toCapture > amount) return invalid("amount_to_capture is greater than the amount capturable.");
+
+            String chargeId = "ch_fake_" + ids.incrementAndGet();
+            pi.put("status", "succeeded");
+            pi.put("amount_received", toCapture);
+            pi.put("amount_capturable", 0L);
+            pi.put("latest_charge", chargeId);
+            pi.put("amount_refunded", 0L);
+            paymentIntentByCharge.put(chargeId, (String) pi.get("id"));
+        }
+        deliverLater("payment_intent.succeeded", pi);
+        return new Response(200, snapshot(pi));
+    }
+
+    private Response refunds(String method, String path, Map<String, String> params) {
+        if (!"POST".equals(method)) return invalid("Only refund creation is supported");
+        count("create refund");
+        String paymentIntentId = params.containsKey("charge")
+                ? paymentIntentByCharge.get(params.get("charge"))
+                : params.get("payment_intent");
+        Map<String, Object> pi = paymentIntentId != null ? paymentIntents.get(paymentIntentId) : null;
+        if (pi == null) return missing("charge", params.getOrDefault("charge", params.get("payment_intent")));
+
+        long amount;
+        synchronized (pi) {
+            if (!"succeeded".equals(pi.get("status"))) return invalid("This PaymentIntent does not have a successful charge to refund.");
+            long received = ((Number) pi.get("amount_received")).longValue();
+            long refunded = ((Number) pi.get("amount_refunded")).longValue();
+            amount = params.containsKey("amount") ? Long.parseLong(params.get("amount")) : received - refunded;
+            if (amount <= 0 || refunded + amount > received) {
+                return invalid("Refund amount (" + amount + ") is greater than unrefunded amount on charge (" + (received - refunded) + ")");
+            }
+            pi.put("amount_refunded", refunded + amount);
+        }
+
+        Map<String, Object> refund = new LinkedHashMap<>();
+        refund.put("id", "re_fake_" + ids.incrementAndGet());
+        refund.put("object", "refund");
+        refund.put("amount", amount);
+        refund.put("currency", pi.get("currency"));
+        refund.put("charge", pi.get("latest_charge"));
+        refund.put("payment_intent", pi.get("id"));
+        refund.put("status", "succeeded");
+        refund.put("created", System.currentTimeMillis() / 1000);
+        return new Response(200, refund);
+    }
+
+    private Response transfers(String method, String path, Map<String, String> params) {
+        if (!"POST".equals(method)) return invalid("Only transfer creation is supported");
+        count("create transfer");
+        Map<String, Object> transfer = new LinkedHashMap<>();
+        transfer.put("id", "tr_fake_" + ids.incrementAndGet());
+        transfer.put("object", "transfer");
+        transfer.put("amount", Long.parseLong(params.getOrDefault("amount", "0")));
+        transfer.put("currency", params.get("currency"));
+        transfer.put("destination", params.get("destination"));
+        transfer.put("created", System.currentTimeMillis() / 1000);
+        return new Response(200, transfer);
+    }
+
+    // newest first, as Stripe lists them
+    private Map<String, Object> list(Map<String, String> query) {
+        long gte = Long.parseLong(query.getOrDefault("created[gte]", String.valueOf(Long.MIN_VALUE)));
+        long lte = Long.parseLong(query.getOrDefault("created[lte]", String.valueOf(Long.MAX_VALUE)));
+        int limit = Integer.parseInt(query.getOrDefault("limit", "10"));
+        String startingAfter = query.get("starting_after");
+
+        List<Map<String, Object>> matching = new ArrayList<>();
+        for (Map<String, Object> pi : paymentIntents.values()) {
+            long created = ((Number) pi.get("created")).longValue();
+            if (created >= gte && created <= lte) matching.add(snapshot(pi));
+        }
+        Comparator<Map<String, Object>> newestFirst = Comparator
+                .comparing((Map<String, Object> pi) -> ((Number) pi.get("created")).longValue())
+                .thenComparing(pi -> (String) pi.get("id"))
+                .reversed();
+        matching.sort(newestFirst);
+
+        int from = 0;
+        if (startingAfter != null) {
+            for (int i = 0; i < matching.size(); i++) {
+                if (startingAfter.equals(matching.get(i).get("id"))) {
+                    from = i + 1;
+                    break;
+                }
+            }
+        }
+        int to = Math.min(matching.size(), from + limit);
+
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("object", "list");
+        page.put("url", "/v1/payment_intents");
+        page.put("data", matching.subList(from, to));
+        page.put("has_more", to < matching.size());
+        return page;
+    }
+
+    // ---- webhooks ----
+
+    // Stripe sends events after answering the call that caused them
+    private void deliverLater(String type, Map<String, Object> pi) {
+        Map<String, Object> state = snapshot(pi);
+        handlers.execute(() -> deliver(type, state));
+    }
+
+    // posts the event synchronously, so the caller knows it reached the app; returns the event id
+    private String deliver(String type, Map<String, Object> pi) {
+        String eventId = "evt_fake_" + ids.incrementAndGet();
+        String url = webhookUrl;
+        if (url == null) return eventId;
+
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("id", eventId);
+        event.put("object", "event");
+        event.put("api_version", Stripe.API_VERSION);
+        event.put("created", now);
+        event.put("type", type);
+        event.put("livemode", false);
+        event.put("pending_webhooks", 1);
+        event.put("data", Map.of("object", snapshot(pi)));
+        String payload = GSON.toJson(event);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .header("Stripe-Signature", "t=" + now + ",v1=" + sign(now + "." + payload, webhookSecret))
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+        try {
+            HttpResponse<String> response = webhookClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 == 2) webhooksDelivered.incrementAndGet();
+            else webhooksFailed.incrementAndGet();
+        } catch (IOException e) {
+            webhooksFailed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            webhooksFailed.incrementAndGet();
+        }
+        return eventId;
+    }
+
+    private static String sign(String signedPayload, String secret) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(signedPayload.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---- plumbing ----
+
+    private void serve(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try {
+            inject();
+            String method = exchange.getRequestMethod();
+            Map<String, String> params = form(exchange.getRequestURI().getRawQuery());
+            if ("POST".equals(method)) {
+                params.putAll(form(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+            }
+
+            String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            Response response;
+            if (key != null && "POST".equals(method)) {
+                String scope = exchange.getRequestURI().getPath() + "|" + key;
+                response = idempotent.get(scope);
+                if (response == null) {
+                    response = endpoint.handle(method, exchange.getRequestURI().getPath(), params);
+                    // like Stripe, only responses that did something are replayed
+                    if (response.status < 500) idempotent.putIfAbsent(scope, response);
+                }
+            } else {
+                response = endpoint.handle(method, exchange.getRequestURI().getPath(), params);
+            }
+            respond(exchange, response);
+        } catch (InjectedFault fault) {
+            respond(exchange, fault.response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        } catch (RuntimeException e) {
+            respond(exchange, new Response(500, error("api_error", e.toString())));
+        }
+    }
+
+    private void inject() throws InterruptedException {
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) Thread.sleep(delay);
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < rateLimitRate) {
+            count("injected 429");
+            throw new InjectedFault(new Response(429, error("rate_limit_error", "Too many requests made to the API too quickly")));
+        }
+        if (roll < rateLimitRate + errorRate) {
+            count("injected 500");
+            throw new InjectedFault(new Response(500, error("api_error", "Injected server error")));
+        }
+    }
+
+    private static Map<String, Object> paymentIntent(String id, long amount, String currency, long created) {
+        Map<String, Object> pi = new LinkedHashMap<>();
+        pi.put("id", id);
+        pi.put("object", "payment_intent");
+        pi.put("status", "requires_payment_method");
+        pi.put("amount", amount);
+        pi.put("amount_capturable", 0L);
+        pi.put("amount_received", 0L);
+        pi.put("currency", currency);
+        pi.put("capture_method", "manual");
+        pi.put("created", created);
+        pi.put("livemode", false);
+        return pi;
+    }
+
+    // a consistent copy for serializing while other requests change the original
+    private static Map<String, Object> snapshot(Map<String, Object> pi) {
+        synchronized (pi) {
+            return new LinkedHashMap<>(pi);
+        }
+    }
+
+    private Response missing(String object, String id) {
+        return new Response(404, error("invalid_request_error", "No such " + object + ": '" + id + "'", "resource_missing"));
+    }
+
+    private static Response invalid(String message) {
+        return new Response(400, error("invalid_request_error", message));
+    }
+
+    private static Map<String, Object> error(String type, String message) {
+        return error(type, message, null);
+    }
+
+    private static Map<String, Object> error(String type, String message, String code) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("type", type);
+        error.put("message", message);
+        if (code != null) error.put("code", code);
+        return Map.of("error", error);
+    }
+
+    private void count(String operation) {
+        requests.computeIfAbsent(operation, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static Map<String, String> form(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = GSON.toJson(response.body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("Request-Id", "req_fake_" + System.nanoTime());
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        Response handle(String method, String path, Map<String, String> params);
+    }
+
+    private record Response(int status, Object body) {
+    }
+
+    private static final class InjectedFault extends RuntimeException {
+        private final Response response;
+
+        private InjectedFault(Response response) {
+            super(null, null, false, false);
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.trustify.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensOnceTheFailureRateIsReachedOverMinimumCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60_000, 2);
+
+        breaker.onFailure(breaker.acquire());
+        breaker.onFailure(breaker.acquire());
+        breaker.onSuccess(breaker.acquire());
+        // 2 of 3 failed, but fewer than minimumCalls were recorded
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        breaker.onFailure(breaker.acquire());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getOpened()).isEqualTo(1);
+
+        assertThat(breaker.acquire()).isNegative();
+        assertThat(breaker.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    void staysClosedBelowTheThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60_000, 2);
+        for (int i = 0; i < 20; i++) {
+            long call = breaker.acquire();
+            if (i % 4 == 0) breaker.onFailure(call); else breaker.onSuccess(call);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isLessThan(0.5);
+    }
+
+    @Test
+    void halfOpenProbesCloseItWhenAllSucceed() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(4, 2, 0.5, 20, 2));
+        Thread.sleep(40);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        long first = breaker.acquire();
+        long second = breaker.acquire();
+        assertThat(first).isNotNegative();
+        assertThat(second).isNotNegative();
+        // only halfOpenCalls trial calls at a time
+        assertThat(breaker.acquire()).isNegative();
+
+        breaker.onSuccess(first);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        breaker.onSuccess(second);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+    }
+
+    @Test
+    void aFailedProbeOpensItAgain() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(4, 2, 0.5, 20, 2));
+        Thread.sleep(40);
+
+        breaker.onFailure(breaker.acquire());
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getOpened()).isEqualTo(2);
+        assertThat(breaker.acquire()).isNegative();
+    }
+
+    @Test
+    void aSkippedProbeGivesItsSlotBack() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(4, 2, 0.5, 20, 1));
+        Thread.sleep(40);
+
+        long probe = breaker.acquire();
+        assertThat(breaker.acquire()).isNegative();
+        breaker.onSkipped(probe);
+        assertThat(breaker.acquire()).isNotNegative();
+    }
+
+    @Test
+    void ignoresOutcomesOfCallsFromBeforeTheLastStateChange() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, 60_000, 2);
+        long slowCall = breaker.acquire();
+        open(breaker);
+
+        breaker.onSuccess(slowCall);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) {
+        while (breaker.getState() == CircuitBreaker.State.CLOSED) {
+            breaker.onFailure(breaker.acquire());
+        }
+        return breaker;
+    }
+}
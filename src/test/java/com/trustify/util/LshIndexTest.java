@@ -0,0 +1,97 @@
+package com.trustify.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// MinHash + LSH banding as DuplicateDetectionService uses them (16 bands of 4 rows)
+class LshIndexTest {
+
+    private static final int BANDS = 16;
+    private static final String[] WORDS = ("iphone samsung galaxy pro max mini case charger cable screen battery "
+            + "bike helmet frame wheel saddle sofa table chair lamp desk shelf camera lens tripod bag "
+            + "watch strap jacket shoes size new used boxed warranty black white blue red silver gold").split(" ");
+
+    @Test
+    void nearDuplicatesShareABandWithTheirOriginal() {
+        Random random = new Random(42);
+        LshIndex index = new LshIndex();
+        List<String> originals = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String text = text(random, 30);
+            originals.add(text);
+            index.add("listing-" + i, LshIndex.minHashBands(MinHash.signature(text), BANDS));
+        }
+
+        int found = 0;
+        for (int i = 0; i < originals.size(); i++) {
+            // a repost with one word changed
+            String[] words = originals.get(i).split(" ");
+            words[random.nextInt(words.length)] = "refurbished";
+            int[] repost = MinHash.signature(String.join(" ", words));
+
+            assertThat(MinHash.similarity(repost, MinHash.signature(originals.get(i)))).isGreaterThan(0.6);
+            if (index.candidates(LshIndex.minHashBands(repost, BANDS)).contains("listing-" + i)) found++;
+        }
+        assertThat(found).isGreaterThanOrEqualTo(198);
+    }
+
+    @Test
+    void unrelatedTextsRarelyBecomeCandidates() {
+        Random random = new Random(7);
+        LshIndex index = new LshIndex();
+        for (int i = 0; i < 200; i++) {
+            index.add("listing-" + i, LshIndex.minHashBands(MinHash.signature(text(random, 30)), BANDS));
+        }
+
+        int candidates = 0;
+        for (int i = 0; i < 50; i++) {
+            candidates += index.candidates(LshIndex.minHashBands(MinHash.signature(text(random, 30)), BANDS)).size();
+        }
+        // far below the 200 comparisons per lookup a scan would make
+        assertThat(candidates / 50.0).isLessThan(2.0);
+    }
+
+    @Test
+    void removeTakesAnItemOutOfEveryBucket() {
+        LshIndex index = new LshIndex();
+        long[] bands = LshIndex.minHashBands(MinHash.signature("red mountain bike barely used"), BANDS);
+        index.add("a", bands);
+        index.add("b", bands);
+
+        index.remove("a", bands);
+        assertThat(index.candidates(bands)).containsExactly("b");
+        index.remove("b", bands);
+        assertThat(index.candidates(bands)).isEmpty();
+        assertThat(index.bucketCount()).isZero();
+    }
+
+    @Test
+    void perceptualHashesWithinThreeBitsAlwaysShareABand() {
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            long hash = random.nextLong();
+            long near = hash;
+            for (int flipped = 0; flipped < 3; flipped++) near ^= 1L << random.nextInt(64);
+
+            LshIndex index = new LshIndex();
+            index.add("original", LshIndex.bitBands(new long[]{hash}));
+            Set<String> candidates = index.candidates(LshIndex.bitBands(new long[]{near}));
+            assertThat(candidates).containsExactly("original");
+        }
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
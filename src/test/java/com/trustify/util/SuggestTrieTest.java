@@ -0,0 +1,84 @@
+package com.trustify.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class SuggestTrieTest {
+
+    @Test
+    void completesPrefixesAndLaterWords() {
+        SuggestTrie trie = new SuggestTrie(5, 10_000);
+        trie.add("Honda Civic 2018", "title", 3);
+        trie.add("Honda City", "title", 5);
+        trie.add("Hondo", "brand", 1);
+
+        assertThat(texts(trie.complete("hon", 10))).containsExactly("Honda City", "Honda Civic 2018", "Hondo");
+        assertThat(texts(trie.complete("civic", 10))).containsExactly("Honda Civic 2018");
+        assertThat(texts(trie.complete("  HONDA   ci", 10))).containsExactly("Honda City", "Honda Civic 2018");
+        assertThat(trie.complete("toyota", 10)).isEmpty();
+    }
+
+    @Test
+    void keepsOnlyTheTopKAtEveryNode() {
+        SuggestTrie trie = new SuggestTrie(2, 10_000);
+        trie.add("phone a", "title", 1);
+        trie.add("phone b", "title", 3);
+        trie.add("phone c", "title", 2);
+
+        assertThat(texts(trie.complete("ph", 10))).containsExactly("phone b", "phone c");
+        assertThat(texts(trie.complete("phone a", 10))).containsExactly("phone a");
+    }
+
+    @Test
+    void reRanksWhenWeightsChange() {
+        SuggestTrie trie = new SuggestTrie(2, 10_000);
+        trie.add("phone a", "title", 1);
+        trie.add("phone b", "title", 3);
+        trie.add("phone c", "title", 2);
+
+        trie.add("phone a", "title", 5);
+        assertThat(trie.complete("phone", 10))
+                .extracting(SuggestTrie.Suggestion::text, SuggestTrie.Suggestion::count)
+                .containsExactly(tuple("phone a", 6), tuple("phone b", 3));
+
+        trie.remove("phone b", "title", 2);
+        assertThat(texts(trie.complete("phone", 10))).containsExactly("phone a", "phone c");
+    }
+
+    @Test
+    void removingTheLastListingDropsTheTermAndItsNodes() {
+        SuggestTrie trie = new SuggestTrie(3, 10_000);
+        trie.add("bike", "title", 1);
+        trie.add("bike helmet", "title", 2);
+        int nodes = trie.nodeCount();
+
+        trie.remove("bike helmet", "title", 2);
+        assertThat(texts(trie.complete("bike", 10))).containsExactly("bike");
+        assertThat(trie.complete("helmet", 10)).isEmpty();
+        assertThat(trie.termCount()).isEqualTo(1);
+        assertThat(trie.nodeCount()).isLessThan(nodes);
+
+        trie.remove("bike", "title", 1);
+        assertThat(trie.complete("b", 10)).isEmpty();
+        assertThat(trie.nodeCount()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsNewTermsOnceTheNodeBudgetIsSpent() {
+        SuggestTrie trie = new SuggestTrie(3, 8);
+        assertThat(trie.add("lamp", "title", 1)).isTrue();
+        assertThat(trie.add("bookshelf", "title", 1)).isFalse();
+        assertThat(trie.rejected()).isEqualTo(1);
+        // an existing term still takes more listings
+        assertThat(trie.add("lamp", "title", 1)).isTrue();
+        assertThat(trie.complete("la", 10)).extracting(SuggestTrie.Suggestion::count).containsExactly(2);
+    }
+
+    private static List<String> texts(List<SuggestTrie.Suggestion> suggestions) {
+        return suggestions.stream().map(SuggestTrie.Suggestion::text).toList();
+    }
+}
@@ -0,0 +1,62 @@
+package com.trustify.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TtlCacheTest {
+
+    @Test
+    void entriesExpireAfterTheTtl() throws InterruptedException {
+        TtlCache<String, String> cache = new TtlCache<>(10, 50);
+        cache.put("a", "1");
+        assertThat(cache.getIfPresent("a")).isEqualTo("1");
+
+        Thread.sleep(80);
+        assertThat(cache.getIfPresent("a")).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.stats().get("expirations")).isEqualTo(1L);
+    }
+
+    @Test
+    void anExpiredEntryIsLoadedAgain() throws InterruptedException {
+        TtlCache<String, Integer> cache = new TtlCache<>(10, 50);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(1);
+        Thread.sleep(80);
+        assertThat(cache.get("a", k -> loads.incrementAndGet())).isEqualTo(2);
+
+        assertThat(cache.stats().get("hits")).isEqualTo(1L);
+        assertThat(cache.stats().get("loads")).isEqualTo(2L);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBeyondMaxSize() {
+        TtlCache<String, String> cache = new TtlCache<>(2, 60_000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.getIfPresent("a");
+        cache.put("c", "3");
+
+        assertThat(cache.getIfPresent("b")).isNull();
+        assertThat(cache.getIfPresent("a")).isEqualTo("1");
+        assertThat(cache.getIfPresent("c")).isEqualTo("3");
+        assertThat(cache.stats().get("evictions")).isEqualTo(1L);
+    }
+
+    @Test
+    void aLoadRacingAnInvalidationIsNotCached() {
+        TtlCache<String, String> cache = new TtlCache<>(10, 60_000);
+        String loaded = cache.get("a", k -> {
+            cache.invalidate("a");
+            return "stale";
+        });
+
+        assertThat(loaded).isEqualTo("stale");
+        assertThat(cache.getIfPresent("a")).isNull();
+    }
+}